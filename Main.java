@@ -1,37 +1,82 @@
 import interpreter.*;
 
-import java.util.Scanner;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.List;
+import java.util.Scanner;
 
 public class Main {
     public static void main(String[] args) {
         Scanner scanner = new Scanner(System.in);
         Evaluator evaluator = new Evaluator();
+        boolean optimizerReport = false;
+        String script = null;
+        for (String arg : args) {
+            if (arg.equals("--bytecode")) evaluator.setMode(Evaluator.Mode.BYTECODE);
+            if (arg.equals("--closure")) evaluator.setMode(Evaluator.Mode.CLOSURE);
+            if (arg.equals("--tiered")) evaluator.setMode(Evaluator.Mode.TIERED);
+            if (arg.equals("--no-optimize")) evaluator.setOptimize(false);
+            if (arg.equals("--optimizer-report")) optimizerReport = true;
+            if (arg.equals("--profile")) evaluator.setProfiler(new Profiler());
+            if (arg.equals("--image")) evaluator.setProgramImages(true);
+            if (arg.equals("--parallel")) evaluator.setParallel(true);
+            if (arg.startsWith("--fuel=")) {
+                evaluator.setLimits(evaluator.getLimits().withFuel(Long.parseLong(arg.substring(7))));
+            }
+            if (arg.startsWith("--time-limit=")) {
+                Duration timeLimit = Duration.ofMillis(Long.parseLong(arg.substring(13)));
+                evaluator.setLimits(evaluator.getLimits().withTimeLimit(timeLimit));
+            }
+            if (!arg.startsWith("--")) script = arg;
+        }
+
+        if (script != null) {
+            try {
+                evaluator.executeFile(Path.of(script));
+            } catch (Exception e) {
+                System.out.println("Error: " + e.getMessage());
+            }
+            if (optimizerReport && evaluator.getOptimizationReport() != null) {
+                System.out.println(evaluator.getOptimizationReport());
+            }
+            printProfile(evaluator);
+            return;
+        }
 
         System.out.println("Mini Intérprete (escribe 'exit;' para salir)");
 
-        StringBuilder input = new StringBuilder();
+        IncrementalParser parser = new IncrementalParser();
         while (true) {
-            System.out.print(">>> ");
+            System.out.print(parser.hasPending() ? "... " : ">>> ");
+            if (!scanner.hasNextLine()) {
+                printProfile(evaluator);
+                break;
+            }
             String line = scanner.nextLine();
-            if (line.trim().equals("exit;")) break;
-
-            input.append(line).append("\n");
-
-            if (line.trim().endsWith(";") || line.trim().endsWith("}")) {
-                try {
-                    Lexer lexer = new Lexer(input.toString());
-                    List<Token> tokens = lexer.tokenize();
-
-                    Parser parser = new Parser(tokens);
-                    List<Stmt> statements = parser.parse();
+            if (line.trim().equals("exit;")) {
+                printProfile(evaluator);
+                break;
+            }
 
-                    evaluator.execute(statements);
-                } catch (Exception e) {
-                    System.out.println("Error: " + e.getMessage());
+            try {
+                // Statements run as soon as the input completes them.
+                List<Stmt> statements = parser.feed(line);
+                if (statements == null) continue;
+                evaluator.execute(statements);
+                if (optimizerReport && evaluator.getOptimizationReport() != null) {
+                    System.out.println(evaluator.getOptimizationReport());
                 }
-                input.setLength(0); // limpiar
+            } catch (Exception e) {
+                System.out.println("Error: " + e.getMessage());
             }
         }
     }
+
+    private static void printProfile(Evaluator evaluator) {
+        Profiler profiler = evaluator.getProfiler();
+        if (profiler != null) {
+            profiler.printReport(System.err, 10);
+            profiler.commitEvents();
+        }
+    }
 }
@@ -0,0 +1,76 @@
+package interpreter.bench;
+
+import interpreter.Evaluator;
+import interpreter.OutputSink;
+import interpreter.Program;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.runner.IterationType;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heap allocation of a warm loop over numbers, in every mode; run with {@code -prof gc}
+ * to see the rates. The tree-walker stores numbers unboxed and evaluates them through
+ * the typed entry points, the bytecode VM keeps them in unboxed registers and compiled
+ * loops keep them in {@code double} locals, so a run allocates less than a byte per loop
+ * iteration; a measurement iteration that allocates more fails the benchmark.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AllocationBenchmark {
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    @Param({ "1000000" })
+    public int iterations;
+
+    @Param({ "TREE_WALKER", "BYTECODE", "TIERED" })
+    public Evaluator.Mode mode;
+
+    private Program program;
+    private Evaluator evaluator;
+    // Bytes the benchmark thread had allocated when the iteration started, and runs since.
+    private long allocated;
+    private long runs;
+
+    @Setup
+    public void setUp() {
+        program = Program.compile("i = 0; s = 0; f = true;"
+                + " while (i < " + iterations + ") { if (f) { s = s + i * 2 % 7; } else { s = s - i / 3; }"
+                + " f = !f && s > -1; i = i + 1; } print s;");
+        evaluator = new Evaluator();
+        evaluator.setMode(mode);
+        evaluator.setOutput(OutputSink.DISCARD);
+    }
+
+    @Setup(Level.Iteration)
+    public void startCounting() {
+        runs = 0;
+        allocated = THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    @Benchmark
+    public Evaluator run() {
+        runs++;
+        evaluator.execute(program);
+        return evaluator;
+    }
+
+    @TearDown(Level.Iteration)
+    public void checkAllocation(IterationParams params) {
+        if (params.getType() != IterationType.MEASUREMENT || runs == 0) {
+            return;
+        }
+        long perRun = (THREADS.getCurrentThreadAllocatedBytes() - allocated) / runs;
+        if (perRun >= iterations) {
+            throw new IllegalStateException(mode + " allocated " + perRun + " bytes per run of "
+                    + iterations + " loop iterations; numbers are being boxed");
+        }
+    }
+}
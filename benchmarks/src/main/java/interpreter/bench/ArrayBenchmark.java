@@ -0,0 +1,75 @@
+package interpreter.bench;
+
+import interpreter.Evaluator;
+import interpreter.OutputSink;
+import interpreter.Program;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sum of squares of {@code 0 .. size - 1}: a while loop over numbers, against the same
+ * sum over arrays, with and without the vector module; and a chain of element-wise
+ * operators and reductions over arrays. Sizes from 1 << 20 up keep the arrays off the heap.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ArrayBenchmark {
+    @Param({ "100000", "4000000" })
+    public int size;
+
+    @Param({ "TREE_WALKER", "TIERED" })
+    public Evaluator.Mode mode;
+
+    private Program loop;
+    private Program array;
+    private Program elementWise;
+    private Evaluator evaluator;
+
+    @Setup
+    public void setUp() {
+        loop = Program.compile("i = 0; s = 0; while (i < " + size + ") { s = s + i * i; i = i + 1; } print s;");
+        array = Program.compile("r = range(" + size + "); print dot(r, r);");
+        elementWise = Program.compile("r = range(" + size + "); s = -(r * 2 + r / 3 - 1);"
+                + " print sum(s) + min(s) + max(s);");
+        evaluator = new Evaluator();
+        evaluator.setMode(mode);
+        evaluator.setOutput(OutputSink.DISCARD);
+    }
+
+    @Benchmark
+    public Evaluator loop() {
+        evaluator.execute(loop);
+        return evaluator;
+    }
+
+    @Benchmark
+    public Evaluator scalarArrays() {
+        evaluator.execute(array);
+        return evaluator;
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+    public Evaluator vectorArrays() {
+        evaluator.execute(array);
+        return evaluator;
+    }
+
+    @Benchmark
+    public Evaluator scalarElementWise() {
+        evaluator.execute(elementWise);
+        return evaluator;
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+    public Evaluator vectorElementWise() {
+        evaluator.execute(elementWise);
+        return evaluator;
+    }
+}
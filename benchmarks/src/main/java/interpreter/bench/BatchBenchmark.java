@@ -0,0 +1,94 @@
+package interpreter.bench;
+
+import interpreter.BatchExpression;
+import interpreter.Column;
+import interpreter.Environment;
+import interpreter.OutputSink;
+import interpreter.Program;
+import interpreter.Stmt;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One expression over {@code rows} rows of two number columns: run once per row in a
+ * freshly filled environment, against a {@link BatchExpression} on one thread and on the
+ * common fork-join pool.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BatchBenchmark {
+    private static final String EXPRESSION = "(x * 2 + y) / (y * y + 1) > x - 3 && x != y";
+
+    @Param({ "100000", "4000000" })
+    public int rows;
+
+    private double[] x;
+    private double[] y;
+    private Program perRow;
+    private int xSlot;
+    private int ySlot;
+    private int resultSlot;
+    private BatchExpression batch;
+    private Map<String, Column> columns;
+    private ForkJoinPool single;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        x = new double[rows];
+        y = new double[rows];
+        for (int i = 0; i < rows; i++) {
+            x[i] = random.nextDouble() * 100;
+            y[i] = random.nextDouble() * 100;
+        }
+        perRow = Program.compile("x = 0; y = 0; r = " + EXPRESSION + ";");
+        for (int i = 0; i < perRow.globalCount(); i++) {
+            switch (perRow.globalName(i)) {
+                case "x": xSlot = i; break;
+                case "y": ySlot = i; break;
+                default: resultSlot = i;
+            }
+        }
+        batch = BatchExpression.compile(EXPRESSION, Map.of("x", Column.Type.NUMBER, "y", Column.Type.NUMBER));
+        columns = Map.of("x", Column.of(x), "y", Column.of(y));
+        single = new ForkJoinPool(1);
+    }
+
+    @TearDown
+    public void tearDown() {
+        single.shutdown();
+    }
+
+    @Benchmark
+    public boolean[] perRow() {
+        boolean[] results = new boolean[rows];
+        // The first two statements only declare x and y; the last one is the expression.
+        Stmt expression = perRow.statements().get(perRow.statements().size() - 1);
+        for (int i = 0; i < rows; i++) {
+            Environment env = new Environment(perRow.globalCount(), OutputSink.DISCARD);
+            env.setGlobal(xSlot, x[i]);
+            env.setGlobal(ySlot, y[i]);
+            expression.execute(env);
+            results[i] = (Boolean) env.getGlobal(resultSlot);
+        }
+        return results;
+    }
+
+    @Benchmark
+    public Column batch() {
+        return batch.evaluate(columns, single);
+    }
+
+    @Benchmark
+    public Column parallelBatch() {
+        return batch.evaluate(columns);
+    }
+}
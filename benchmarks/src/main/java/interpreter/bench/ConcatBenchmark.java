@@ -0,0 +1,43 @@
+package interpreter.bench;
+
+import interpreter.Evaluator;
+import interpreter.OutputSink;
+import interpreter.Program;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code s = s + ...} in a loop at growing sizes. Appends take amortized constant
+ * time, so the score should grow linearly with {@code size}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConcatBenchmark {
+    @Param({ "10000", "100000", "1000000", "4000000" })
+    public int size;
+
+    @Param({ "TREE_WALKER", "BYTECODE" })
+    public Evaluator.Mode mode;
+
+    private Program program;
+    private Evaluator evaluator;
+
+    @Setup
+    public void setUp() {
+        program = Program.compile(Workload.STRING_CONCAT.source(size));
+        evaluator = new Evaluator();
+        evaluator.setMode(mode);
+        evaluator.setOutput(OutputSink.DISCARD);
+    }
+
+    @Benchmark
+    public Evaluator append() {
+        evaluator.execute(program);
+        return evaluator;
+    }
+}
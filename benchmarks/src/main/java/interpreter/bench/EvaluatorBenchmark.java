@@ -0,0 +1,45 @@
+package interpreter.bench;
+
+import interpreter.Evaluator;
+import interpreter.Lexer;
+import interpreter.OutputSink;
+import interpreter.Parser;
+import interpreter.Stmt;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Runs an already parsed workload; each invocation optimizes, resolves and executes it. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EvaluatorBenchmark {
+    @Param({ "DEEP_NESTING", "ARITHMETIC_CHAIN", "TIGHT_LOOP", "STRING_CONCAT", "MANY_VARIABLES" })
+    public Workload workload;
+
+    @Param({ "1000" })
+    public int size;
+
+    @Param({ "TREE_WALKER", "CLOSURE", "BYTECODE", "TIERED" })
+    public Evaluator.Mode mode;
+
+    private List<Stmt> statements;
+
+    @Setup
+    public void setUp() {
+        statements = new Parser(new Lexer(workload.source(size))).parse();
+    }
+
+    @Benchmark
+    public Evaluator evaluate() {
+        Evaluator evaluator = new Evaluator();
+        evaluator.setMode(mode);
+        evaluator.setOutput(OutputSink.DISCARD);
+        evaluator.execute(statements);
+        return evaluator;
+    }
+}
@@ -0,0 +1,61 @@
+package interpreter.bench;
+
+import interpreter.Evaluator;
+import interpreter.OutputSink;
+import interpreter.Program;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sum of {@code 0 .. size - 1}: a while loop, the same loop calling a function for each
+ * term, and a self tail-recursive function, which runs in one reused frame.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FunctionBenchmark {
+    @Param({ "100000", "1000000" })
+    public int size;
+
+    @Param({ "TREE_WALKER", "CLOSURE", "BYTECODE" })
+    public Evaluator.Mode mode;
+
+    private Program loop;
+    private Program calls;
+    private Program tailCalls;
+    private Evaluator evaluator;
+
+    @Setup
+    public void setUp() {
+        loop = Program.compile("i = 0; s = 0; while (i < " + size + ") { s = s + i; i = i + 1; } print s;");
+        calls = Program.compile("fun add(a, b) { return a + b; }"
+                + " i = 0; s = 0; while (i < " + size + ") { s = add(s, i); i = i + 1; } print s;");
+        tailCalls = Program.compile("fun total(i, s) { if (i == 0) { return s; } return total(i - 1, s + i - 1); }"
+                + " print total(" + size + ", 0);");
+        evaluator = new Evaluator();
+        evaluator.setMode(mode);
+        evaluator.setOutput(OutputSink.DISCARD);
+    }
+
+    @Benchmark
+    public Evaluator loop() {
+        evaluator.execute(loop);
+        return evaluator;
+    }
+
+    @Benchmark
+    public Evaluator calls() {
+        evaluator.execute(calls);
+        return evaluator;
+    }
+
+    @Benchmark
+    public Evaluator tailCalls() {
+        evaluator.execute(tailCalls);
+        return evaluator;
+    }
+}
@@ -0,0 +1,76 @@
+package interpreter.bench;
+
+import interpreter.Lexer;
+import interpreter.Token;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lexing throughput in bytes per second over a corpus of about 8 MB: copies of a
+ * workload, read through a Reader like a script file. {@code scan} only asks for token
+ * kinds, which allocates nothing per token; {@code next} builds a {@link Token} for each.
+ * The corpus is ASCII, so each character is one byte.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LexerBenchmark {
+    private static final int CORPUS_BYTES = 8 << 20;
+
+    @Param({ "DEEP_NESTING", "ARITHMETIC_CHAIN", "TIGHT_LOOP", "STRING_CONCAT", "MANY_VARIABLES" })
+    public Workload workload;
+
+    @Param({ "1000" })
+    public int size;
+
+    private String corpus;
+
+    /** Bytes lexed, reported by JMH as a rate next to the operations. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        String source = workload.source(size);
+        StringBuilder corpus = new StringBuilder(CORPUS_BYTES + source.length());
+        while (corpus.length() < CORPUS_BYTES) {
+            corpus.append(source);
+        }
+        this.corpus = corpus.toString();
+    }
+
+    @Benchmark
+    public int scan(Bytes counter) {
+        Lexer lexer = new Lexer(new StringReader(corpus));
+        int count = 0;
+        while (lexer.nextKind() != Token.Kind.EOF) {
+            count++;
+        }
+        counter.bytes += corpus.length();
+        return count;
+    }
+
+    @Benchmark
+    public int next(Bytes counter) {
+        Lexer lexer = new Lexer(new StringReader(corpus));
+        int count = 0;
+        while (lexer.next().type != Token.Type.EOF) {
+            count++;
+        }
+        counter.bytes += corpus.length();
+        return count;
+    }
+}
@@ -0,0 +1,54 @@
+package interpreter.bench;
+
+import interpreter.Evaluator;
+import interpreter.ExecutionLimits;
+import interpreter.OutputSink;
+import interpreter.Program;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of metering: a tight loop run with no limits and with fuel and a time limit
+ * that are never reached, in every mode.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LimitsBenchmark {
+    @Param({ "TIGHT_LOOP" })
+    public Workload workload;
+
+    @Param({ "10000" })
+    public int size;
+
+    @Param({ "TREE_WALKER", "BYTECODE", "TIERED" })
+    public Evaluator.Mode mode;
+
+    @Param({ "false", "true" })
+    public boolean limited;
+
+    private Program program;
+    private Evaluator evaluator;
+
+    @Setup
+    public void setUp() {
+        program = Program.compile(workload.source(size));
+        evaluator = new Evaluator();
+        evaluator.setMode(mode);
+        evaluator.setOutput(OutputSink.DISCARD);
+        if (limited) {
+            evaluator.setLimits(ExecutionLimits.NONE.withFuel(Long.MAX_VALUE - 1).withTimeLimit(Duration.ofHours(1)));
+        }
+    }
+
+    @Benchmark
+    public Evaluator run() {
+        evaluator.execute(program);
+        return evaluator;
+    }
+}
@@ -0,0 +1,36 @@
+package interpreter.bench;
+
+import interpreter.Lexer;
+import interpreter.Parser;
+import interpreter.Stmt;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParserBenchmark {
+    @Param({ "DEEP_NESTING", "ARITHMETIC_CHAIN", "TIGHT_LOOP", "STRING_CONCAT", "MANY_VARIABLES" })
+    public Workload workload;
+
+    @Param({ "1000" })
+    public int size;
+
+    private String source;
+
+    @Setup
+    public void setUp() {
+        source = workload.source(size);
+    }
+
+    /** Lexing and parsing together, as the parser pulls tokens from the lexer. */
+    @Benchmark
+    public List<Stmt> parse() {
+        return new Parser(new Lexer(source)).parse();
+    }
+}
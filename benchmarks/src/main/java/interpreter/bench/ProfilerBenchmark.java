@@ -0,0 +1,66 @@
+package interpreter.bench;
+
+import interpreter.Environment;
+import interpreter.Evaluator;
+import interpreter.OutputSink;
+import interpreter.Profiler;
+import interpreter.Program;
+import interpreter.Stmt;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of profiling. {@code direct} executes the program's statements without the
+ * evaluator, {@code disabled} runs them through an evaluator without a profiler and
+ * {@code enabled} through one with a profiler. With profiling off the two first
+ * should score the same.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProfilerBenchmark {
+    @Param({ "ARITHMETIC_CHAIN", "TIGHT_LOOP" })
+    public Workload workload;
+
+    @Param({ "1000" })
+    public int size;
+
+    private Program program;
+    private Evaluator disabled;
+    private Evaluator enabled;
+
+    @Setup
+    public void setUp() {
+        program = Program.compile(workload.source(size));
+        disabled = new Evaluator();
+        disabled.setOutput(OutputSink.DISCARD);
+        enabled = new Evaluator();
+        enabled.setOutput(OutputSink.DISCARD);
+        enabled.setProfiler(new Profiler());
+    }
+
+    @Benchmark
+    public Environment direct() {
+        Environment env = new Environment(program.globalCount(), OutputSink.DISCARD);
+        for (Stmt stmt : program.statements()) {
+            stmt.execute(env);
+        }
+        return env;
+    }
+
+    @Benchmark
+    public Evaluator disabled() {
+        disabled.execute(program);
+        return disabled;
+    }
+
+    @Benchmark
+    public Evaluator enabled() {
+        enabled.execute(program);
+        return enabled;
+    }
+}
@@ -0,0 +1,51 @@
+package interpreter.bench;
+
+import interpreter.Evaluator;
+import interpreter.OutputSink;
+import interpreter.Program;
+import interpreter.ProgramRunner;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** Many concurrent executions of one shared program; compare against the core count. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RunnerBenchmark {
+    @Param({ "TIGHT_LOOP", "STRING_CONCAT" })
+    public Workload workload;
+
+    @Param({ "100" })
+    public int size;
+
+    @Param({ "1000" })
+    public int executions;
+
+    @Param({ "TREE_WALKER", "BYTECODE" })
+    public Evaluator.Mode mode;
+
+    private Program program;
+    private ProgramRunner runner;
+
+    @Setup
+    public void setUp() {
+        program = Program.compile(workload.source(size));
+        runner = new ProgramRunner(mode, 10_000, () -> OutputSink.DISCARD);
+    }
+
+    @TearDown
+    public void tearDown() {
+        runner.close();
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> runAll() {
+        return runner.runAll(program, executions);
+    }
+}
@@ -0,0 +1,78 @@
+package interpreter.bench;
+
+/**
+ * Generated scripts for the benchmarks. Each one scales with {@code size} and prints
+ * nothing, so that evaluation benchmarks measure the interpreter rather than stdout.
+ */
+public enum Workload {
+    /**
+     * Blocks and if statements nested {@code size / 10} deep, around a parenthesized
+     * expression as deep; deeper nesting overflows the parser's stack.
+     */
+    DEEP_NESTING {
+        @Override
+        String source(int size) {
+            int depth = Math.max(1, size / 10);
+            StringBuilder source = new StringBuilder("x = 0;\n");
+            for (int i = 0; i < depth; i++) {
+                source.append("if (x < ").append(i + 1).append(") { ");
+            }
+            source.append("x = ");
+            for (int i = 0; i < depth; i++) {
+                source.append("(x + ");
+            }
+            source.append('1');
+            for (int i = 0; i < depth; i++) {
+                source.append(')');
+            }
+            source.append(";\n");
+            for (int i = 0; i < depth; i++) {
+                source.append("} ");
+            }
+            return source.append('\n').toString();
+        }
+    },
+
+    /** One assignment whose right-hand side chains {@code size} operators. */
+    ARITHMETIC_CHAIN {
+        @Override
+        String source(int size) {
+            String[] operators = { " + ", " - ", " * ", " / " };
+            StringBuilder source = new StringBuilder("x = 3;\ny = x");
+            for (int i = 0; i < size; i++) {
+                source.append(operators[i % operators.length]).append(i % 7 == 0 ? "x" : String.valueOf(i % 9 + 1));
+            }
+            return source.append(";\n").toString();
+        }
+    },
+
+    /** A counting loop of {@code size} iterations doing arithmetic on two variables. */
+    TIGHT_LOOP {
+        @Override
+        String source(int size) {
+            return "i = 0;\ns = 0;\nwhile (i < " + size + ") {\n    s = s + i * 2 - 1;\n    i = i + 1;\n}\n";
+        }
+    },
+
+    /** A loop appending to a string {@code size} times. */
+    STRING_CONCAT {
+        @Override
+        String source(int size) {
+            return "s = \"\";\ni = 0;\nwhile (i < " + size + ") {\n    s = s + \"ab\" + i;\n    i = i + 1;\n}\n";
+        }
+    },
+
+    /** {@code size} distinct globals, each computed from the previous ones. */
+    MANY_VARIABLES {
+        @Override
+        String source(int size) {
+            StringBuilder source = new StringBuilder("v0 = 1;\n");
+            for (int i = 1; i < size; i++) {
+                source.append('v').append(i).append(" = v").append(i - 1).append(" + v").append(i / 2).append(";\n");
+            }
+            return source.toString();
+        }
+    };
+
+    abstract String source(int size);
+}
@@ -0,0 +1,36 @@
+package interpreter;
+
+import java.util.List;
+
+/** {@code [e1, e2, ...]}: a new {@link DoubleArray} of the values of its elements, which must be numbers. */
+public class ArrayExpr extends Node implements Expr {
+    private final List<Expr> elements;
+
+    public ArrayExpr(List<Expr> elements) {
+        this.elements = elements;
+    }
+
+    List<Expr> elements() {
+        return elements;
+    }
+
+    @Override
+    public Object eval(Environment env) {
+        double[] values = new double[elements.size()];
+        // Like the arguments of a call, every element is evaluated before any is checked.
+        Object invalid = null;
+        for (int i = 0; i < values.length; i++) {
+            try {
+                values[i] = elements.get(i).evalDouble(env);
+            } catch (UnexpectedResultException e) {
+                if (invalid == null) invalid = e.getResult();
+            }
+        }
+        if (invalid != null) throw elementError(invalid);
+        return DoubleArray.of(values);
+    }
+
+    static RuntimeException elementError(Object value) {
+        return new RuntimeException("Array elements must be numbers, got " + BinaryExpr.typeName(value));
+    }
+}
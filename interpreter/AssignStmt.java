@@ -1,18 +1,92 @@
 package interpreter;
 
-public class AssignStmt implements Stmt {
+public class AssignStmt extends Node implements Stmt {
     private final String name;
     private final Expr expr;
+    private final int depth;
+    private final int slot;
+    // Cache slots whose values depend on this variable, see LoopOptimizer.
+    private final int[] invalidates;
+    // Whether the TypeChecker has proven the value a number.
+    private final boolean number;
+    // Set after the first execution, or from the start when the TypeChecker has proven
+    // the value a number: whether the value is stored unboxed.
+    private Boolean storesNumber;
 
     public AssignStmt(String name, Expr expr) {
+        this(name, expr, -1, -1);
+    }
+
+    AssignStmt(String name, Expr expr, int depth, int slot) {
+        this(name, expr, depth, slot, WhileStmt.NO_SLOTS);
+    }
+
+    AssignStmt(String name, Expr expr, int depth, int slot, int[] invalidates) {
+        this(name, expr, depth, slot, invalidates, false);
+    }
+
+    AssignStmt(String name, Expr expr, int depth, int slot, int[] invalidates, boolean number) {
         this.name = name;
         this.expr = expr;
+        this.depth = depth;
+        this.slot = slot;
+        this.invalidates = invalidates;
+        this.number = number;
+        this.storesNumber = number ? Boolean.TRUE : null;
+    }
+
+    /** The same assignment, with what is proven about it, of another expression of the same type. */
+    AssignStmt with(Expr expr, int[] invalidates) {
+        return new AssignStmt(name, expr, depth, slot, invalidates, number);
+    }
+
+    String name() {
+        return name;
+    }
+
+    Expr expr() {
+        return expr;
+    }
+
+    int depth() {
+        return depth;
+    }
+
+    int slot() {
+        return slot;
+    }
+
+    int[] invalidates() {
+        return invalidates;
+    }
+
+    /** Whether the TypeChecker has proven the value a number. */
+    boolean number() {
+        return number;
     }
 
     @Override
     public void execute(Environment env) {
-        Object value = expr.eval(env);
-        env.set(name, value);
+        if (depth < 0) {
+            throw new IllegalStateException("Unresolved variable: " + name);
+        }
+        if (Boolean.TRUE.equals(storesNumber)) {
+            try {
+                env.setDouble(depth, slot, expr.evalDouble(env));
+            } catch (UnexpectedResultException e) {
+                storesNumber = false;
+                env.set(depth, slot, e.getResult());
+            }
+        } else {
+            Object value = expr.eval(env);
+            if (storesNumber == null) {
+                storesNumber = value instanceof Double;
+            }
+            env.set(depth, slot, value);
+        }
+        if (invalidates.length > 0) {
+            env.uncache(invalidates);
+        }
     }
 }
 
@@ -0,0 +1,588 @@
+package interpreter;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * An arithmetic or boolean expression compiled once to be evaluated for every row of a
+ * batch of {@link Column}s, one per variable, into a column of results.
+ *
+ * <p>Variables are declared with the type of their column, so every operation's types are
+ * known when the expression is compiled and type errors are reported there. The expression
+ * then runs a chunk of {@link #CHUNK} rows at a time: each operation reads its operands'
+ * values for the whole chunk and writes its own in one loop, which HotSpot can vectorize,
+ * into buffers that stay in the cache. Large batches are split across cores with
+ * fork-join, and each task reuses its buffers for all of its chunks.
+ *
+ * <p>Results are what evaluating the expression separately for each row would give. A
+ * chunk in which some row divides by zero is evaluated again one row at a time, so that
+ * {@code &&} and {@code ||} skip their right operand as they do in a script; the first
+ * row that fails is reported.
+ */
+public final class BatchExpression {
+    /** Rows per chunk: small enough that the buffers of a few operations fit in the cache. */
+    static final int CHUNK = 1024;
+    // Rows a fork-join task evaluates without splitting further.
+    private static final int TASK_ROWS = 16 * CHUNK;
+
+    private static final int ADD = DoubleArray.ADD;
+    private static final int SUBTRACT = DoubleArray.SUBTRACT;
+    private static final int MULTIPLY = DoubleArray.MULTIPLY;
+    private static final int DIVIDE = DoubleArray.DIVIDE;
+    private static final int MODULO = DoubleArray.MODULO;
+    private static final int EQUAL = 5;
+    private static final int NOT_EQUAL = 6;
+    private static final int LESS = 7;
+    private static final int LESS_EQUAL = 8;
+    private static final int GREATER = 9;
+    private static final int GREATER_EQUAL = 10;
+    private static final int AND = 11;
+    private static final int OR = 12;
+
+    private final Kernel root;
+    // Variable names and types, in the order of the columns the kernels read.
+    private final String[] variables;
+    private final Column.Type[] types;
+    private final List<Constant> constants;
+    private final int numberBuffers;
+    private final int booleanBuffers;
+
+    private BatchExpression(Compiler compiler, Kernel root) {
+        this.root = root;
+        this.variables = compiler.names.toArray(new String[0]);
+        this.types = compiler.types.toArray(new Column.Type[0]);
+        this.constants = compiler.constants;
+        this.numberBuffers = compiler.numberBuffers;
+        this.booleanBuffers = compiler.booleanBuffers;
+    }
+
+    /** Parses and compiles {@code source}, an expression without a semicolon, over the given variables. */
+    public static BatchExpression compile(String source, Map<String, Column.Type> variables) {
+        return compile(new Parser(new Lexer(source)).parseExpression(), variables);
+    }
+
+    /**
+     * Compiles {@code expr} over the given variables. It may use numbers, booleans, the
+     * variables and operators on them; strings, arrays and calls are not supported.
+     */
+    public static BatchExpression compile(Expr expr, Map<String, Column.Type> variables) {
+        Compiler compiler = new Compiler(variables);
+        Kernel root = compiler.compile(expr);
+        return new BatchExpression(compiler, root);
+    }
+
+    /** Type of the column {@link #evaluate} returns. */
+    public Column.Type type() {
+        return root.number ? Column.Type.NUMBER : Column.Type.BOOLEAN;
+    }
+
+    /** Evaluates the expression for every row on the common fork-join pool. */
+    public Column evaluate(Map<String, Column> columns) {
+        return evaluate(columns, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Evaluates the expression for every row, splitting large batches across {@code pool}.
+     * {@code columns} must hold a column of the declared type for each variable the
+     * expression uses; all the columns must have the same number of rows, which is the
+     * number of results. An expression without variables gets no rows.
+     */
+    public Column evaluate(Map<String, Column> columns, ForkJoinPool pool) {
+        int rows = -1;
+        for (Map.Entry<String, Column> entry : columns.entrySet()) {
+            int length = entry.getValue().length();
+            if (rows >= 0 && length != rows) {
+                throw new IllegalArgumentException("Column " + entry.getKey() + " has " + length
+                        + " rows, the others " + rows);
+            }
+            rows = length;
+        }
+        Column[] inputs = new Column[variables.length];
+        for (int i = 0; i < variables.length; i++) {
+            Column column = columns.get(variables[i]);
+            if (column == null) {
+                throw new IllegalArgumentException("No column for variable " + variables[i]);
+            }
+            if (column.type() != types[i]) {
+                throw new IllegalArgumentException("Column " + variables[i] + " holds " + column.type()
+                        + " values, declared " + types[i]);
+            }
+            inputs[i] = column;
+        }
+        Evaluation evaluation = new Evaluation(inputs, Math.max(rows, 0));
+        if (evaluation.rows <= TASK_ROWS) {
+            evaluation.run(0, evaluation.rows);
+        } else {
+            pool.invoke(evaluation.new Task(0, evaluation.rows));
+        }
+        if (evaluation.error != null) throw evaluation.error;
+        return root.number ? Column.of(evaluation.numbers) : Column.of(evaluation.booleans);
+    }
+
+    /** One call of {@link #evaluate}: its inputs, its results and the first row that failed. */
+    private final class Evaluation {
+        final Column[] columns;
+        final int rows;
+        final double[] numbers;
+        final boolean[] booleans;
+        volatile int failedRow = Integer.MAX_VALUE;
+        RuntimeException error;
+
+        Evaluation(Column[] columns, int rows) {
+            this.columns = columns;
+            this.rows = rows;
+            numbers = root.number ? new double[rows] : null;
+            booleans = root.number ? null : new boolean[rows];
+        }
+
+        /** Evaluates rows {@code from} to {@code to}, a chunk at a time, until a row before them fails. */
+        void run(int from, int to) {
+            Buffers buffers = new Buffers();
+            for (int start = from; start < to; start += CHUNK) {
+                if (failedRow < start) return;
+                int count = Math.min(CHUNK, to - start);
+                if (root.run(buffers, columns, start, count)) {
+                    if (root.number) {
+                        System.arraycopy(buffers.numbers[root.buffer], 0, numbers, start, count);
+                    } else {
+                        System.arraycopy(buffers.booleans[root.buffer], 0, booleans, start, count);
+                    }
+                } else if (!runRows(start, start + count)) {
+                    return;
+                }
+            }
+        }
+
+        private boolean runRows(int from, int to) {
+            for (int row = from; row < to; row++) {
+                try {
+                    if (root.number) {
+                        numbers[row] = root.number(columns, row);
+                    } else {
+                        booleans[row] = root.bool(columns, row);
+                    }
+                } catch (RuntimeException e) {
+                    fail(row, e);
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private synchronized void fail(int row, RuntimeException e) {
+            if (row < failedRow) {
+                failedRow = row;
+                error = new RuntimeException(e.getMessage() + " (row " + row + ")", e);
+            }
+        }
+
+        final class Task extends RecursiveAction {
+            private final int from;
+            private final int to;
+
+            Task(int from, int to) {
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from <= TASK_ROWS) {
+                    run(from, to);
+                    return;
+                }
+                int middle = from + (to - from) / CHUNK / 2 * CHUNK;
+                invokeAll(new Task(from, middle), new Task(middle, to));
+            }
+        }
+    }
+
+    /** Chunk buffers of one task, by kernel; constants are filled in once. */
+    private final class Buffers {
+        final double[][] numbers = new double[numberBuffers][CHUNK];
+        final boolean[][] booleans = new boolean[booleanBuffers][CHUNK];
+
+        Buffers() {
+            for (Constant constant : constants) {
+                if (constant.number) {
+                    Arrays.fill(numbers[constant.buffer], constant.numberValue);
+                } else {
+                    Arrays.fill(booleans[constant.buffer], constant.booleanValue);
+                }
+            }
+        }
+    }
+
+    /** Type checks the tree and builds its kernels, giving each the buffer it writes. */
+    private static final class Compiler {
+        final Map<String, Column.Type> declared;
+        // Variables the expression uses, by the index of their column.
+        final Map<String, Integer> columns = new HashMap<>();
+        final List<String> names = new ArrayList<>();
+        final List<Column.Type> types = new ArrayList<>();
+        final List<Constant> constants = new ArrayList<>();
+        int numberBuffers;
+        int booleanBuffers;
+
+        Compiler(Map<String, Column.Type> declared) {
+            this.declared = declared;
+        }
+
+        Kernel compile(Expr expr) {
+            if (expr instanceof LiteralExpr literal) {
+                return constant(literal.value());
+            }
+            if (expr instanceof VariableExpr variable) {
+                String name = variable.name();
+                Column.Type type = declared.get(name);
+                if (type == null) throw new RuntimeException("Undefined variable: " + name);
+                Integer index = columns.get(name);
+                if (index == null) {
+                    index = names.size();
+                    columns.put(name, index);
+                    names.add(name);
+                    types.add(type);
+                }
+                boolean number = type == Column.Type.NUMBER;
+                return new Load(number, newBuffer(number), index);
+            }
+            if (expr instanceof UnaryExpr unary) {
+                Kernel operand = compile(unary.expr());
+                boolean negate = unary.operator().equals("-");
+                if (operand.number != negate) throw new RuntimeException("Invalid unary operation.");
+                if (operand instanceof Constant constant) {
+                    return constant(UnaryExpr.apply(unary.operator(), constant.value()));
+                }
+                return new Unary(negate, reuse(operand, null, negate), operand);
+            }
+            if (expr instanceof BinaryExpr binary) {
+                return binary(binary);
+            }
+            throw new RuntimeException("Batch expressions only take numbers, booleans, variables and operators");
+        }
+
+        private Kernel binary(BinaryExpr binary) {
+            Kernel left = compile(binary.left());
+            Kernel right = compile(binary.right());
+            String operator = binary.operator();
+            int op = operator(operator);
+            boolean number;
+            if (op <= MODULO) {
+                number = true;
+                if (!left.number || !right.number) throw mismatch(left, operator, right);
+            } else if (op == AND || op == OR) {
+                number = false;
+                if (left.number || right.number) throw mismatch(left, operator, right);
+            } else {
+                number = false;
+                boolean ordered = op >= LESS;
+                if (left.number != right.number || ordered && !left.number) throw mismatch(left, operator, right);
+            }
+            if (left instanceof Constant a && right instanceof Constant b) {
+                try {
+                    return constant(BinaryExpr.apply(operator, a.value(), b.value()));
+                } catch (RuntimeException e) {
+                    // Division by zero: left for the rows to report.
+                }
+            }
+            return new Binary(number, reuse(left, right, number), op, left, right);
+        }
+
+        private static int operator(String operator) {
+            switch (operator) {
+                case "+": return ADD;
+                case "-": return SUBTRACT;
+                case "*": return MULTIPLY;
+                case "/": return DIVIDE;
+                case "%": return MODULO;
+                case "==": return EQUAL;
+                case "!=": return NOT_EQUAL;
+                case "<": return LESS;
+                case "<=": return LESS_EQUAL;
+                case ">": return GREATER;
+                case ">=": return GREATER_EQUAL;
+                case "&&": return AND;
+                default: return OR;
+            }
+        }
+
+        private static RuntimeException mismatch(Kernel left, String operator, Kernel right) {
+            return new RuntimeException("Type mismatch in binary expression: "
+                    + name(left) + " " + operator + " " + name(right));
+        }
+
+        private static String name(Kernel kernel) {
+            return kernel.number ? "Double" : "Boolean";
+        }
+
+        private Kernel constant(Object value) {
+            boolean number;
+            if (value instanceof Double) {
+                number = true;
+            } else if (value instanceof Boolean) {
+                number = false;
+            } else {
+                throw new RuntimeException("Batch expressions only take numbers and booleans, got "
+                        + BinaryExpr.typeName(value));
+            }
+            Constant constant = new Constant(number, newBuffer(number), value);
+            constants.add(constant);
+            return constant;
+        }
+
+        /**
+         * The buffer a kernel writes: an operand's, which it can overwrite element by element
+         * as it reads it, unless that holds a constant, which is only filled in once.
+         */
+        private int reuse(Kernel left, Kernel right, boolean number) {
+            if (left.number == number && !(left instanceof Constant)) return left.buffer;
+            if (right != null && right.number == number && !(right instanceof Constant)) return right.buffer;
+            return newBuffer(number);
+        }
+
+        private int newBuffer(boolean number) {
+            return number ? numberBuffers++ : booleanBuffers++;
+        }
+    }
+
+    /**
+     * A compiled node. {@link #run} evaluates a chunk into the kernel's buffer, or returns
+     * false if some row of the chunk must be evaluated on its own; {@link #number} and
+     * {@link #bool} evaluate a single row.
+     */
+    private abstract static class Kernel {
+        final boolean number;
+        final int buffer;
+
+        Kernel(boolean number, int buffer) {
+            this.number = number;
+            this.buffer = buffer;
+        }
+
+        abstract boolean run(Buffers buffers, Column[] columns, int from, int count);
+
+        abstract double number(Column[] columns, int row);
+
+        abstract boolean bool(Column[] columns, int row);
+    }
+
+    private static final class Constant extends Kernel {
+        final double numberValue;
+        final boolean booleanValue;
+
+        Constant(boolean number, int buffer, Object value) {
+            super(number, buffer);
+            numberValue = number ? (Double) value : 0;
+            booleanValue = !number && (Boolean) value;
+        }
+
+        Object value() {
+            return number ? (Object) numberValue : (Object) booleanValue;
+        }
+
+        @Override
+        boolean run(Buffers buffers, Column[] columns, int from, int count) {
+            return true;
+        }
+
+        @Override
+        double number(Column[] columns, int row) {
+            return numberValue;
+        }
+
+        @Override
+        boolean bool(Column[] columns, int row) {
+            return booleanValue;
+        }
+    }
+
+    private static final class Load extends Kernel {
+        private final int column;
+
+        Load(boolean number, int buffer, int column) {
+            super(number, buffer);
+            this.column = column;
+        }
+
+        @Override
+        boolean run(Buffers buffers, Column[] columns, int from, int count) {
+            if (number) {
+                columns[column].read(from, count, buffers.numbers[buffer]);
+            } else {
+                columns[column].read(from, count, buffers.booleans[buffer]);
+            }
+            return true;
+        }
+
+        @Override
+        double number(Column[] columns, int row) {
+            return columns[column].getDouble(row);
+        }
+
+        @Override
+        boolean bool(Column[] columns, int row) {
+            return columns[column].getBoolean(row);
+        }
+    }
+
+    /** {@code -x} on numbers, {@code !x} on booleans. */
+    private static final class Unary extends Kernel {
+        private final Kernel operand;
+
+        Unary(boolean number, int buffer, Kernel operand) {
+            super(number, buffer);
+            this.operand = operand;
+        }
+
+        @Override
+        boolean run(Buffers buffers, Column[] columns, int from, int count) {
+            if (!operand.run(buffers, columns, from, count)) return false;
+            if (number) {
+                double[] a = buffers.numbers[operand.buffer];
+                double[] out = buffers.numbers[buffer];
+                for (int i = 0; i < count; i++) {
+                    out[i] = -a[i];
+                }
+            } else {
+                boolean[] a = buffers.booleans[operand.buffer];
+                boolean[] out = buffers.booleans[buffer];
+                for (int i = 0; i < count; i++) {
+                    out[i] = !a[i];
+                }
+            }
+            return true;
+        }
+
+        @Override
+        double number(Column[] columns, int row) {
+            return -operand.number(columns, row);
+        }
+
+        @Override
+        boolean bool(Column[] columns, int row) {
+            return !operand.bool(columns, row);
+        }
+    }
+
+    private static final class Binary extends Kernel {
+        private final int op;
+        private final Kernel left;
+        private final Kernel right;
+
+        Binary(boolean number, int buffer, int op, Kernel left, Kernel right) {
+            super(number, buffer);
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean run(Buffers buffers, Column[] columns, int from, int count) {
+            if (!left.run(buffers, columns, from, count) || !right.run(buffers, columns, from, count)) {
+                return false;
+            }
+            if (op >= AND || !left.number) {
+                logical(buffers.booleans[left.buffer], buffers.booleans[right.buffer], buffers.booleans[buffer], count);
+                return true;
+            }
+            double[] a = buffers.numbers[left.buffer];
+            double[] b = buffers.numbers[right.buffer];
+            if (number) {
+                return arithmetic(a, b, buffers.numbers[buffer], count);
+            }
+            compare(a, b, buffers.booleans[buffer], count);
+            return true;
+        }
+
+        private boolean arithmetic(double[] a, double[] b, double[] out, int count) {
+            switch (op) {
+                case ADD:
+                    for (int i = 0; i < count; i++) out[i] = a[i] + b[i];
+                    break;
+                case SUBTRACT:
+                    for (int i = 0; i < count; i++) out[i] = a[i] - b[i];
+                    break;
+                case MULTIPLY:
+                    for (int i = 0; i < count; i++) out[i] = a[i] * b[i];
+                    break;
+                case DIVIDE:
+                    for (int i = 0; i < count; i++) {
+                        if (b[i] == 0) return false;
+                    }
+                    for (int i = 0; i < count; i++) out[i] = a[i] / b[i];
+                    break;
+                default:
+                    for (int i = 0; i < count; i++) out[i] = a[i] % b[i];
+            }
+            return true;
+        }
+
+        private void compare(double[] a, double[] b, boolean[] out, int count) {
+            switch (op) {
+                case EQUAL:
+                    for (int i = 0; i < count; i++) out[i] = a[i] == b[i];
+                    break;
+                case NOT_EQUAL:
+                    for (int i = 0; i < count; i++) out[i] = a[i] != b[i];
+                    break;
+                case LESS:
+                    for (int i = 0; i < count; i++) out[i] = a[i] < b[i];
+                    break;
+                case LESS_EQUAL:
+                    for (int i = 0; i < count; i++) out[i] = a[i] <= b[i];
+                    break;
+                case GREATER:
+                    for (int i = 0; i < count; i++) out[i] = a[i] > b[i];
+                    break;
+                default:
+                    for (int i = 0; i < count; i++) out[i] = a[i] >= b[i];
+            }
+        }
+
+        // Both operands are already evaluated, so && and || need not skip anything.
+        private void logical(boolean[] a, boolean[] b, boolean[] out, int count) {
+            switch (op) {
+                case EQUAL:
+                    for (int i = 0; i < count; i++) out[i] = a[i] == b[i];
+                    break;
+                case NOT_EQUAL:
+                    for (int i = 0; i < count; i++) out[i] = a[i] != b[i];
+                    break;
+                case AND:
+                    for (int i = 0; i < count; i++) out[i] = a[i] & b[i];
+                    break;
+                default:
+                    for (int i = 0; i < count; i++) out[i] = a[i] | b[i];
+            }
+        }
+
+        @Override
+        double number(Column[] columns, int row) {
+            return DoubleArray.compute(op, left.number(columns, row), right.number(columns, row));
+        }
+
+        @Override
+        boolean bool(Column[] columns, int row) {
+            switch (op) {
+                case AND: return left.bool(columns, row) && right.bool(columns, row);
+                case OR: return left.bool(columns, row) || right.bool(columns, row);
+                default: break;
+            }
+            if (!left.number) {
+                boolean a = left.bool(columns, row);
+                return op == EQUAL ? a == right.bool(columns, row) : a != right.bool(columns, row);
+            }
+            double a = left.number(columns, row);
+            double b = right.number(columns, row);
+            switch (op) {
+                case EQUAL: return a == b;
+                case NOT_EQUAL: return a != b;
+                case LESS: return a < b;
+                case LESS_EQUAL: return a <= b;
+                case GREATER: return a > b;
+                default: return a >= b;
+            }
+        }
+    }
+}
@@ -1,21 +1,99 @@
 package interpreter;
 
-public class BinaryExpr implements Expr {
+public class BinaryExpr extends Node implements Expr {
     private final Expr left;
     private final String operator;
     private final Expr right;
+    // Chosen from the operand types seen on the first evaluation, see specialize();
+    // fixed at construction for the short-circuit operators and proven operand types,
+    // which get an Unguarded one.
+    private Specialization specialization;
+    // Set by the TypeChecker when it has proven the operand types.
+    private final Specialization proven;
 
     public BinaryExpr(Expr left, String operator, Expr right) {
+        this(left, operator, right, null);
+    }
+
+    BinaryExpr(Expr left, String operator, Expr right, Specialization proven) {
         this.left = left;
         this.operator = operator;
         this.right = right;
+        this.proven = proven;
+        if (operator.equals("&&")) {
+            specialization = ShortCircuit.AND;
+        } else if (operator.equals("||")) {
+            specialization = ShortCircuit.OR;
+        } else {
+            specialization = proven != null ? Unguarded.of(operator, proven) : null;
+        }
+    }
+
+    /** The same operation, with what is proven about it, on other operands of the same types. */
+    BinaryExpr with(Expr left, Expr right) {
+        return new BinaryExpr(left, operator, right, proven);
+    }
+
+    Expr left() {
+        return left;
+    }
+
+    String operator() {
+        return operator;
+    }
+
+    Expr right() {
+        return right;
+    }
+
+    /** The specialization the TypeChecker proved, or null. */
+    Specialization proven() {
+        return proven;
     }
 
     @Override
     public Object eval(Environment env) {
+        Specialization current = specialization;
+        if (current != null) {
+            return current.execute(this, env);
+        }
         Object leftVal = left.eval(env);
         Object rightVal = right.eval(env);
+        return specialize(leftVal, rightVal).apply(this, leftVal, rightVal);
+    }
 
+    @Override
+    public double evalDouble(Environment env) throws UnexpectedResultException {
+        Specialization current = specialization;
+        return current != null ? current.executeDouble(this, env) : Expr.asDouble(eval(env));
+    }
+
+    @Override
+    public boolean evalBoolean(Environment env) throws UnexpectedResultException {
+        Specialization current = specialization;
+        return current != null ? current.executeBoolean(this, env) : Expr.asBoolean(eval(env));
+    }
+
+    private Specialization specialize(Object leftVal, Object rightVal) {
+        Specialization chosen = Specialization.GENERIC;
+        if (leftVal instanceof Double && rightVal instanceof Double) {
+            chosen = Specialization.forNumbers(operator);
+        } else if (leftVal instanceof Boolean && rightVal instanceof Boolean) {
+            chosen = Specialization.forBooleans(operator);
+        } else if ((ConcatString.isString(leftVal) || ConcatString.isString(rightVal)) && operator.equals("+")) {
+            chosen = Specialization.CONCAT;
+        }
+        specialization = chosen;
+        return chosen;
+    }
+
+    /** Called by a specialization whose operand types no longer match; the node stays generic. */
+    private Object generalize(Object leftVal, Object rightVal) {
+        specialization = Specialization.GENERIC;
+        return apply(operator, leftVal, rightVal);
+    }
+
+    static Object apply(String operator, Object leftVal, Object rightVal) {
         if (leftVal instanceof Double && rightVal instanceof Double) {
             double a = (Double) leftVal;
             double b = (Double) rightVal;
@@ -45,15 +123,476 @@ public class BinaryExpr implements Expr {
                 case "==": return a == b;
                 case "!=": return a != b;
             }
-        } else if (leftVal instanceof String || rightVal instanceof String) {
+        } else if (ConcatString.isString(leftVal) || ConcatString.isString(rightVal)) {
             if (operator.equals("+")) {
-                return String.valueOf(leftVal) + String.valueOf(rightVal);
+                return ConcatString.concat(leftVal, rightVal);
             }
+        } else if (DoubleArray.isOperand(leftVal, rightVal)) {
+            DoubleArray result = DoubleArray.apply(operator, leftVal, rightVal);
+            if (result != null) return result;
         }
 
         throw new RuntimeException("Type mismatch in binary expression: "
-                + leftVal + " (" + (leftVal != null ? leftVal.getClass().getSimpleName() : "null") + ") "
+                + leftVal + " (" + typeName(leftVal) + ") "
                 + operator + " "
-                + rightVal + " (" + (rightVal != null ? rightVal.getClass().getSimpleName() : "null") + ")");
+                + rightVal + " (" + typeName(rightVal) + ")");
+    }
+
+    static String typeName(Object value) {
+        if (value == null) return "null";
+        if (value instanceof DoubleArray) return "Array";
+        return value instanceof ConcatString ? "String" : value.getClass().getSimpleName();
+    }
+
+    /**
+     * Operator- and type-specific implementation of a binary node. Each one guards on
+     * the operand types it was chosen for and falls back to the generic path otherwise.
+     * Numeric and boolean variants evaluate their operands through the typed entry
+     * points, so intermediate results are never boxed.
+     */
+    abstract static class Specialization {
+        static final Specialization GENERIC = new Specialization() {
+            @Override
+            Object apply(BinaryExpr node, Object leftVal, Object rightVal) {
+                return BinaryExpr.apply(node.operator, leftVal, rightVal);
+            }
+        };
+
+        static final Specialization CONCAT = new Specialization() {
+            @Override
+            Object apply(BinaryExpr node, Object leftVal, Object rightVal) {
+                if (ConcatString.isString(leftVal) || ConcatString.isString(rightVal)) {
+                    return ConcatString.concat(leftVal, rightVal);
+                }
+                return node.generalize(leftVal, rightVal);
+            }
+        };
+
+        abstract Object apply(BinaryExpr node, Object leftVal, Object rightVal);
+
+        Object execute(BinaryExpr node, Environment env) {
+            Object leftVal = node.left.eval(env);
+            return apply(node, leftVal, node.right.eval(env));
+        }
+
+        double executeDouble(BinaryExpr node, Environment env) throws UnexpectedResultException {
+            return Expr.asDouble(execute(node, env));
+        }
+
+        boolean executeBoolean(BinaryExpr node, Environment env) throws UnexpectedResultException {
+            return Expr.asBoolean(execute(node, env));
+        }
+
+        static Specialization forNumbers(String operator) {
+            switch (operator) {
+                case "+": return Arithmetic.ADD;
+                case "-": return Arithmetic.SUBTRACT;
+                case "*": return Arithmetic.MULTIPLY;
+                case "/": return Arithmetic.DIVIDE;
+                case "%": return Arithmetic.MODULO;
+                case "==": return Comparison.EQUAL;
+                case "!=": return Comparison.NOT_EQUAL;
+                case "<": return Comparison.LESS;
+                case ">": return Comparison.GREATER;
+                case "<=": return Comparison.LESS_EQUAL;
+                case ">=": return Comparison.GREATER_EQUAL;
+            }
+            return GENERIC;
+        }
+
+        static Specialization forBooleans(String operator) {
+            switch (operator) {
+                case "==": return Logical.EQUAL;
+                case "!=": return Logical.NOT_EQUAL;
+            }
+            return GENERIC;
+        }
+    }
+
+    abstract static class Arithmetic extends Specialization {
+        static final Arithmetic ADD = new Arithmetic() {
+            @Override
+            double compute(double a, double b) {
+                return a + b;
+            }
+        };
+        static final Arithmetic SUBTRACT = new Arithmetic() {
+            @Override
+            double compute(double a, double b) {
+                return a - b;
+            }
+        };
+        static final Arithmetic MULTIPLY = new Arithmetic() {
+            @Override
+            double compute(double a, double b) {
+                return a * b;
+            }
+        };
+        static final Arithmetic DIVIDE = new Arithmetic() {
+            @Override
+            double compute(double a, double b) {
+                if (b == 0) throw new RuntimeException("Division by zero");
+                return a / b;
+            }
+        };
+        static final Arithmetic MODULO = new Arithmetic() {
+            @Override
+            double compute(double a, double b) {
+                return a % b;
+            }
+        };
+
+        abstract double compute(double a, double b);
+
+        @Override
+        final Object apply(BinaryExpr node, Object leftVal, Object rightVal) {
+            if (leftVal instanceof Double && rightVal instanceof Double) {
+                return compute((Double) leftVal, (Double) rightVal);
+            }
+            return node.generalize(leftVal, rightVal);
+        }
+
+        @Override
+        final Object execute(BinaryExpr node, Environment env) {
+            try {
+                return executeDouble(node, env);
+            } catch (UnexpectedResultException e) {
+                return e.getResult();
+            }
+        }
+
+        @Override
+        final double executeDouble(BinaryExpr node, Environment env) throws UnexpectedResultException {
+            double a;
+            try {
+                a = node.left.evalDouble(env);
+            } catch (UnexpectedResultException e) {
+                return Expr.asDouble(node.generalize(e.getResult(), node.right.eval(env)));
+            }
+            double b;
+            try {
+                b = node.right.evalDouble(env);
+            } catch (UnexpectedResultException e) {
+                return Expr.asDouble(node.generalize(a, e.getResult()));
+            }
+            return compute(a, b);
+        }
+    }
+
+    abstract static class Comparison extends Specialization {
+        static final Comparison EQUAL = new Comparison() {
+            @Override
+            boolean test(double a, double b) {
+                return a == b;
+            }
+        };
+        static final Comparison NOT_EQUAL = new Comparison() {
+            @Override
+            boolean test(double a, double b) {
+                return a != b;
+            }
+        };
+        static final Comparison LESS = new Comparison() {
+            @Override
+            boolean test(double a, double b) {
+                return a < b;
+            }
+        };
+        static final Comparison GREATER = new Comparison() {
+            @Override
+            boolean test(double a, double b) {
+                return a > b;
+            }
+        };
+        static final Comparison LESS_EQUAL = new Comparison() {
+            @Override
+            boolean test(double a, double b) {
+                return a <= b;
+            }
+        };
+        static final Comparison GREATER_EQUAL = new Comparison() {
+            @Override
+            boolean test(double a, double b) {
+                return a >= b;
+            }
+        };
+
+        abstract boolean test(double a, double b);
+
+        @Override
+        final Object apply(BinaryExpr node, Object leftVal, Object rightVal) {
+            if (leftVal instanceof Double && rightVal instanceof Double) {
+                return test((Double) leftVal, (Double) rightVal);
+            }
+            return node.generalize(leftVal, rightVal);
+        }
+
+        @Override
+        final Object execute(BinaryExpr node, Environment env) {
+            try {
+                return executeBoolean(node, env);
+            } catch (UnexpectedResultException e) {
+                return e.getResult();
+            }
+        }
+
+        @Override
+        final boolean executeBoolean(BinaryExpr node, Environment env) throws UnexpectedResultException {
+            double a;
+            try {
+                a = node.left.evalDouble(env);
+            } catch (UnexpectedResultException e) {
+                return Expr.asBoolean(node.generalize(e.getResult(), node.right.eval(env)));
+            }
+            double b;
+            try {
+                b = node.right.evalDouble(env);
+            } catch (UnexpectedResultException e) {
+                return Expr.asBoolean(node.generalize(a, e.getResult()));
+            }
+            return test(a, b);
+        }
+    }
+
+    /**
+     * {@code &&} and {@code ||}, set when the node is created. The right operand is only
+     * evaluated when the left one does not decide the result; an operand that is not a
+     * boolean is reported with the value of the other side, as {@link #apply} would.
+     */
+    static final class ShortCircuit extends Specialization {
+        static final ShortCircuit AND = new ShortCircuit(false);
+        static final ShortCircuit OR = new ShortCircuit(true);
+
+        // Left value that is also the result, without looking at the right operand.
+        private final boolean decisive;
+
+        private ShortCircuit(boolean decisive) {
+            this.decisive = decisive;
+        }
+
+        @Override
+        Object apply(BinaryExpr node, Object leftVal, Object rightVal) {
+            return BinaryExpr.apply(node.operator, leftVal, rightVal);
+        }
+
+        @Override
+        Object execute(BinaryExpr node, Environment env) {
+            try {
+                return executeBoolean(node, env);
+            } catch (UnexpectedResultException e) {
+                return e.getResult();
+            }
+        }
+
+        @Override
+        boolean executeBoolean(BinaryExpr node, Environment env) throws UnexpectedResultException {
+            boolean a;
+            try {
+                a = node.left.evalBoolean(env);
+            } catch (UnexpectedResultException e) {
+                return Expr.asBoolean(apply(node, e.getResult(), node.right.eval(env)));
+            }
+            if (a == decisive) {
+                return a;
+            }
+            try {
+                return node.right.evalBoolean(env);
+            } catch (UnexpectedResultException e) {
+                return Expr.asBoolean(apply(node, a, e.getResult()));
+            }
+        }
+    }
+
+    abstract static class Logical extends Specialization {
+        static final Logical EQUAL = new Logical() {
+            @Override
+            boolean test(boolean a, boolean b) {
+                return a == b;
+            }
+        };
+        static final Logical NOT_EQUAL = new Logical() {
+            @Override
+            boolean test(boolean a, boolean b) {
+                return a != b;
+            }
+        };
+
+        abstract boolean test(boolean a, boolean b);
+
+        @Override
+        final Object apply(BinaryExpr node, Object leftVal, Object rightVal) {
+            if (leftVal instanceof Boolean && rightVal instanceof Boolean) {
+                return test((Boolean) leftVal, (Boolean) rightVal);
+            }
+            return node.generalize(leftVal, rightVal);
+        }
+
+        @Override
+        final Object execute(BinaryExpr node, Environment env) {
+            try {
+                return executeBoolean(node, env);
+            } catch (UnexpectedResultException e) {
+                return e.getResult();
+            }
+        }
+
+        @Override
+        final boolean executeBoolean(BinaryExpr node, Environment env) throws UnexpectedResultException {
+            boolean a;
+            try {
+                a = node.left.evalBoolean(env);
+            } catch (UnexpectedResultException e) {
+                return Expr.asBoolean(node.generalize(e.getResult(), node.right.eval(env)));
+            }
+            boolean b;
+            try {
+                b = node.right.evalBoolean(env);
+            } catch (UnexpectedResultException e) {
+                return Expr.asBoolean(node.generalize(a, e.getResult()));
+            }
+            return test(a, b);
+        }
+    }
+
+    /**
+     * Operators on operands the TypeChecker has proven numbers or booleans. They have no
+     * guards and nothing to fall back to: an operand of another type is a bug in the
+     * checker. Each operator has its own class, so the calls to its operands are
+     * profiled apart from those of other operators.
+     */
+    abstract static class Unguarded extends Specialization {
+        static final Unguarded ADD = new Unguarded() {
+            @Override
+            double executeDouble(BinaryExpr node, Environment env) throws UnexpectedResultException {
+                return node.left.evalDouble(env) + node.right.evalDouble(env);
+            }
+        };
+        static final Unguarded SUBTRACT = new Unguarded() {
+            @Override
+            double executeDouble(BinaryExpr node, Environment env) throws UnexpectedResultException {
+                return node.left.evalDouble(env) - node.right.evalDouble(env);
+            }
+        };
+        static final Unguarded MULTIPLY = new Unguarded() {
+            @Override
+            double executeDouble(BinaryExpr node, Environment env) throws UnexpectedResultException {
+                return node.left.evalDouble(env) * node.right.evalDouble(env);
+            }
+        };
+        static final Unguarded DIVIDE = new Unguarded() {
+            @Override
+            double executeDouble(BinaryExpr node, Environment env) throws UnexpectedResultException {
+                double a = node.left.evalDouble(env);
+                double b = node.right.evalDouble(env);
+                if (b == 0) throw new RuntimeException("Division by zero");
+                return a / b;
+            }
+        };
+        static final Unguarded MODULO = new Unguarded() {
+            @Override
+            double executeDouble(BinaryExpr node, Environment env) throws UnexpectedResultException {
+                return node.left.evalDouble(env) % node.right.evalDouble(env);
+            }
+        };
+        static final Unguarded EQUAL = new Test() {
+            @Override
+            boolean executeBoolean(BinaryExpr node, Environment env) throws UnexpectedResultException {
+                return node.left.evalDouble(env) == node.right.evalDouble(env);
+            }
+        };
+        static final Unguarded NOT_EQUAL = new Test() {
+            @Override
+            boolean executeBoolean(BinaryExpr node, Environment env) throws UnexpectedResultException {
+                return node.left.evalDouble(env) != node.right.evalDouble(env);
+            }
+        };
+        static final Unguarded LESS = new Test() {
+            @Override
+            boolean executeBoolean(BinaryExpr node, Environment env) throws UnexpectedResultException {
+                return node.left.evalDouble(env) < node.right.evalDouble(env);
+            }
+        };
+        static final Unguarded GREATER = new Test() {
+            @Override
+            boolean executeBoolean(BinaryExpr node, Environment env) throws UnexpectedResultException {
+                return node.left.evalDouble(env) > node.right.evalDouble(env);
+            }
+        };
+        static final Unguarded LESS_EQUAL = new Test() {
+            @Override
+            boolean executeBoolean(BinaryExpr node, Environment env) throws UnexpectedResultException {
+                return node.left.evalDouble(env) <= node.right.evalDouble(env);
+            }
+        };
+        static final Unguarded GREATER_EQUAL = new Test() {
+            @Override
+            boolean executeBoolean(BinaryExpr node, Environment env) throws UnexpectedResultException {
+                return node.left.evalDouble(env) >= node.right.evalDouble(env);
+            }
+        };
+        static final Unguarded BOOLEAN_EQUAL = new Test() {
+            @Override
+            boolean executeBoolean(BinaryExpr node, Environment env) throws UnexpectedResultException {
+                return node.left.evalBoolean(env) == node.right.evalBoolean(env);
+            }
+        };
+        static final Unguarded BOOLEAN_NOT_EQUAL = new Test() {
+            @Override
+            boolean executeBoolean(BinaryExpr node, Environment env) throws UnexpectedResultException {
+                return node.left.evalBoolean(env) != node.right.evalBoolean(env);
+            }
+        };
+
+        /** The unguarded form of {@code proven}, or {@code proven} itself if it has none. */
+        static Specialization of(String operator, Specialization proven) {
+            if (proven instanceof Arithmetic || proven instanceof Comparison) {
+                switch (operator) {
+                    case "+": return ADD;
+                    case "-": return SUBTRACT;
+                    case "*": return MULTIPLY;
+                    case "/": return DIVIDE;
+                    case "%": return MODULO;
+                    case "==": return EQUAL;
+                    case "!=": return NOT_EQUAL;
+                    case "<": return LESS;
+                    case ">": return GREATER;
+                    case "<=": return LESS_EQUAL;
+                    case ">=": return GREATER_EQUAL;
+                }
+            } else if (proven instanceof Logical) {
+                return operator.equals("==") ? BOOLEAN_EQUAL : BOOLEAN_NOT_EQUAL;
+            }
+            return proven;
+        }
+
+        @Override
+        final Object apply(BinaryExpr node, Object leftVal, Object rightVal) {
+            return BinaryExpr.apply(node.operator, leftVal, rightVal);
+        }
+
+        @Override
+        Object execute(BinaryExpr node, Environment env) {
+            try {
+                return executeDouble(node, env);
+            } catch (UnexpectedResultException e) {
+                throw unproven(e);
+            }
+        }
+
+        static IllegalStateException unproven(UnexpectedResultException e) {
+            return new IllegalStateException("Operand of a proven type was " + typeName(e.getResult()));
+        }
+
+        /** A comparison, with a boolean result. */
+        abstract static class Test extends Unguarded {
+            @Override
+            final Object execute(BinaryExpr node, Environment env) {
+                try {
+                    return executeBoolean(node, env);
+                } catch (UnexpectedResultException e) {
+                    throw unproven(e);
+                }
+            }
+        }
     }
 }
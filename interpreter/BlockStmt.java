@@ -2,16 +2,30 @@ package interpreter;
 
 import java.util.List;
 
-public class BlockStmt implements Stmt {
+public class BlockStmt extends Node implements Stmt {
     private final List<Stmt> statements;
+    private final int slots;
 
     public BlockStmt(List<Stmt> statements) {
+        this(statements, 0);
+    }
+
+    BlockStmt(List<Stmt> statements, int slots) {
         this.statements = statements;
+        this.slots = slots;
+    }
+
+    List<Stmt> statements() {
+        return statements;
+    }
+
+    int slots() {
+        return slots;
     }
 
     @Override
     public void execute(Environment env) {
-        env.enterScope();
+        env.enterScope(slots);
         for (Stmt stmt : statements) {
             stmt.execute(env);
         }
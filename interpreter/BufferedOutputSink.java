@@ -0,0 +1,83 @@
+package interpreter;
+
+import java.io.*;
+import java.nio.charset.Charset;
+
+/**
+ * Collects printed text in a character buffer and encodes and writes it in batches:
+ * when the buffer fills, when a print happens at least the flush interval after the
+ * last write, and on {@link #flush()}.
+ */
+public final class BufferedOutputSink implements OutputSink {
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 100;
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final Writer writer;
+    private final char[] buffer;
+    private final long flushIntervalNanos;
+    private int length;
+    private long lastFlush = System.nanoTime();
+
+    public BufferedOutputSink(OutputStream out, Charset charset) {
+        this(out, charset, DEFAULT_BUFFER_SIZE, DEFAULT_FLUSH_INTERVAL_MILLIS);
+    }
+
+    public BufferedOutputSink(OutputStream out, Charset charset, int bufferSize, long flushIntervalMillis) {
+        if (bufferSize <= 0 || flushIntervalMillis < 0) {
+            throw new IllegalArgumentException("Buffer size must be positive and flush interval not negative");
+        }
+        this.writer = new OutputStreamWriter(out, charset);
+        this.buffer = new char[bufferSize];
+        this.flushIntervalNanos = flushIntervalMillis * 1_000_000;
+    }
+
+    @Override
+    public void print(Object value) {
+        append(String.valueOf(value));
+        append(LINE_SEPARATOR);
+        if (System.nanoTime() - lastFlush >= flushIntervalNanos) {
+            flush();
+        }
+    }
+
+    private void append(String text) {
+        if (length + text.length() > buffer.length) {
+            writeBuffer();
+            if (text.length() > buffer.length) {
+                write(text);
+                return;
+            }
+        }
+        text.getChars(0, text.length(), buffer, length);
+        length += text.length();
+    }
+
+    @Override
+    public void flush() {
+        writeBuffer();
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        lastFlush = System.nanoTime();
+    }
+
+    private void writeBuffer() {
+        try {
+            writer.write(buffer, 0, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        length = 0;
+    }
+
+    private void write(String text) {
+        try {
+            writer.write(text);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
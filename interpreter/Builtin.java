@@ -0,0 +1,53 @@
+package interpreter;
+
+/** Functions that scripts can call by name, see {@link CallExpr}. They all work on {@link DoubleArray}s. */
+enum Builtin {
+    LEN("len", 1),
+    SUM("sum", 1),
+    MIN("min", 1),
+    MAX("max", 1),
+    DOT("dot", 2),
+    RANGE("range", 1),
+    FILL("fill", 2);
+
+    static final Builtin[] VALUES = values();
+
+    final String name;
+    final int arity;
+
+    Builtin(String name, int arity) {
+        this.name = name;
+        this.arity = arity;
+    }
+
+    /** The builtin called {@code name}, or null if there is none. */
+    static Builtin named(String name) {
+        for (Builtin builtin : VALUES) {
+            if (builtin.name.equals(name)) return builtin;
+        }
+        return null;
+    }
+
+    /** Calls this builtin with {@link #arity} arguments. */
+    Object call(Object[] args) {
+        switch (this) {
+            case LEN: return (double) array(args[0]).length();
+            case SUM: return array(args[0]).sum();
+            case MIN: return array(args[0]).min();
+            case MAX: return array(args[0]).max();
+            case DOT: return array(args[0]).dot(array(args[1]));
+            case RANGE: return DoubleArray.range(number(args[0]));
+            default: return DoubleArray.fill(number(args[0]), number(args[1]));
+        }
+    }
+
+    private DoubleArray array(Object arg) {
+        if (arg instanceof DoubleArray array) return array;
+        throw new RuntimeException(name + " expects an array, got " + BinaryExpr.typeName(arg));
+    }
+
+    private double number(Object arg) {
+        if (arg instanceof Double number) return number;
+        throw new RuntimeException(name + " expects a number, got " + BinaryExpr.typeName(arg));
+    }
+}
@@ -0,0 +1,286 @@
+package interpreter;
+
+import java.util.*;
+
+/**
+ * Compiles a resolved {@link Program} into a {@link Chunk} for the {@link VirtualMachine}.
+ *
+ * <p>Every variable gets a fixed register: globals first, then the slots of each block,
+ * stacked by nesting level so that sibling blocks share registers. Temporaries are taken
+ * above the innermost live block and released at the end of each statement. Variables
+ * and constants are used as operands in place, so {@code i = i + 1} is a single ADD.
+ * Arithmetic whose operands the {@link TypeChecker} has proven numbers gets the typed
+ * opcodes, such as ADD_NUMBER.
+ */
+final class BytecodeCompiler {
+    private int[] code = new int[64];
+    private String[] names = new String[64];
+    private int size = 0;
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+    private final List<Integer> bases = new ArrayList<>();
+    private int next;
+    private int maxRegister;
+
+    Chunk compile(Program program) {
+        return compile(program.statements(), program.globalCount(), program.globalCount());
+    }
+
+    /** A function body: its frame takes the first registers, and it has no globals. */
+    Chunk compile(Function function) {
+        return compile(function.body(), function.slots(), 0);
+    }
+
+    private Chunk compile(List<Stmt> statements, int fixed, int globals) {
+        bases.add(0);
+        next = fixed;
+        maxRegister = next;
+        for (Stmt stmt : statements) {
+            statement(stmt);
+        }
+        emit(Opcode.HALT);
+
+        // Constant operands were emitted as ~index until the register count was known.
+        int constantBase = maxRegister;
+        for (int i = 0; i < size; i++) {
+            if (code[i] < 0) code[i] = constantBase + ~code[i];
+        }
+        return new Chunk(Arrays.copyOf(code, size), constants.toArray(), constantBase,
+                globals, Arrays.copyOf(names, size));
+    }
+
+    private void statement(Stmt stmt) {
+        int mark = next;
+        if (stmt instanceof AssignStmt assign) {
+            into(assign.expr(), register(assign.depth(), assign.slot()));
+        } else if (stmt instanceof PrintStmt print) {
+            int value = operand(print.expr());
+            emit(Opcode.PRINT);
+            emitRegister(value, print.expr());
+        } else if (stmt instanceof ExprStmt exprStmt && exprStmt.expr() instanceof InvokeExpr call) {
+            int first = consecutive(call.args());
+            emit(Opcode.INVOKE_VOID, ~constant(call), first, call.args().size());
+        } else if (stmt instanceof ExprStmt exprStmt) {
+            // Still evaluated for its errors, e.g. an undefined variable.
+            if (!(exprStmt.expr() instanceof LiteralExpr)) {
+                into(exprStmt.expr(), temp());
+            }
+        } else if (stmt instanceof BlockStmt block) {
+            bases.add(next);
+            if (block.slots() > 0) {
+                emit(Opcode.CLEAR, next, block.slots());
+                next += block.slots();
+                maxRegister = Math.max(maxRegister, next);
+            }
+            for (Stmt inner : block.statements()) {
+                statement(inner);
+            }
+            bases.remove(bases.size() - 1);
+        } else if (stmt instanceof IfStmt ifStmt) {
+            int elseJump = conditionalJump(ifStmt.condition(), true);
+            next = mark;
+            statement(ifStmt.thenBranch());
+            if (ifStmt.elseBranch() != null) {
+                emit(Opcode.JUMP);
+                int endJump = emitTarget();
+                patch(elseJump);
+                statement(ifStmt.elseBranch());
+                patch(endJump);
+            } else {
+                patch(elseJump);
+            }
+        } else if (stmt instanceof WhileStmt whileStmt) {
+            // Condition at the bottom: one branch per iteration.
+            emit(Opcode.JUMP);
+            int conditionJump = emitTarget();
+            int body = size;
+            statement(whileStmt.body());
+            patch(conditionJump);
+            int exitJump = conditionalJump(whileStmt.condition(), false);
+            code[exitJump] = body;
+        } else if (stmt instanceof FunStmt function) {
+            emit(Opcode.DEFINE, ~constant(function.function()));
+        } else if (stmt instanceof ReturnStmt returnStmt) {
+            if (returnStmt.value() == null) {
+                emit(Opcode.HALT);
+            } else if (returnStmt.value() instanceof InvokeExpr call) {
+                int first = consecutive(call.args());
+                emit(Opcode.RETURN_CALL, ~constant(call), first, call.args().size());
+            } else {
+                int value = operand(returnStmt.value());
+                emit(Opcode.RETURN);
+                emitRegister(value, returnStmt.value());
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown statement: " + stmt.getClass().getSimpleName());
+        }
+        next = mark;
+    }
+
+    /**
+     * Emits a branch on {@code condition}: taken when it is true, or when it is false
+     * if {@code unless} is set. Returns the position of the target operand.
+     */
+    private int conditionalJump(Expr condition, boolean unless) {
+        if (condition instanceof CachedExpr cached) {
+            condition = cached.expr();
+        }
+        if (condition instanceof BinaryExpr binary) {
+            int op = Opcode.jumpIf(binary.operator(), unless);
+            if (op >= 0) {
+                int[] operands = operands(binary);
+                emit(op);
+                emitRegister(operands[0], binary.left());
+                emitRegister(operands[1], binary.right());
+                return emitTarget();
+            }
+        }
+        int value = operand(condition);
+        emit(unless ? Opcode.JUMP_IF_FALSE : Opcode.JUMP_IF_TRUE);
+        emitRegister(value, condition);
+        return emitTarget();
+    }
+
+    /** Returns the register holding the value of {@code expr}, evaluating it into a temporary if needed. */
+    private int operand(Expr expr) {
+        if (expr instanceof LiteralExpr literal) {
+            return ~constant(literal.value());
+        }
+        if (expr instanceof VariableExpr variable) {
+            return register(variable.depth(), variable.slot());
+        }
+        int dst = temp();
+        into(expr, dst);
+        return dst;
+    }
+
+    private void into(Expr expr, int dst) {
+        if (expr instanceof LiteralExpr || expr instanceof VariableExpr) {
+            emit(Opcode.MOVE, dst);
+            emitRegister(operand(expr), expr);
+        } else if (expr instanceof BinaryExpr binary && isShortCircuit(binary.operator())) {
+            int left = operand(binary.left());
+            emit(binary.operator().equals("&&") ? Opcode.JUMP_AND : Opcode.JUMP_OR, dst);
+            emitRegister(left, binary.left());
+            int skip = emitTarget();
+            int right = operand(binary.right());
+            emit(Opcode.binary(binary.operator()), dst);
+            emitRegister(left, binary.left());
+            emitRegister(right, binary.right());
+            patch(skip);
+        } else if (expr instanceof BinaryExpr binary) {
+            int[] operands = operands(binary);
+            emit(binary.proven() instanceof BinaryExpr.Arithmetic
+                    ? Opcode.number(binary.operator()) : Opcode.binary(binary.operator()), dst);
+            emitRegister(operands[0], binary.left());
+            emitRegister(operands[1], binary.right());
+        } else if (expr instanceof CachedExpr cached) {
+            // The VM has no cache slots; the value is simply recomputed.
+            into(cached.expr(), dst);
+        } else if (expr instanceof UnaryExpr unary) {
+            int value = operand(unary.expr());
+            emit(Opcode.unary(unary.operator()), dst);
+            emitRegister(value, unary.expr());
+        } else if (expr instanceof IndexExpr index) {
+            int[] operands = operands(index.array(), index.index());
+            emit(Opcode.INDEX, dst);
+            emitRegister(operands[0], index.array());
+            emitRegister(operands[1], index.index());
+        } else if (expr instanceof CallExpr call) {
+            int first = consecutive(call.args());
+            emit(Opcode.CALL, dst, call.function().ordinal(), first, call.args().size());
+        } else if (expr instanceof ArrayExpr array) {
+            int first = consecutive(array.elements());
+            emit(Opcode.ARRAY, dst, first, array.elements().size());
+        } else if (expr instanceof InvokeExpr call) {
+            int first = consecutive(call.args());
+            emit(Opcode.INVOKE, dst, ~constant(call), first, call.args().size());
+        } else {
+            throw new IllegalArgumentException("Unknown expression: " + expr.getClass().getSimpleName());
+        }
+    }
+
+    /** Evaluates {@code exprs} in order into consecutive temporaries and returns the first. */
+    private int consecutive(List<Expr> exprs) {
+        int first = next;
+        for (int i = 0; i < exprs.size(); i++) {
+            temp();
+        }
+        for (int i = 0; i < exprs.size(); i++) {
+            into(exprs.get(i), first + i);
+        }
+        return first;
+    }
+
+    /**
+     * Left and right registers. A left variable is copied first when the right side is
+     * not a leaf, so that an undefined left variable is reported before any error
+     * raised by the right side.
+     */
+    private int[] operands(BinaryExpr binary) {
+        return operands(binary.left(), binary.right());
+    }
+
+    private int[] operands(Expr leftExpr, Expr rightExpr) {
+        int left = operand(leftExpr);
+        if (leftExpr instanceof VariableExpr && !isLeaf(rightExpr)) {
+            int copy = temp();
+            emit(Opcode.MOVE, copy);
+            emitRegister(left, leftExpr);
+            left = copy;
+        }
+        return new int[] { left, operand(rightExpr) };
+    }
+
+    private static boolean isShortCircuit(String operator) {
+        return operator.equals("&&") || operator.equals("||");
+    }
+
+    private static boolean isLeaf(Expr expr) {
+        return expr instanceof LiteralExpr || expr instanceof VariableExpr;
+    }
+
+    private int register(int depth, int slot) {
+        return bases.get(bases.size() - 1 - depth) + slot;
+    }
+
+    private int temp() {
+        int register = next++;
+        maxRegister = Math.max(maxRegister, next);
+        return register;
+    }
+
+    private int constant(Object value) {
+        return constantIndex.computeIfAbsent(value, v -> {
+            constants.add(v);
+            return constants.size() - 1;
+        });
+    }
+
+    private int emitTarget() {
+        emit(0);
+        return size - 1;
+    }
+
+    private void patch(int operand) {
+        code[operand] = size;
+    }
+
+    private void emitRegister(int register, Expr source) {
+        emit(register);
+        if (source instanceof VariableExpr variable) {
+            names[size - 1] = variable.name();
+        }
+    }
+
+    private void emit(int... words) {
+        if (size + words.length > code.length) {
+            int capacity = Math.max(code.length * 2, size + words.length);
+            code = Arrays.copyOf(code, capacity);
+            names = Arrays.copyOf(names, capacity);
+        }
+        for (int word : words) {
+            code[size++] = word;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package interpreter;
+
+/**
+ * An expression whose value the {@link LoopOptimizer} found to be reusable inside a loop.
+ * The first evaluation stores the value in a cache slot of the {@link Environment}; later
+ * ones read it back until the loop that owns the slot starts over or an assignment the
+ * value depends on clears it. Nothing is evaluated earlier than in the original tree, so
+ * errors are raised exactly where they would have been.
+ */
+public class CachedExpr extends Node implements Expr {
+    private final Expr expr;
+    private final int slot;
+
+    CachedExpr(Expr expr, int slot) {
+        this.expr = expr;
+        this.slot = slot;
+    }
+
+    Expr expr() {
+        return expr;
+    }
+
+    int slot() {
+        return slot;
+    }
+
+    @Override
+    public Object eval(Environment env) {
+        Object value = env.cached(slot);
+        if (value == null) {
+            value = expr.eval(env);
+            env.cache(slot, value);
+        }
+        return value;
+    }
+
+    @Override
+    public double evalDouble(Environment env) throws UnexpectedResultException {
+        return Expr.asDouble(eval(env));
+    }
+
+    @Override
+    public boolean evalBoolean(Environment env) throws UnexpectedResultException {
+        return Expr.asBoolean(eval(env));
+    }
+}
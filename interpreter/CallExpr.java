@@ -0,0 +1,31 @@
+package interpreter;
+
+import java.util.List;
+
+/** A call of a {@link Builtin}; the arguments are evaluated left to right. */
+public class CallExpr extends Node implements Expr {
+    private final Builtin function;
+    private final List<Expr> args;
+
+    CallExpr(Builtin function, List<Expr> args) {
+        this.function = function;
+        this.args = args;
+    }
+
+    Builtin function() {
+        return function;
+    }
+
+    List<Expr> args() {
+        return args;
+    }
+
+    @Override
+    public Object eval(Environment env) {
+        Object[] values = new Object[args.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = args.get(i).eval(env);
+        }
+        return function.call(values);
+    }
+}
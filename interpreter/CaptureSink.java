@@ -0,0 +1,32 @@
+package interpreter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/** Keeps printed values as lines in memory, for embedding the interpreter. */
+public final class CaptureSink implements OutputSink {
+    private final List<String> lines = new ArrayList<>();
+
+    @Override
+    public void print(Object value) {
+        lines.add(String.valueOf(value));
+    }
+
+    public List<String> lines() {
+        return Collections.unmodifiableList(lines);
+    }
+
+    /** Everything printed so far, one value per line. */
+    public String output() {
+        StringBuilder output = new StringBuilder();
+        for (String line : lines) {
+            output.append(line).append('\n');
+        }
+        return output.toString();
+    }
+
+    public void clear() {
+        lines.clear();
+    }
+}
@@ -0,0 +1,37 @@
+package interpreter;
+
+/**
+ * A compiled program for the {@link VirtualMachine}. Registers are laid out as
+ * globals first, then block variables and temporaries, then constants.
+ */
+final class Chunk {
+    final int[] code;
+    final Object[] constants;
+    // The constants as they are loaded into registers: numbers unboxed, see VirtualMachine.
+    final Object[] constantTags;
+    final double[] constantNumbers;
+    final int constantBase;
+    final int globals;
+    // Variable name for each register operand position in code, for error messages.
+    final String[] operandNames;
+
+    Chunk(int[] code, Object[] constants, int constantBase, int globals, String[] operandNames) {
+        this.code = code;
+        this.constants = constants;
+        constantTags = constants.clone();
+        constantNumbers = new double[constants.length];
+        for (int i = 0; i < constants.length; i++) {
+            if (constants[i] instanceof Double number) {
+                constantTags[i] = Environment.NUMBER;
+                constantNumbers[i] = number;
+            }
+        }
+        this.constantBase = constantBase;
+        this.globals = globals;
+        this.operandNames = operandNames;
+    }
+
+    int registers() {
+        return constantBase + constants.length;
+    }
+}
@@ -0,0 +1,321 @@
+package interpreter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Just enough of a class file writer to emit one final class with one static method.
+ * Classes are written as version 49 so the verifier infers types itself and no
+ * StackMapTable has to be computed.
+ */
+final class ClassWriter {
+    static final int ACONST_NULL = 0x01;
+    static final int ICONST_1 = 0x04;
+    static final int DCONST_0 = 0x0e;
+    static final int AALOAD = 0x32;
+    static final int POP = 0x57;
+    static final int POP2 = 0x58;
+    static final int DUP = 0x59;
+    static final int DADD = 0x63;
+    static final int DSUB = 0x67;
+    static final int DMUL = 0x6b;
+    static final int DNEG = 0x77;
+    static final int IXOR = 0x82;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int GOTO = 0xa7;
+    static final int RETURN = 0xb1;
+    static final int ATHROW = 0xbf;
+
+    private static final int DCONST_1 = 0x0f;
+    private static final int DLOAD = 0x18;
+    private static final int ALOAD = 0x19;
+    private static final int DSTORE = 0x39;
+    private static final int ASTORE = 0x3a;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC = 0x12;
+    private static final int LDC_W = 0x13;
+    private static final int LDC2_W = 0x14;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int WIDE = 0xc4;
+
+    static final class Label {
+        private int position = -1;
+        private final List<Integer> fixups = new ArrayList<>();
+    }
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+
+    private byte[] code = new byte[256];
+    private int length = 0;
+    private int stack = 0;
+    private int maxStack = 0;
+    private int maxLocals = 0;
+    private final List<int[]> handlers = new ArrayList<>();
+    private final List<Label> labels = new ArrayList<>();
+
+    // Instructions; stack depths and locals are counted in slots, two for a double.
+
+    void op(int opcode) {
+        put(opcode);
+        switch (opcode) {
+            case ACONST_NULL: case ICONST_1: case DUP: adjust(1); break;
+            case DCONST_0: case DCONST_1: adjust(2); break;
+            case AALOAD: case POP: case IXOR: case IFEQ: case IFNE: case ATHROW: adjust(-1); break;
+            case POP2: case DADD: case DSUB: case DMUL: adjust(-2); break;
+            default: break;
+        }
+    }
+
+    void aload(int local) {
+        local(ALOAD, local, 1);
+        adjust(1);
+    }
+
+    void astore(int local) {
+        local(ASTORE, local, 1);
+        adjust(-1);
+    }
+
+    void dload(int local) {
+        local(DLOAD, local, 2);
+        adjust(2);
+    }
+
+    void dstore(int local) {
+        local(DSTORE, local, 2);
+        adjust(-2);
+    }
+
+    void pushInt(int value) {
+        if (value >= -128 && value <= 127) {
+            put(BIPUSH);
+            put(value);
+        } else if (value >= -32768 && value <= 32767) {
+            put(SIPUSH);
+            putShort(value);
+        } else {
+            loadConstant(constant("I" + value, 3, out -> out.writeInt(value)));
+            return;
+        }
+        adjust(1);
+    }
+
+    void pushDouble(double value) {
+        if (Double.doubleToRawLongBits(value) == 0) {
+            op(DCONST_0);
+        } else if (value == 1) {
+            op(DCONST_1);
+        } else {
+            put(LDC2_W);
+            putShort(constant("D" + Double.doubleToRawLongBits(value), 6, out -> out.writeDouble(value)));
+            adjust(2);
+        }
+    }
+
+    void pushString(String value) {
+        int utf8 = utf8(value);
+        loadConstant(constant("S" + value, 8, out -> out.writeShort(utf8)));
+    }
+
+    void invokeStatic(String owner, String name, String descriptor) {
+        put(INVOKESTATIC);
+        putShort(methodRef(owner, name, descriptor));
+        int args = 0;
+        for (int i = 1; descriptor.charAt(i) != ')'; i++) {
+            char c = descriptor.charAt(i);
+            boolean array = c == '[';
+            while (c == '[') c = descriptor.charAt(++i);
+            if (c == 'L') i = descriptor.indexOf(';', i);
+            args += array ? 1 : slots(c);
+        }
+        adjust(-args + slots(descriptor.charAt(descriptor.indexOf(')') + 1)));
+    }
+
+    void jump(int opcode, Label target) {
+        int at = length;
+        op(opcode);
+        target.fixups.add(at);
+        putShort(0);
+    }
+
+    Label newLabel() {
+        Label label = new Label();
+        labels.add(label);
+        return label;
+    }
+
+    void mark(Label label) {
+        label.position = length;
+    }
+
+    /** Catch-all handler for [start, end), entered with the exception on the stack. */
+    void handler(Label start, Label end, Label handler) {
+        handlers.add(new int[] { start.position, end.position, handler.position });
+    }
+
+    /** Sets the operand stack depth, e.g. at a handler entry or after an unconditional jump. */
+    void stack(int depth) {
+        stack = depth;
+        maxStack = Math.max(maxStack, stack);
+    }
+
+    byte[] toByteArray(String className, String methodName, String descriptor) {
+        for (Label label : labels) {
+            for (int at : label.fixups) {
+                int offset = label.position - at;
+                if (offset != (short) offset) {
+                    throw new IllegalStateException("Branch offset out of range: " + offset);
+                }
+                code[at + 1] = (byte) (offset >> 8);
+                code[at + 2] = (byte) offset;
+            }
+        }
+        if (length > 65535) {
+            throw new IllegalStateException("Method too large: " + length + " bytes");
+        }
+        int thisClass = classRef(className);
+        int superClass = classRef("java/lang/Object");
+        int name = utf8(methodName);
+        int type = utf8(descriptor);
+        int codeAttribute = utf8("Code");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(poolCount);
+            poolOut.flush();
+            pool.writeTo(out);
+            out.writeShort(0x0010 | 0x0020); // ACC_FINAL | ACC_SUPER
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            out.writeShort(1); // methods
+            out.writeShort(0x0001 | 0x0008); // ACC_PUBLIC | ACC_STATIC
+            out.writeShort(name);
+            out.writeShort(type);
+            out.writeShort(1);
+            out.writeShort(codeAttribute);
+            out.writeInt(12 + length + 8 * handlers.size());
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(length);
+            out.write(code, 0, length);
+            out.writeShort(handlers.size());
+            for (int[] handler : handlers) {
+                out.writeShort(handler[0]);
+                out.writeShort(handler[1]);
+                out.writeShort(handler[2]);
+                out.writeShort(0);
+            }
+            out.writeShort(0); // code attributes
+            out.writeShort(0); // class attributes
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // Encoding helpers
+
+    /** Stack slots taken by a value whose descriptor starts with {@code type}. */
+    private static int slots(char type) {
+        switch (type) {
+            case 'V': return 0;
+            case 'D': case 'J': return 2;
+            default: return 1;
+        }
+    }
+
+    private void local(int opcode, int local, int size) {
+        maxLocals = Math.max(maxLocals, local + size);
+        if (local > 255) {
+            put(WIDE);
+            put(opcode);
+            putShort(local);
+        } else {
+            put(opcode);
+            put(local);
+        }
+    }
+
+    private void loadConstant(int index) {
+        if (index > 255) {
+            put(LDC_W);
+            putShort(index);
+        } else {
+            put(LDC);
+            put(index);
+        }
+        adjust(1);
+    }
+
+    private void adjust(int delta) {
+        stack += delta;
+        maxStack = Math.max(maxStack, stack);
+    }
+
+    private void put(int b) {
+        if (length == code.length) code = Arrays.copyOf(code, length * 2);
+        code[length++] = (byte) b;
+    }
+
+    private void putShort(int s) {
+        put(s >> 8);
+        put(s);
+    }
+
+    // Constant pool
+
+    private interface Entry {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private int constant(String key, int tag, Entry entry) {
+        Integer index = poolIndex.get(key);
+        if (index != null) return index;
+        try {
+            poolOut.writeByte(tag);
+            entry.write(poolOut);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        index = poolCount;
+        poolIndex.put(key, index);
+        // A double takes two entries.
+        poolCount += tag == 6 ? 2 : 1;
+        return index;
+    }
+
+    private int utf8(String value) {
+        return constant("U" + value, 1, out -> out.writeUTF(value));
+    }
+
+    private int classRef(String name) {
+        int utf8 = utf8(name);
+        return constant("C" + name, 7, out -> out.writeShort(utf8));
+    }
+
+    private int methodRef(String owner, String name, String descriptor) {
+        int ownerIndex = classRef(owner);
+        int nameIndex = utf8(name);
+        int typeIndex = utf8(descriptor);
+        int nameAndType = constant("N" + name + ":" + descriptor, 12, out -> {
+            out.writeShort(nameIndex);
+            out.writeShort(typeIndex);
+        });
+        return constant("M" + owner + "." + name + descriptor, 10, out -> {
+            out.writeShort(ownerIndex);
+            out.writeShort(nameAndType);
+        });
+    }
+}
@@ -0,0 +1,773 @@
+package interpreter;
+
+import java.util.*;
+
+/**
+ * Compiles a resolved {@link Program} or a {@link Function} body once into a tree of
+ * lambdas for {@link Evaluator.Mode#CLOSURE}. Everything the tree-walker decides while
+ * running is decided here instead: each operator gets a lambda of its own, variables
+ * are bound to their (depth, slot) address, and operand types come from the
+ * {@link TypeChecker}. Operators whose operand types are not proven are compiled for
+ * numbers. Like the tree-walker's specializations, every lambda checks its operand
+ * types and falls back to the generic operation, so the result is the same in any mode.
+ *
+ * <p>An expression can be compiled three ways: to a boxed value, an unboxed number or an
+ * unboxed boolean. The typed forms throw {@link UnexpectedResultException} with the
+ * value if it has another type. Each form of a node is compiled at most once.
+ */
+final class ClosureCompiler {
+    /** A compiled statement. */
+    interface Code {
+        void run(Environment env);
+    }
+
+    interface Value {
+        Object eval(Environment env);
+    }
+
+    interface NumberValue {
+        double eval(Environment env) throws UnexpectedResultException;
+    }
+
+    interface BooleanValue {
+        boolean eval(Environment env) throws UnexpectedResultException;
+    }
+
+    private static final Code NOTHING = env -> { };
+
+    private final Map<Expr, Value> values = new IdentityHashMap<>();
+    private final Map<Expr, NumberValue> numbers = new IdentityHashMap<>();
+    private final Map<Expr, BooleanValue> booleans = new IdentityHashMap<>();
+
+    Code compile(Program program) {
+        return sequence(program.statements());
+    }
+
+    /** A function body, run by {@link #call}. */
+    Code compile(Function function) {
+        return sequence(function.body());
+    }
+
+    /**
+     * Runs {@code function} on the arguments pushed with {@link Environment#push}, like
+     * {@link Function#invoke} but with its compiled body. Returns its value, or null.
+     */
+    static Object call(Function function, Environment env) {
+        Code body = function.closure();
+        int slots = function.slots();
+        env.enterCall(function, slots);
+        try {
+            while (true) {
+                try {
+                    body.run(env);
+                    return null;
+                } catch (ReturnStmt.Signal signal) {
+                    if (signal != ReturnStmt.Signal.TAIL_CALL) return env.takeResult();
+                    env.restartCall(slots);
+                }
+            }
+        } catch (StackOverflowError e) {
+            throw Function.stackOverflow();
+        } finally {
+            env.exitCall();
+        }
+    }
+
+    private Code sequence(List<Stmt> statements) {
+        Code[] codes = new Code[statements.size()];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = statement(statements.get(i));
+        }
+        switch (codes.length) {
+            case 0: return NOTHING;
+            case 1: return codes[0];
+            case 2: {
+                Code first = codes[0];
+                Code second = codes[1];
+                return env -> {
+                    first.run(env);
+                    second.run(env);
+                };
+            }
+            default:
+                return env -> {
+                    for (Code code : codes) {
+                        code.run(env);
+                    }
+                };
+        }
+    }
+
+    private Code statement(Stmt stmt) {
+        if (stmt instanceof AssignStmt assign && assign.depth() >= 0) {
+            return assign(assign);
+        }
+        if (stmt instanceof PrintStmt print) {
+            Value value = value(print.expr());
+            return env -> env.output().print(value.eval(env));
+        }
+        if (stmt instanceof ExprStmt exprStmt) {
+            if (exprStmt.expr() instanceof InvokeExpr call) {
+                Value invoke = invoke(call);
+                return invoke::eval;
+            }
+            Value value = value(exprStmt.expr());
+            return value::eval;
+        }
+        if (stmt instanceof BlockStmt block) {
+            int slots = block.slots();
+            Code body = sequence(block.statements());
+            return env -> {
+                env.enterScope(slots);
+                body.run(env);
+                env.exitScope();
+            };
+        }
+        if (stmt instanceof IfStmt ifStmt) {
+            return branch(ifStmt);
+        }
+        if (stmt instanceof WhileStmt whileStmt) {
+            return loop(whileStmt);
+        }
+        if (stmt instanceof FunStmt fun && fun.function() != null) {
+            Function function = fun.function();
+            return env -> env.functions().define(function);
+        }
+        if (stmt instanceof ReturnStmt returnStmt) {
+            return ret(returnStmt);
+        }
+        // Unresolved and instrumented nodes run as they are.
+        return stmt::execute;
+    }
+
+    private Code assign(AssignStmt assign) {
+        int depth = assign.depth();
+        int slot = assign.slot();
+        int[] invalidates = assign.invalidates();
+        Code store;
+        if (assign.number() || isNumber(assign.expr())) {
+            NumberValue number = number(assign.expr());
+            store = env -> {
+                try {
+                    env.setDouble(depth, slot, number.eval(env));
+                } catch (UnexpectedResultException e) {
+                    env.set(depth, slot, e.getResult());
+                }
+            };
+        } else {
+            Value value = value(assign.expr());
+            store = env -> env.set(depth, slot, value.eval(env));
+        }
+        if (invalidates.length == 0) {
+            return store;
+        }
+        return env -> {
+            store.run(env);
+            env.uncache(invalidates);
+        };
+    }
+
+    private Code branch(IfStmt ifStmt) {
+        BooleanValue condition = bool(ifStmt.condition());
+        Code thenBranch = statement(ifStmt.thenBranch());
+        if (ifStmt.elseBranch() == null) {
+            return env -> {
+                if (test(condition, env)) thenBranch.run(env);
+            };
+        }
+        Code elseBranch = statement(ifStmt.elseBranch());
+        return env -> {
+            if (test(condition, env)) {
+                thenBranch.run(env);
+            } else {
+                elseBranch.run(env);
+            }
+        };
+    }
+
+    private static boolean test(BooleanValue condition, Environment env) {
+        try {
+            return condition.eval(env);
+        } catch (UnexpectedResultException e) {
+            throw new RuntimeException("Condition must evaluate to a boolean.");
+        }
+    }
+
+    private Code loop(WhileStmt whileStmt) {
+        BooleanValue condition = bool(whileStmt.condition());
+        Code body = statement(whileStmt.body());
+        int[] cached = whileStmt.cached();
+        return env -> {
+            if (cached.length > 0) {
+                env.uncache(cached);
+            }
+            while (true) {
+                // Anything but true ends the loop.
+                try {
+                    if (!condition.eval(env)) return;
+                } catch (UnexpectedResultException e) {
+                    return;
+                }
+                env.tick();
+                body.run(env);
+            }
+        };
+    }
+
+    private Code ret(ReturnStmt returnStmt) {
+        if (returnStmt.value() instanceof InvokeExpr call) {
+            Value[] args = values(call.args());
+            return env -> {
+                push(args, env);
+                Function target = call.target(env);
+                if (target == env.callee()) throw ReturnStmt.Signal.TAIL_CALL;
+                env.setResult(call(target, env));
+                throw ReturnStmt.Signal.RETURN;
+            };
+        }
+        if (returnStmt.value() == null) {
+            return env -> {
+                env.setResult(null);
+                throw ReturnStmt.Signal.RETURN;
+            };
+        }
+        Value value = value(returnStmt.value());
+        return env -> {
+            env.setResult(value.eval(env));
+            throw ReturnStmt.Signal.RETURN;
+        };
+    }
+
+    /** A call for its effects: null if the function returned no value. */
+    private Value invoke(InvokeExpr call) {
+        Value[] args = values(call.args());
+        return env -> {
+            push(args, env);
+            return call(call.target(env), env);
+        };
+    }
+
+    private static void push(Value[] args, Environment env) {
+        for (Value arg : args) {
+            env.push(arg.eval(env));
+        }
+    }
+
+    private Value[] values(List<Expr> exprs) {
+        Value[] compiled = new Value[exprs.size()];
+        for (int i = 0; i < compiled.length; i++) {
+            compiled[i] = value(exprs.get(i));
+        }
+        return compiled;
+    }
+
+    private Value value(Expr expr) {
+        Value compiled = values.get(expr);
+        if (compiled == null) {
+            compiled = compileValue(expr);
+            values.put(expr, compiled);
+        }
+        return compiled;
+    }
+
+    private NumberValue number(Expr expr) {
+        NumberValue compiled = numbers.get(expr);
+        if (compiled == null) {
+            compiled = compileNumber(expr);
+            numbers.put(expr, compiled);
+        }
+        return compiled;
+    }
+
+    private BooleanValue bool(Expr expr) {
+        BooleanValue compiled = booleans.get(expr);
+        if (compiled == null) {
+            compiled = compileBoolean(expr);
+            booleans.put(expr, compiled);
+        }
+        return compiled;
+    }
+
+    /** Whether {@code expr} is compiled to produce numbers, so its value is best taken unboxed. */
+    private static boolean isNumber(Expr expr) {
+        if (expr instanceof LiteralExpr literal) return literal.value() instanceof Double;
+        if (expr instanceof BinaryExpr binary) return kind(binary) == Kind.ARITHMETIC;
+        if (expr instanceof UnaryExpr unary) return unary.operator().equals("-");
+        return expr instanceof IndexExpr;
+    }
+
+    private Value compileValue(Expr expr) {
+        if (expr instanceof LiteralExpr literal) {
+            Object value = literal.value();
+            return env -> value;
+        }
+        if (expr instanceof VariableExpr variable && variable.depth() >= 0) {
+            String name = variable.name();
+            int depth = variable.depth();
+            int slot = variable.slot();
+            return env -> {
+                Object value = env.get(depth, slot);
+                if (value == null) throw undefined(name);
+                return value;
+            };
+        }
+        if (expr instanceof BinaryExpr binary) {
+            switch (kind(binary)) {
+                case ARITHMETIC: return boxed(number(binary));
+                case COMPARISON: case LOGICAL: case SHORT_CIRCUIT: return boxed(bool(binary));
+                case CONCAT: {
+                    Value left = value(binary.left());
+                    Value right = value(binary.right());
+                    return env -> {
+                        Object leftVal = left.eval(env);
+                        Object rightVal = right.eval(env);
+                        if (ConcatString.isString(leftVal) || ConcatString.isString(rightVal)) {
+                            return ConcatString.concat(leftVal, rightVal);
+                        }
+                        return BinaryExpr.apply("+", leftVal, rightVal);
+                    };
+                }
+            }
+        }
+        if (expr instanceof UnaryExpr unary) {
+            return unary.operator().equals("-") ? boxed(number(unary)) : boxed(bool(unary));
+        }
+        if (expr instanceof IndexExpr index) {
+            Value array = value(index.array());
+            Value position = value(index.index());
+            return env -> {
+                Object values = array.eval(env);
+                return DoubleArray.index(values, position.eval(env));
+            };
+        }
+        if (expr instanceof CallExpr call) {
+            Builtin function = call.function();
+            Value[] args = values(call.args());
+            return env -> {
+                Object[] values = new Object[args.length];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = args[i].eval(env);
+                }
+                return function.call(values);
+            };
+        }
+        if (expr instanceof ArrayExpr array) {
+            NumberValue[] elements = new NumberValue[array.elements().size()];
+            for (int i = 0; i < elements.length; i++) {
+                elements[i] = number(array.elements().get(i));
+            }
+            return env -> {
+                double[] values = new double[elements.length];
+                // Like the arguments of a call, every element is evaluated before any is checked.
+                Object invalid = null;
+                for (int i = 0; i < values.length; i++) {
+                    try {
+                        values[i] = elements[i].eval(env);
+                    } catch (UnexpectedResultException e) {
+                        if (invalid == null) invalid = e.getResult();
+                    }
+                }
+                if (invalid != null) throw ArrayExpr.elementError(invalid);
+                return DoubleArray.of(values);
+            };
+        }
+        if (expr instanceof InvokeExpr call) {
+            Value invoke = invoke(call);
+            String name = call.name();
+            return env -> {
+                Object value = invoke.eval(env);
+                if (value == null) throw InvokeExpr.noValue(name);
+                return value;
+            };
+        }
+        if (expr instanceof CachedExpr cachedExpr) {
+            Value inner = value(cachedExpr.expr());
+            int slot = cachedExpr.slot();
+            return env -> {
+                Object value = env.cached(slot);
+                if (value == null) {
+                    value = inner.eval(env);
+                    env.cache(slot, value);
+                }
+                return value;
+            };
+        }
+        return expr::eval;
+    }
+
+    private static Value boxed(NumberValue number) {
+        return env -> {
+            try {
+                return number.eval(env);
+            } catch (UnexpectedResultException e) {
+                return e.getResult();
+            }
+        };
+    }
+
+    private static Value boxed(BooleanValue bool) {
+        return env -> {
+            try {
+                return bool.eval(env);
+            } catch (UnexpectedResultException e) {
+                return e.getResult();
+            }
+        };
+    }
+
+    private NumberValue compileNumber(Expr expr) {
+        if (expr instanceof LiteralExpr literal) {
+            Object value = literal.value();
+            if (value instanceof Double boxed) {
+                double number = boxed;
+                return env -> number;
+            }
+            return env -> {
+                throw new UnexpectedResultException(value);
+            };
+        }
+        if (expr instanceof VariableExpr variable && variable.depth() >= 0) {
+            String name = variable.name();
+            int depth = variable.depth();
+            int slot = variable.slot();
+            return env -> {
+                try {
+                    return env.getDouble(depth, slot);
+                } catch (UnexpectedResultException e) {
+                    if (e.getResult() == null) throw undefined(name);
+                    throw e;
+                }
+            };
+        }
+        if (expr instanceof BinaryExpr binary && kind(binary) == Kind.ARITHMETIC) {
+            return arithmetic(binary);
+        }
+        if (expr instanceof UnaryExpr unary && unary.operator().equals("-")) {
+            NumberValue operand = number(unary.expr());
+            return env -> {
+                try {
+                    return -operand.eval(env);
+                } catch (UnexpectedResultException e) {
+                    return Expr.asDouble(UnaryExpr.apply("-", e.getResult()));
+                }
+            };
+        }
+        if (expr instanceof IndexExpr index) {
+            Value array = value(index.array());
+            NumberValue position = number(index.index());
+            return env -> {
+                Object values = array.eval(env);
+                try {
+                    return DoubleArray.index(values, position.eval(env));
+                } catch (UnexpectedResultException e) {
+                    return (Double) DoubleArray.index(values, e.getResult());
+                }
+            };
+        }
+        Value value = value(expr);
+        return env -> Expr.asDouble(value.eval(env));
+    }
+
+    private BooleanValue compileBoolean(Expr expr) {
+        if (expr instanceof LiteralExpr literal) {
+            Object value = literal.value();
+            if (value instanceof Boolean boxed) {
+                boolean bool = boxed;
+                return env -> bool;
+            }
+            return env -> {
+                throw new UnexpectedResultException(value);
+            };
+        }
+        if (expr instanceof VariableExpr variable && variable.depth() >= 0) {
+            String name = variable.name();
+            int depth = variable.depth();
+            int slot = variable.slot();
+            return env -> {
+                Object value = env.get(depth, slot);
+                if (value instanceof Boolean bool) return bool;
+                if (value == null) throw undefined(name);
+                throw new UnexpectedResultException(value);
+            };
+        }
+        if (expr instanceof BinaryExpr binary) {
+            switch (kind(binary)) {
+                case COMPARISON: return comparison(binary);
+                case LOGICAL: return logical(binary);
+                case SHORT_CIRCUIT: return shortCircuit(binary);
+                default: break;
+            }
+        }
+        if (expr instanceof UnaryExpr unary && unary.operator().equals("!")) {
+            BooleanValue operand = bool(unary.expr());
+            return env -> {
+                try {
+                    return !operand.eval(env);
+                } catch (UnexpectedResultException e) {
+                    return Expr.asBoolean(UnaryExpr.apply("!", e.getResult()));
+                }
+            };
+        }
+        Value value = value(expr);
+        return env -> Expr.asBoolean(value.eval(env));
+    }
+
+    private enum Kind { ARITHMETIC, COMPARISON, LOGICAL, SHORT_CIRCUIT, CONCAT }
+
+    /** How a binary node is compiled: for numbers unless its operands are proven to be something else. */
+    private static Kind kind(BinaryExpr binary) {
+        switch (binary.operator()) {
+            case "&&": case "||": return Kind.SHORT_CIRCUIT;
+            case "+": case "-": case "*": case "/": case "%": break;
+            default:
+                return binary.proven() instanceof BinaryExpr.Logical ? Kind.LOGICAL : Kind.COMPARISON;
+        }
+        return binary.proven() == BinaryExpr.Specialization.CONCAT ? Kind.CONCAT : Kind.ARITHMETIC;
+    }
+
+    private NumberValue arithmetic(BinaryExpr binary) {
+        String operator = binary.operator();
+        NumberValue left = number(binary.left());
+        NumberValue right = number(binary.right());
+        Value rightValue = value(binary.right());
+        switch (operator) {
+            case "+":
+                return env -> {
+                    double a;
+                    try {
+                        a = left.eval(env);
+                    } catch (UnexpectedResultException e) {
+                        return generic(operator, e.getResult(), rightValue.eval(env));
+                    }
+                    try {
+                        return a + right.eval(env);
+                    } catch (UnexpectedResultException e) {
+                        return generic(operator, a, e.getResult());
+                    }
+                };
+            case "-":
+                return env -> {
+                    double a;
+                    try {
+                        a = left.eval(env);
+                    } catch (UnexpectedResultException e) {
+                        return generic(operator, e.getResult(), rightValue.eval(env));
+                    }
+                    try {
+                        return a - right.eval(env);
+                    } catch (UnexpectedResultException e) {
+                        return generic(operator, a, e.getResult());
+                    }
+                };
+            case "*":
+                return env -> {
+                    double a;
+                    try {
+                        a = left.eval(env);
+                    } catch (UnexpectedResultException e) {
+                        return generic(operator, e.getResult(), rightValue.eval(env));
+                    }
+                    try {
+                        return a * right.eval(env);
+                    } catch (UnexpectedResultException e) {
+                        return generic(operator, a, e.getResult());
+                    }
+                };
+            case "/":
+                return env -> {
+                    double a;
+                    try {
+                        a = left.eval(env);
+                    } catch (UnexpectedResultException e) {
+                        return generic(operator, e.getResult(), rightValue.eval(env));
+                    }
+                    double b;
+                    try {
+                        b = right.eval(env);
+                    } catch (UnexpectedResultException e) {
+                        return generic(operator, a, e.getResult());
+                    }
+                    if (b == 0) throw new RuntimeException("Division by zero");
+                    return a / b;
+                };
+            default:
+                return env -> {
+                    double a;
+                    try {
+                        a = left.eval(env);
+                    } catch (UnexpectedResultException e) {
+                        return generic(operator, e.getResult(), rightValue.eval(env));
+                    }
+                    try {
+                        return a % right.eval(env);
+                    } catch (UnexpectedResultException e) {
+                        return generic(operator, a, e.getResult());
+                    }
+                };
+        }
+    }
+
+    private BooleanValue comparison(BinaryExpr binary) {
+        String operator = binary.operator();
+        NumberValue left = number(binary.left());
+        NumberValue right = number(binary.right());
+        Value rightValue = value(binary.right());
+        switch (operator) {
+            case "<":
+                return env -> {
+                    double a;
+                    try {
+                        a = left.eval(env);
+                    } catch (UnexpectedResultException e) {
+                        return test(operator, e.getResult(), rightValue.eval(env));
+                    }
+                    try {
+                        return a < right.eval(env);
+                    } catch (UnexpectedResultException e) {
+                        return test(operator, a, e.getResult());
+                    }
+                };
+            case "<=":
+                return env -> {
+                    double a;
+                    try {
+                        a = left.eval(env);
+                    } catch (UnexpectedResultException e) {
+                        return test(operator, e.getResult(), rightValue.eval(env));
+                    }
+                    try {
+                        return a <= right.eval(env);
+                    } catch (UnexpectedResultException e) {
+                        return test(operator, a, e.getResult());
+                    }
+                };
+            case ">":
+                return env -> {
+                    double a;
+                    try {
+                        a = left.eval(env);
+                    } catch (UnexpectedResultException e) {
+                        return test(operator, e.getResult(), rightValue.eval(env));
+                    }
+                    try {
+                        return a > right.eval(env);
+                    } catch (UnexpectedResultException e) {
+                        return test(operator, a, e.getResult());
+                    }
+                };
+            case ">=":
+                return env -> {
+                    double a;
+                    try {
+                        a = left.eval(env);
+                    } catch (UnexpectedResultException e) {
+                        return test(operator, e.getResult(), rightValue.eval(env));
+                    }
+                    try {
+                        return a >= right.eval(env);
+                    } catch (UnexpectedResultException e) {
+                        return test(operator, a, e.getResult());
+                    }
+                };
+            case "==":
+                return env -> {
+                    double a;
+                    try {
+                        a = left.eval(env);
+                    } catch (UnexpectedResultException e) {
+                        return test(operator, e.getResult(), rightValue.eval(env));
+                    }
+                    try {
+                        return a == right.eval(env);
+                    } catch (UnexpectedResultException e) {
+                        return test(operator, a, e.getResult());
+                    }
+                };
+            default:
+                return env -> {
+                    double a;
+                    try {
+                        a = left.eval(env);
+                    } catch (UnexpectedResultException e) {
+                        return test(operator, e.getResult(), rightValue.eval(env));
+                    }
+                    try {
+                        return a != right.eval(env);
+                    } catch (UnexpectedResultException e) {
+                        return test(operator, a, e.getResult());
+                    }
+                };
+        }
+    }
+
+    /** {@code ==} and {@code !=} on operands proven to be booleans. */
+    private BooleanValue logical(BinaryExpr binary) {
+        String operator = binary.operator();
+        BooleanValue left = bool(binary.left());
+        BooleanValue right = bool(binary.right());
+        Value rightValue = value(binary.right());
+        boolean equal = operator.equals("==");
+        return env -> {
+            boolean a;
+            try {
+                a = left.eval(env);
+            } catch (UnexpectedResultException e) {
+                return test(operator, e.getResult(), rightValue.eval(env));
+            }
+            try {
+                return (a == right.eval(env)) == equal;
+            } catch (UnexpectedResultException e) {
+                return test(operator, a, e.getResult());
+            }
+        };
+    }
+
+    /** {@code &&} and {@code ||}: the right operand only runs when the left one does not decide. */
+    private BooleanValue shortCircuit(BinaryExpr binary) {
+        String operator = binary.operator();
+        BooleanValue left = bool(binary.left());
+        BooleanValue right = bool(binary.right());
+        Value rightValue = value(binary.right());
+        if (operator.equals("&&")) {
+            return env -> {
+                boolean a;
+                try {
+                    a = left.eval(env);
+                } catch (UnexpectedResultException e) {
+                    return test(operator, e.getResult(), rightValue.eval(env));
+                }
+                try {
+                    return a && right.eval(env);
+                } catch (UnexpectedResultException e) {
+                    return test(operator, a, e.getResult());
+                }
+            };
+        }
+        return env -> {
+            boolean a;
+            try {
+                a = left.eval(env);
+            } catch (UnexpectedResultException e) {
+                return test(operator, e.getResult(), rightValue.eval(env));
+            }
+            try {
+                return a || right.eval(env);
+            } catch (UnexpectedResultException e) {
+                return test(operator, a, e.getResult());
+            }
+        };
+    }
+
+    // Generic paths for operands of types a lambda was not compiled for.
+    private static double generic(String operator, Object left, Object right) throws UnexpectedResultException {
+        return Expr.asDouble(BinaryExpr.apply(operator, left, right));
+    }
+
+    private static boolean test(String operator, Object left, Object right) throws UnexpectedResultException {
+        return Expr.asBoolean(BinaryExpr.apply(operator, left, right));
+    }
+
+    private static RuntimeException undefined(String name) {
+        return new RuntimeException("Undefined variable: " + name);
+    }
+}
@@ -0,0 +1,187 @@
+package interpreter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * One variable's values for every row of a batch, see {@link BatchExpression}: numbers or
+ * booleans, held in an array or memory-mapped from a file. A column built from an array
+ * reads it in place, so the array must not change while the column is being evaluated.
+ *
+ * <p>Column files hold the values one after the other with no header: numbers as 8-byte
+ * little-endian doubles, booleans as one byte each, 0 for false. Files are mapped in
+ * segments of up to 1 GiB, so a column can have up to {@link Integer#MAX_VALUE} rows.
+ */
+public final class Column {
+    public enum Type { NUMBER, BOOLEAN }
+
+    private static final int SEGMENT_SHIFT = 27;
+    private static final int SEGMENT_ROWS = 1 << SEGMENT_SHIFT;
+
+    private final Type type;
+    private final int length;
+    // Exactly one of these holds the values.
+    private final double[] numbers;
+    private final boolean[] booleans;
+    private final DoubleBuffer[] numberSegments;
+    private final ByteBuffer[] booleanSegments;
+
+    private Column(Type type, int length, double[] numbers, boolean[] booleans,
+                   DoubleBuffer[] numberSegments, ByteBuffer[] booleanSegments) {
+        this.type = type;
+        this.length = length;
+        this.numbers = numbers;
+        this.booleans = booleans;
+        this.numberSegments = numberSegments;
+        this.booleanSegments = booleanSegments;
+    }
+
+    public static Column of(double... values) {
+        return new Column(Type.NUMBER, values.length, values, null, null, null);
+    }
+
+    public static Column of(boolean... values) {
+        return new Column(Type.BOOLEAN, values.length, null, values, null, null);
+    }
+
+    /** Maps a file of little-endian doubles. */
+    public static Column mapNumbers(Path path) throws IOException {
+        ByteBuffer[] segments = map(path, Double.BYTES);
+        DoubleBuffer[] views = new DoubleBuffer[segments.length];
+        int length = 0;
+        for (int i = 0; i < segments.length; i++) {
+            views[i] = segments[i].order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+            length += views[i].capacity();
+        }
+        return new Column(Type.NUMBER, length, null, null, views, null);
+    }
+
+    /** Maps a file of one byte per boolean. */
+    public static Column mapBooleans(Path path) throws IOException {
+        ByteBuffer[] segments = map(path, 1);
+        int length = 0;
+        for (ByteBuffer segment : segments) {
+            length += segment.capacity();
+        }
+        return new Column(Type.BOOLEAN, length, null, null, null, segments);
+    }
+
+    private static ByteBuffer[] map(Path path, int width) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size % width != 0) {
+                throw new IOException(path + " is not a whole number of " + width + "-byte values");
+            }
+            long rows = size / width;
+            if (rows > Integer.MAX_VALUE) {
+                throw new IOException(path + " has more than " + Integer.MAX_VALUE + " rows");
+            }
+            ByteBuffer[] segments = new ByteBuffer[(int) ((rows + SEGMENT_ROWS - 1) >>> SEGMENT_SHIFT)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = (long) i << SEGMENT_SHIFT;
+                long count = Math.min(SEGMENT_ROWS, rows - start);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start * width, count * width);
+            }
+            return segments;
+        }
+    }
+
+    /** Writes the column in the format {@link #mapNumbers} and {@link #mapBooleans} read. */
+    public void write(Path path) throws IOException {
+        int width = type == Type.NUMBER ? Double.BYTES : 1;
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (int row = 0; row < length; row++) {
+                if (buffer.remaining() < width) {
+                    drain(buffer, channel);
+                }
+                if (type == Type.NUMBER) {
+                    buffer.putDouble(getDouble(row));
+                } else {
+                    buffer.put(getBoolean(row) ? (byte) 1 : 0);
+                }
+            }
+            drain(buffer, channel);
+        }
+    }
+
+    private static void drain(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    public Type type() {
+        return type;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public double getDouble(int row) {
+        if (numbers != null) return numbers[row];
+        if (numberSegments == null) throw new IllegalStateException("Not a number column");
+        return numberSegments[row >>> SEGMENT_SHIFT].get(row & (SEGMENT_ROWS - 1));
+    }
+
+    public boolean getBoolean(int row) {
+        if (booleans != null) return booleans[row];
+        if (booleanSegments == null) throw new IllegalStateException("Not a boolean column");
+        return booleanSegments[row >>> SEGMENT_SHIFT].get(row & (SEGMENT_ROWS - 1)) != 0;
+    }
+
+    /** The values of a number column: the array it was built from, or a copy of a mapped file. */
+    public double[] doubles() {
+        if (numbers != null) return numbers;
+        double[] values = new double[length];
+        read(0, length, values);
+        return values;
+    }
+
+    /** The values of a boolean column: the array it was built from, or a copy of a mapped file. */
+    public boolean[] booleans() {
+        if (booleans != null) return booleans;
+        boolean[] values = new boolean[length];
+        read(0, length, values);
+        return values;
+    }
+
+    /** Copies {@code count} numbers from row {@code from} to the start of {@code into}. */
+    void read(int from, int count, double[] into) {
+        if (numbers != null) {
+            System.arraycopy(numbers, from, into, 0, count);
+            return;
+        }
+        if (numberSegments == null) throw new IllegalStateException("Not a number column");
+        int done = 0;
+        while (done < count) {
+            int row = from + done;
+            int offset = row & (SEGMENT_ROWS - 1);
+            int n = Math.min(count - done, SEGMENT_ROWS - offset);
+            numberSegments[row >>> SEGMENT_SHIFT].get(offset, into, done, n);
+            done += n;
+        }
+    }
+
+    /** Copies {@code count} booleans from row {@code from} to the start of {@code into}. */
+    void read(int from, int count, boolean[] into) {
+        if (booleans != null) {
+            System.arraycopy(booleans, from, into, 0, count);
+            return;
+        }
+        if (booleanSegments == null) throw new IllegalStateException("Not a boolean column");
+        for (int i = 0; i < count; i++) {
+            int row = from + i;
+            into[i] = booleanSegments[row >>> SEGMENT_SHIFT].get(row & (SEGMENT_ROWS - 1)) != 0;
+        }
+    }
+}
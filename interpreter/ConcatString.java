@@ -0,0 +1,73 @@
+package interpreter;
+
+/**
+ * String value built by {@code +}. Each value is a prefix of a StringBuilder that it
+ * may share with the values it was appended from: appending to the value that covers
+ * the whole builder extends the builder in place, so {@code s = s + x} in a loop costs
+ * amortized constant time per append instead of a copy of {@code s}. Appending to an
+ * older value, whose builder has grown since, copies its prefix into a new builder.
+ * Values never change, and are flattened into a String once, when first printed.
+ */
+final class ConcatString {
+    // Shorter results stay plain Strings, which are cheaper to build than a builder.
+    static final int MIN_LENGTH = 64;
+
+    private final StringBuilder builder;
+    private final int length;
+    private String flat;
+
+    private ConcatString(StringBuilder builder) {
+        this.builder = builder;
+        this.length = builder.length();
+    }
+
+    static boolean isString(Object value) {
+        return value instanceof String || value instanceof ConcatString;
+    }
+
+    /** {@code left + right} where at least one side is a string. */
+    static Object concat(Object left, Object right) {
+        if (left instanceof ConcatString concat) {
+            return concat.append(String.valueOf(right));
+        }
+        String l = String.valueOf(left);
+        String r = String.valueOf(right);
+        if (l.length() + r.length() < MIN_LENGTH) {
+            return l.concat(r);
+        }
+        StringBuilder builder = new StringBuilder(2 * (l.length() + r.length()));
+        return new ConcatString(builder.append(l).append(r));
+    }
+
+    /** Returns {@code value} with any ConcatString flattened, for values leaving the interpreter. */
+    static Object flatten(Object value) {
+        return value instanceof ConcatString ? value.toString() : value;
+    }
+
+    private ConcatString append(String text) {
+        // Values of one builder can be appended to from several threads.
+        synchronized (builder) {
+            if (builder.length() == length) {
+                return new ConcatString(builder.append(text));
+            }
+            StringBuilder copy = new StringBuilder(2 * (length + text.length()));
+            return new ConcatString(copy.append(builder, 0, length).append(text));
+        }
+    }
+
+    int length() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        String text = flat;
+        if (text == null) {
+            synchronized (builder) {
+                text = builder.substring(0, length);
+            }
+            flat = text;
+        }
+        return text;
+    }
+}
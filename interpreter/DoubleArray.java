@@ -0,0 +1,256 @@
+package interpreter;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Array value: a fixed-length sequence of numbers stored unboxed. Arrays never change
+ * once built; indexing reads one element and every operator returns a new array, so
+ * arrays can be shared between variables, cached and used from several threads freely.
+ *
+ * <p>Arrays of at least {@link #OFF_HEAP_LENGTH} elements live in a direct buffer outside
+ * the Java heap, so the collector never copies them. The element-wise operators
+ * {@code + - * /} and the reductions run on {@link VectorKernels} when the JVM was
+ * started with {@code --add-modules jdk.incubator.vector}, and on plain loops otherwise.
+ * Reductions add in an order of their choosing, so a sum can differ in its last bits from
+ * the same sum computed by a loop.
+ */
+final class DoubleArray {
+    static final int OFF_HEAP_LENGTH = 1 << 20;
+    // Off-heap elements are addressed by an int byte offset.
+    static final int MAX_LENGTH = Integer.MAX_VALUE / Double.BYTES;
+    static final boolean VECTORIZED = vectorized();
+
+    static final int ADD = 0;
+    static final int SUBTRACT = 1;
+    static final int MULTIPLY = 2;
+    static final int DIVIDE = 3;
+    static final int MODULO = 4;
+
+    private final int length;
+    // Exactly one of the two holds the elements; the buffer is in native byte order.
+    final double[] heap;
+    final ByteBuffer offHeap;
+
+    private DoubleArray(int length, boolean direct) {
+        this.length = length;
+        if (!direct) {
+            heap = new double[length];
+            offHeap = null;
+        } else {
+            heap = null;
+            offHeap = ByteBuffer.allocateDirect(length * Double.BYTES).order(ByteOrder.nativeOrder());
+        }
+    }
+
+    // The kernels are only used once they have run correctly on both kinds of storage here,
+    // so a JDK whose Vector API lacks something they call falls back to the plain loops.
+    private static boolean vectorized() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) return false;
+        try {
+            return VectorKernels.lanes() > 1 && VectorKernels.probe();
+        } catch (LinkageError | RuntimeException e) {
+            return false;
+        }
+    }
+
+    /** A new array of zeros, filled in by its creator before anyone else sees it. */
+    static DoubleArray allocate(int length) {
+        if (length < 0 || length > MAX_LENGTH) {
+            throw new RuntimeException("Array length out of range: " + length);
+        }
+        return new DoubleArray(length, length >= OFF_HEAP_LENGTH);
+    }
+
+    /** Like {@link #allocate(int)}, with the storage chosen by the caller. */
+    static DoubleArray allocate(int length, boolean direct) {
+        return new DoubleArray(length, direct);
+    }
+
+    static DoubleArray of(double... values) {
+        DoubleArray array = allocate(values.length);
+        if (array.heap != null) {
+            System.arraycopy(values, 0, array.heap, 0, values.length);
+        } else {
+            array.offHeap.asDoubleBuffer().put(values);
+        }
+        return array;
+    }
+
+    /** {@code [0, 1, ..., n - 1]}. */
+    static DoubleArray range(double n) {
+        DoubleArray array = allocate(length(n, "range"));
+        for (int i = 0; i < array.length; i++) {
+            array.set(i, i);
+        }
+        return array;
+    }
+
+    /** {@code n} copies of {@code value}. */
+    static DoubleArray fill(double n, double value) {
+        DoubleArray array = allocate(length(n, "fill"));
+        if (Double.doubleToRawLongBits(value) != 0) {
+            for (int i = 0; i < array.length; i++) {
+                array.set(i, value);
+            }
+        }
+        return array;
+    }
+
+    private static int length(double n, String function) {
+        if (n != Math.rint(n) || n < 0 || n > MAX_LENGTH) {
+            throw new RuntimeException(function + " needs a whole length from 0 to " + MAX_LENGTH + ", got " + n);
+        }
+        return (int) n;
+    }
+
+    int length() {
+        return length;
+    }
+
+    double get(int index) {
+        return heap != null ? heap[index] : offHeap.getDouble(index * Double.BYTES);
+    }
+
+    /** Only while the array is being built. */
+    void set(int index, double value) {
+        if (heap != null) {
+            heap[index] = value;
+        } else {
+            offHeap.putDouble(index * Double.BYTES, value);
+        }
+    }
+
+    /** {@code array[index]}: the element, or an error for a non-array, a non-integer or an index out of range. */
+    static double index(Object array, double index) {
+        if (!(array instanceof DoubleArray values)) {
+            throw new RuntimeException("Only arrays can be indexed, got " + BinaryExpr.typeName(array));
+        }
+        if (index != Math.rint(index) || index < 0 || index >= values.length) {
+            throw new RuntimeException("Array index " + index + " out of bounds for length " + values.length);
+        }
+        return values.get((int) index);
+    }
+
+    static Object index(Object array, Object index) {
+        if (!(index instanceof Double number)) {
+            throw new RuntimeException("Array index must be a number, got " + BinaryExpr.typeName(index));
+        }
+        return index(array, (double) number);
+    }
+
+    /** Whether {@link #apply} handles these operands: an array and an array or a number. */
+    static boolean isOperand(Object left, Object right) {
+        return left instanceof DoubleArray ? right instanceof DoubleArray || right instanceof Double
+                : left instanceof Double && right instanceof DoubleArray;
+    }
+
+    /** Element-wise {@code left operator right}, or null if the operator does not apply to arrays. */
+    static DoubleArray apply(String operator, Object left, Object right) {
+        int op;
+        switch (operator) {
+            case "+": op = ADD; break;
+            case "-": op = SUBTRACT; break;
+            case "*": op = MULTIPLY; break;
+            case "/": op = DIVIDE; break;
+            case "%": op = MODULO; break;
+            default: return null;
+        }
+        DoubleArray a = left instanceof DoubleArray array ? array : null;
+        DoubleArray b = right instanceof DoubleArray array ? array : null;
+        double as = a == null ? (Double) left : 0;
+        double bs = b == null ? (Double) right : 0;
+        if (a != null && b != null && a.length != b.length) {
+            throw new RuntimeException("Array lengths differ: " + a.length + " and " + b.length);
+        }
+        if (op == DIVIDE && b == null && bs == 0) {
+            throw new RuntimeException("Division by zero");
+        }
+        DoubleArray out = allocate(a != null ? a.length : b.length);
+        if (VECTORIZED && op != MODULO) {
+            VectorKernels.apply(op, a, as, b, bs, out);
+        } else {
+            for (int i = 0; i < out.length; i++) {
+                double x = a != null ? a.get(i) : as;
+                double y = b != null ? b.get(i) : bs;
+                out.set(i, compute(op, x, y));
+            }
+        }
+        return out;
+    }
+
+    static double compute(int op, double x, double y) {
+        switch (op) {
+            case ADD: return x + y;
+            case SUBTRACT: return x - y;
+            case MULTIPLY: return x * y;
+            case DIVIDE:
+                if (y == 0) throw new RuntimeException("Division by zero");
+                return x / y;
+            default: return x % y;
+        }
+    }
+
+    DoubleArray negate() {
+        DoubleArray out = allocate(length);
+        if (VECTORIZED) {
+            VectorKernels.negate(this, out);
+        } else {
+            for (int i = 0; i < length; i++) {
+                out.set(i, -get(i));
+            }
+        }
+        return out;
+    }
+
+    double sum() {
+        if (VECTORIZED) return VectorKernels.sum(this);
+        double sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += get(i);
+        }
+        return sum;
+    }
+
+    double min() {
+        if (length == 0) throw new RuntimeException("min of an empty array");
+        if (VECTORIZED) return VectorKernels.min(this);
+        double min = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < length; i++) {
+            min = Math.min(min, get(i));
+        }
+        return min;
+    }
+
+    double max() {
+        if (length == 0) throw new RuntimeException("max of an empty array");
+        if (VECTORIZED) return VectorKernels.max(this);
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < length; i++) {
+            max = Math.max(max, get(i));
+        }
+        return max;
+    }
+
+    double dot(DoubleArray other) {
+        if (length != other.length) {
+            throw new RuntimeException("Array lengths differ: " + length + " and " + other.length);
+        }
+        if (VECTORIZED) return VectorKernels.dot(this, other);
+        double sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += get(i) * other.get(i);
+        }
+        return sum;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("[");
+        for (int i = 0; i < length; i++) {
+            if (i > 0) text.append(", ");
+            text.append(get(i));
+        }
+        return text.append(']').toString();
+    }
+}
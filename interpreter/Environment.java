@@ -1,40 +1,304 @@
 package interpreter;
 
-import java.util.*;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Runtime storage for variables. Frames are plain arrays indexed by the slots the
+ * {@link Resolver} assigned, kept in a display indexed by nesting level so that a
+ * (depth, slot) address is a single array access. Frames are reused between block
+ * entries; a {@code null} slot means the variable has not been assigned yet.
+ *
+ * <p>Each frame has a parallel {@code double[]} so numbers written through
+ * {@link #setDouble} are stored unboxed; the object slot then holds {@link #NUMBER}.
+ * {@link #get} boxes such values on demand.
+ *
+ * <p>A function call enters a new level like a block, but its variables are addressed
+ * from the call's frame only (see {@link Function}).
+ */
 public class Environment {
-    private final Deque<Map<String, Object>> scopes = new ArrayDeque<>();
+    // Also tags the registers of the VirtualMachine that hold numbers.
+    static final Object NUMBER = new Object();
+    private static final Object[] NO_CACHE = {};
 
-    public Environment() {
-        scopes.push(new HashMap<>());
+    private Object[][] frames = new Object[8][];
+    private double[][] numbers = new double[8][];
+    private int level = 0;
+    private int jitThreshold = 0;
+    private final OutputSink output;
+    // Values of CachedExpr slots; null until computed and after being cleared.
+    private Object[] cache = NO_CACHE;
+
+    private FunctionTable functions = new FunctionTable();
+    // Arguments pushed for the call being set up; nested calls push above them.
+    private Object[] arguments = new Object[16];
+    private int argumentCount;
+    // Function calls in progress, with the level each was called from. Each has its own cache
+    // slots, so that a loop in a recursive call does not overwrite what the same loop cached
+    // in its caller.
+    private int calls;
+    private Function[] callees = new Function[8];
+    private int[] callers = new int[8];
+    private Object[][] caches = new Object[8][];
+    // Value of the return statement being unwound, see takeResult().
+    private Object result;
+
+    // Iterations between clock and budget checks when metering, see tick().
+    private static final long CHECK_INTERVAL = 1 << 14;
+    // Iterations left before the next check; Long.MAX_VALUE when not metering.
+    private long fuel = Long.MAX_VALUE;
+    // Budget not yet handed to fuel, the whole budget, and the deadline if timed.
+    private long reserve;
+    private long budget;
+    private boolean timed;
+    private long deadline;
+    // Checked with the clock; set from another thread to stop this environment's loops.
+    private AtomicBoolean cancelled;
+
+    /** An environment that prints straight to {@code System.out}, unbuffered. */
+    public Environment(int globals) {
+        this(globals, value -> System.out.println(value));
     }
 
-    public void enterScope() {
-        scopes.push(new HashMap<>());
+    public Environment(int globals, OutputSink output) {
+        frames[0] = new Object[globals];
+        numbers[0] = new double[globals];
+        this.output = output;
     }
 
-    public void exitScope() {
-        scopes.pop();
+    public OutputSink output() {
+        return output;
+    }
+
+    /** Functions declared so far; fresh for each environment unless shared with {@link #setFunctions}. */
+    FunctionTable functions() {
+        return functions;
+    }
+
+    void setFunctions(FunctionTable functions) {
+        this.functions = functions;
+    }
+
+    /** Loop iterations before a loop is compiled to JVM bytecode; 0 disables compilation. */
+    int jitThreshold() {
+        return jitThreshold;
     }
 
-    public void set(String name, Object value) {
-        for (Map<String, Object> scope : scopes) {
-            if (scope.containsKey(name)) {
-                scope.put(name, value);
-                return;
-            }
+    void setJitThreshold(int jitThreshold) {
+        this.jitThreshold = jitThreshold;
+    }
+
+    /** Applies {@code limits} to whatever runs in this environment from now on. */
+    public void setLimits(ExecutionLimits limits) {
+        boolean timed = limits.timeLimit() != null;
+        meter(limits.fuel(), timed, timed ? limits.deadline() : 0);
+    }
+
+    /** Makes loops throw {@link CancellationException} once {@code cancelled} is set, checked as often as the clock. */
+    void cancelWhen(AtomicBoolean cancelled) {
+        this.cancelled = cancelled;
+        if (fuel == Long.MAX_VALUE) meter(Long.MAX_VALUE, false, 0);
+    }
+
+    /** Allows {@code budget} more loop iterations and calls, and none after {@code deadline} if timed. */
+    void meter(long budget, boolean timed, long deadline) {
+        this.budget = budget;
+        this.timed = timed;
+        this.deadline = deadline;
+        if (budget == Long.MAX_VALUE && !timed && cancelled == null) {
+            fuel = Long.MAX_VALUE;
+            return;
         }
-        scopes.peek().put(name, value); // Default to current scope
+        fuel = Math.min(CHECK_INTERVAL, budget);
+        reserve = budget - fuel;
+    }
+
+    /** Loop iterations and calls this environment may still run; {@link Long#MAX_VALUE} if unlimited. */
+    long fuelLeft() {
+        if (fuel == Long.MAX_VALUE) return Long.MAX_VALUE;
+        return reserve + Math.max(fuel, 0);
     }
 
-    public Object get(String name) {
-        for (Map<String, Object> scope : scopes) {
-            if (scope.containsKey(name)) {
-                return scope.get(name);
-            }
+    /** Counts one loop iteration or call. Only every few thousandth call does more than a decrement. */
+    void tick() {
+        if (--fuel < 0) refuel();
+    }
+
+    private void refuel() {
+        if (cancelled != null && cancelled.get()) {
+            fuel = 0;
+            throw new CancellationException();
+        }
+        if (timed && System.nanoTime() - deadline >= 0) {
+            fuel = 0;
+            throw new ExecutionLimitException(ExecutionLimitException.Limit.TIME, "Time limit exceeded");
+        }
+        if (reserve == 0) {
+            fuel = 0;
+            throw new ExecutionLimitException(ExecutionLimitException.Limit.FUEL,
+                    "Out of fuel after " + budget + " loop iterations and calls");
         }
-        throw new RuntimeException("Undefined variable: " + name);
+        long next = Math.min(CHECK_INTERVAL, reserve);
+        reserve -= next;
+        fuel = next - 1;
+    }
+
+    Object cached(int slot) {
+        return slot < cache.length ? cache[slot] : null;
+    }
+
+    void cache(int slot, Object value) {
+        if (slot >= cache.length) {
+            cache = Arrays.copyOf(cache, Math.max(slot + 1, cache.length * 2));
+        }
+        cache[slot] = value;
     }
-}
 
+    void uncache(int[] slots) {
+        for (int slot : slots) {
+            if (slot < cache.length) cache[slot] = null;
+        }
+    }
+
+    /** Pushes an argument for the next {@link #enterCall}. */
+    void push(Object value) {
+        if (argumentCount == arguments.length) {
+            arguments = Arrays.copyOf(arguments, argumentCount * 2);
+        }
+        arguments[argumentCount++] = value;
+    }
 
+    /**
+     * Starts a call of {@code function}: counts it like a loop iteration, gives it cache
+     * slots of its own and a cleared frame of {@code size} slots that starts with the
+     * arguments pushed for it.
+     */
+    void enterCall(Function function, int size) {
+        tick();
+        caches[calls] = cache;
+        calls++;
+        if (calls == callees.length) {
+            callees = Arrays.copyOf(callees, calls * 2);
+            callers = Arrays.copyOf(callers, calls * 2);
+            caches = Arrays.copyOf(caches, calls * 2);
+        }
+        callees[calls] = function;
+        callers[calls] = level;
+        cache = caches[calls] != null ? caches[calls] : NO_CACHE;
+        enterScope(size);
+        popArguments(frames[level], function.arity());
+    }
+
+    /**
+     * Starts the running function over for a tail call of itself: clears the first
+     * {@code size} slots of its frame and moves the pushed arguments in.
+     */
+    void restartCall(int size) {
+        tick();
+        level = callers[calls] + 1;
+        Arrays.fill(frames[level], 0, size, null);
+        popArguments(frames[level], callees[calls].arity());
+    }
+
+    /** Returns to the caller, whatever scopes of the call are still open. */
+    void exitCall() {
+        level = callers[calls];
+        callees[calls] = null;
+        caches[calls] = cache;
+        calls--;
+        cache = caches[calls];
+    }
+
+    /** The frame of the innermost scope or call. */
+    Object[] frame() {
+        return frames[level];
+    }
+
+    /** The unboxed numbers of {@link #frame}. */
+    double[] numbers() {
+        return numbers[level];
+    }
+
+    /** Moves the last {@code count} pushed arguments to the start of {@code frame}. */
+    private void popArguments(Object[] frame, int count) {
+        argumentCount -= count;
+        System.arraycopy(arguments, argumentCount, frame, 0, count);
+        Arrays.fill(arguments, argumentCount, argumentCount + count, null);
+    }
+
+    /** The function whose call is running, or null at the top level. */
+    Function callee() {
+        return callees[calls];
+    }
+
+    void setResult(Object result) {
+        this.result = result;
+    }
+
+    Object takeResult() {
+        Object value = result;
+        result = null;
+        return value;
+    }
+
+    public void enterScope(int size) {
+        level++;
+        if (level == frames.length) {
+            frames = Arrays.copyOf(frames, level * 2);
+            numbers = Arrays.copyOf(numbers, level * 2);
+        }
+        Object[] frame = frames[level];
+        if (frame == null || frame.length < size) {
+            frames[level] = new Object[size];
+            numbers[level] = new double[size];
+        } else {
+            Arrays.fill(frame, 0, size, null);
+        }
+    }
+
+    public void exitScope() {
+        level--;
+    }
+
+    public Object get(int depth, int slot) {
+        int frame = level - depth;
+        Object value = frames[frame][slot];
+        return value == NUMBER ? (Object) numbers[frame][slot] : value;
+    }
+
+    public void set(int depth, int slot, Object value) {
+        frames[level - depth][slot] = value;
+    }
+
+    /**
+     * Reads a number without boxing. Throws with the stored value, which is
+     * {@code null} for an unassigned slot, if the slot does not hold a number.
+     */
+    public double getDouble(int depth, int slot) throws UnexpectedResultException {
+        int frame = level - depth;
+        Object value = frames[frame][slot];
+        if (value == NUMBER) return numbers[frame][slot];
+        if (value instanceof Double) return (Double) value;
+        throw new UnexpectedResultException(value);
+    }
+
+    public void setDouble(int depth, int slot, double value) {
+        int frame = level - depth;
+        frames[frame][slot] = NUMBER;
+        numbers[frame][slot] = value;
+    }
+
+    public Object getGlobal(int slot) {
+        return get(level, slot);
+    }
+
+    public void setGlobal(int slot, Object value) {
+        frames[0][slot] = value;
+    }
+
+    void setGlobalDouble(int slot, double value) {
+        frames[0][slot] = NUMBER;
+        numbers[0][slot] = value;
+    }
+}
@@ -1,13 +1,350 @@
 package interpreter;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 public class Evaluator {
-    private final Environment env = new Environment();
+    public enum Mode {
+        TREE_WALKER,
+        BYTECODE,
+        // The tree compiled once into lambdas, see ClosureCompiler.
+        CLOSURE,
+        // Tree-walker that compiles loops to JVM bytecode once they get hot.
+        TIERED
+    }
+
+    static final int DEFAULT_JIT_THRESHOLD = 10_000;
+
+    // Globals and functions survive between execute() calls so the REPL keeps them.
+    private final Map<String, Object> globals = new HashMap<>();
+    private final FunctionTable functions = new FunctionTable();
+    private Mode mode = Mode.TREE_WALKER;
+    private int jitThreshold = DEFAULT_JIT_THRESHOLD;
+    private boolean optimize = true;
+    private Optimizer.Report optimizationReport;
+    private ProgramCache programCache;
+    private boolean programImages;
+    private boolean parallel;
+    private OutputSink output = OutputSink.stdout();
+    private Profiler profiler;
+    private ExecutionLimits limits = ExecutionLimits.NONE;
+    // What the current execute call has left of its limits; streamed statements share them.
+    private long fuelLeft;
+    private long deadline;
+
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /** Number of iterations after which a loop is compiled in {@link Mode#TIERED}. */
+    public void setJitThreshold(int jitThreshold) {
+        if (jitThreshold <= 0) {
+            throw new IllegalArgumentException("JIT threshold must be positive");
+        }
+        this.jitThreshold = jitThreshold;
+    }
+
+    /** Whether {@link #execute(List)} runs the {@link Optimizer} and {@link LoopOptimizer} first. On by default. */
+    public void setOptimize(boolean optimize) {
+        this.optimize = optimize;
+    }
+
+    public boolean isOptimize() {
+        return optimize;
+    }
+
+    /**
+     * What the optimizer rewrote in the last execute call, or null if it did not run. For a
+     * streamed script it covers every statement, including those before an error.
+     */
+    public Optimizer.Report getOptimizationReport() {
+        return optimizationReport;
+    }
+
+    /** Cache consulted by {@link #execute(String)}; null (the default) parses every time. */
+    public void setProgramCache(ProgramCache programCache) {
+        this.programCache = programCache;
+    }
+
+    public ProgramCache getProgramCache() {
+        return programCache;
+    }
+
+    /**
+     * Whether {@link #executeFile} runs scripts from a {@link ProgramImage} kept next to
+     * them, writing one on the first run. Off by default.
+     */
+    public void setProgramImages(boolean programImages) {
+        this.programImages = programImages;
+    }
+
+    public boolean isProgramImages() {
+        return programImages;
+    }
+
+    /**
+     * Whether independent top-level statements run in parallel, see {@link ParallelExecution}.
+     * Off by default. Output is the same either way, but comes only once the program ends,
+     * and {@link #executeFile} reads the whole script before running it.
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /** Where {@code print} writes; buffered standard output by default. Flushed after every execute call. */
+    public void setOutput(OutputSink output) {
+        this.output = Objects.requireNonNull(output);
+    }
+
+    public OutputSink getOutput() {
+        return output;
+    }
+
+    /**
+     * Profiles every following execution into {@code profiler}, in the tree-walker
+     * whatever the mode; null (the default) turns profiling off.
+     */
+    public void setProfiler(Profiler profiler) {
+        this.profiler = profiler;
+    }
+
+    public Profiler getProfiler() {
+        return profiler;
+    }
+
+    /** Limits that each execute call gets afresh; none by default. */
+    public void setLimits(ExecutionLimits limits) {
+        this.limits = Objects.requireNonNull(limits);
+    }
+
+    public ExecutionLimits getLimits() {
+        return limits;
+    }
+
+    private void startLimits() {
+        fuelLeft = limits.fuel();
+        deadline = limits.timeLimit() != null ? limits.deadline() : 0;
+    }
+
+    /** Lexes, parses and runs {@code source}, reusing the front-end result from the program cache if set. */
+    public void execute(String source) {
+        if (programCache == null) {
+            execute(new Parser(new Lexer(source)).parse());
+            return;
+        }
+        ProgramCache.Entry entry = programCache.lookup(source, optimize);
+        optimizationReport = entry.report();
+        // The entry's report is shared, so loop rewrites are not added to it.
+        execute(entry.statements(), null);
+    }
+
+    /**
+     * Runs a script while reading it: each top-level statement is parsed and executed
+     * before the next one is read, so memory use does not grow with the script and
+     * output starts right away. Statements before a syntax error have already run
+     * when the error is thrown.
+     */
+    public void execute(Reader source) {
+        stream(source, null);
+    }
+
+    /** Runs {@code source} statement by statement, adding what ran to {@code ran} if it is not null. */
+    private void stream(Reader source, List<Stmt> ran) {
+        Parser parser = new Parser(new Lexer(source));
+        // One optimizer for the whole script, so its report covers every statement.
+        Optimizer optimizer = optimize ? new Optimizer() : null;
+        optimizationReport = optimizer != null ? optimizer.report() : null;
+        startLimits();
+        try {
+            for (Stmt stmt = parser.parseStatement(); stmt != null; stmt = parser.parseStatement()) {
+                List<Stmt> statements = optimizer != null ? optimizer.optimize(List.of(stmt)) : List.of(stmt);
+                if (ran != null) ran.addAll(statements);
+                // Left to the sink's own size and time limits, so output is not flushed per statement.
+                run(resolve(statements, optimizationReport));
+            }
+        } finally {
+            output.flush();
+        }
+    }
+
+    /**
+     * Streams a UTF-8 script file through {@link #execute(Reader)}, memory-mapping it. With
+     * program images on, a script whose image is up to date is run from the image as a
+     * single program instead; otherwise it is streamed, and an image of it is written once
+     * it has run to the end.
+     */
+    public void executeFile(Path path) throws IOException {
+        if (!programImages) {
+            try (Reader reader = Lexer.open(path)) {
+                if (parallel) {
+                    execute(new Parser(new Lexer(reader)).parse());
+                } else {
+                    execute(reader);
+                }
+            }
+            return;
+        }
+        byte[] digest = ProgramImage.digest(path);
+        List<Stmt> statements = ProgramImage.read(path, digest, optimize);
+        if (statements != null) {
+            optimizationReport = null;
+            execute(statements, null);
+            return;
+        }
+        statements = new ArrayList<>();
+        try (Reader reader = Lexer.open(path)) {
+            stream(reader, statements);
+        }
+        ProgramImage.write(path, digest, optimize, statements);
+    }
 
     public void execute(List<Stmt> statements) {
-        for (Stmt stmt : statements) {
-            stmt.execute(env);
+        execute(optimize(statements), optimizationReport);
+    }
+
+    /**
+     * Runs statements that have been through the Optimizer if it is on as one program. A
+     * type error is thrown where streaming them would throw it: once the top-level
+     * statements before the one it is in have run.
+     */
+    private void execute(List<Stmt> statements, Optimizer.Report report) {
+        Program program;
+        try {
+            program = resolve(statements, report);
+        } catch (TypeChecker.TypeError e) {
+            execute(optimizeLoops(e.checked(), report));
+            throw e;
+        }
+        execute(program);
+    }
+
+    private List<Stmt> optimize(List<Stmt> statements) {
+        optimizationReport = null;
+        if (!optimize) {
+            return statements;
+        }
+        Optimizer optimizer = new Optimizer();
+        statements = optimizer.optimize(statements);
+        optimizationReport = optimizer.report();
+        return statements;
+    }
+
+    /**
+     * Resolves and type-checks statements that have already been through the Optimizer if
+     * it is on, then optimizes their loops, recording into {@code report} unless it is null.
+     * Type errors are thrown from here, before anything runs.
+     */
+    private Program resolve(List<Stmt> statements, Optimizer.Report report) {
+        return optimizeLoops(new TypeChecker(globals).check(new Resolver(globals.keySet()).resolve(statements)), report);
+    }
+
+    private Program optimizeLoops(Program program, Optimizer.Report report) {
+        if (!optimize) {
+            return program;
+        }
+        return (report != null ? new LoopOptimizer(report) : new LoopOptimizer()).optimize(program);
+    }
+
+    public void execute(Program program) {
+        startLimits();
+        try {
+            run(program);
+        } finally {
+            output.flush();
+        }
+    }
+
+    private void run(Program program) {
+        Mode runMode = mode;
+        if (profiler != null) {
+            program = profiler.instrument(program);
+            runMode = Mode.TREE_WALKER;
+        }
+        if (parallel && profiler == null && runParallel(program, runMode)) {
+            return;
+        }
+        runSequential(program, runMode);
+    }
+
+    private void runSequential(Program program, Mode runMode) {
+        Environment env = newEnvironment(program, output, runMode);
+        try {
+            run(program, env, runMode);
+        } finally {
+            fuelLeft = env.fuelLeft();
+            for (int i = 0; i < program.globalCount(); i++) {
+                Object value = env.getGlobal(i);
+                if (value != null) globals.put(program.globalName(i), value);
+            }
+        }
+    }
+
+    /** Runs {@code program} segment by segment if any part of it is worth running in parallel. */
+    private boolean runParallel(Program program, Mode runMode) {
+        List<ParallelExecution> segments = ParallelExecution.plan(program);
+        if (segments == null) {
+            return false;
+        }
+        for (ParallelExecution segment : segments) {
+            if (!segment.isParallel() || !runParallel(segment, runMode)) {
+                runSequential(segment.program(), runMode);
+            }
+        }
+        return true;
+    }
+
+    /** Runs one segment in parallel; false, with nothing changed, if it must be run sequentially. */
+    private boolean runParallel(ParallelExecution segment, Mode runMode) {
+        Program program = segment.program();
+        if (!segment.run(sink -> newEnvironment(program, sink, runMode), runMode)) {
+            return false;
+        }
+        long used = segment.fuelUsed(fuelLeft);
+        if (used > fuelLeft) {
+            return false;
+        }
+        if (fuelLeft != Long.MAX_VALUE) fuelLeft -= used;
+        segment.commit(output, globals);
+        return true;
+    }
+
+    private Environment newEnvironment(Program program, OutputSink sink, Mode runMode) {
+        Environment env = new Environment(program.globalCount(), sink);
+        env.setFunctions(functions);
+        if (runMode == Mode.TIERED) {
+            env.setJitThreshold(jitThreshold);
+        }
+        env.meter(fuelLeft, limits.timeLimit() != null, deadline);
+        for (int i = 0; i < program.globalCount(); i++) {
+            env.setGlobal(i, globals.get(program.globalName(i)));
+        }
+        return env;
+    }
+
+    /** Runs {@code program} against {@code env}; the only state it touches is the environment. */
+    static void run(Program program, Environment env, Mode mode) {
+        if (mode == Mode.BYTECODE) {
+            VirtualMachine.run(program.chunk(), env);
+        } else if (mode == Mode.CLOSURE) {
+            program.closure().run(env);
+        } else {
+            for (Stmt stmt : program.statements()) {
+                stmt.execute(env);
+            }
         }
     }
 }
@@ -0,0 +1,20 @@
+package interpreter;
+
+/** Thrown when an execution runs out of fuel or time, see {@link ExecutionLimits}. */
+public class ExecutionLimitException extends RuntimeException {
+    public enum Limit {
+        FUEL,
+        TIME
+    }
+
+    private final Limit limit;
+
+    public ExecutionLimitException(Limit limit, String message) {
+        super(message);
+        this.limit = limit;
+    }
+
+    public Limit limit() {
+        return limit;
+    }
+}
@@ -0,0 +1,62 @@
+package interpreter;
+
+import java.time.Duration;
+
+/**
+ * Bounds on one execution: fuel, counted in loop iterations and function calls, and
+ * wall-clock time. Loops and calls are the only ways a script can run longer than it is
+ * long, so together they bound the work of any script, and every mode counts them the
+ * same way. Going over
+ * either limit aborts the execution with an {@link ExecutionLimitException}.
+ *
+ * <p>The clock is only read every few thousand iterations, so an execution can run a
+ * little past its time limit.
+ */
+public final class ExecutionLimits {
+    public static final ExecutionLimits NONE = new ExecutionLimits(Long.MAX_VALUE, null);
+
+    private final long fuel;
+    private final Duration timeLimit;
+
+    private ExecutionLimits(long fuel, Duration timeLimit) {
+        this.fuel = fuel;
+        this.timeLimit = timeLimit;
+    }
+
+    /** These limits with at most {@code fuel} loop iterations and calls. */
+    public ExecutionLimits withFuel(long fuel) {
+        if (fuel < 0) {
+            throw new IllegalArgumentException("Fuel must not be negative");
+        }
+        return new ExecutionLimits(fuel, timeLimit);
+    }
+
+    /** These limits with a wall-clock limit; null removes it. */
+    public ExecutionLimits withTimeLimit(Duration timeLimit) {
+        if (timeLimit != null && timeLimit.isNegative()) {
+            throw new IllegalArgumentException("Time limit must not be negative");
+        }
+        return new ExecutionLimits(fuel, timeLimit);
+    }
+
+    /** Loop iterations and calls allowed; {@link Long#MAX_VALUE} if unlimited. */
+    public long fuel() {
+        return fuel;
+    }
+
+    /** The wall-clock limit, or null if there is none. */
+    public Duration timeLimit() {
+        return timeLimit;
+    }
+
+    /** The deadline for an execution starting now, in {@link System#nanoTime()} terms. */
+    long deadline() {
+        return System.nanoTime() + Math.min(timeLimit.toNanos(), Long.MAX_VALUE / 2);
+    }
+
+    @Override
+    public String toString() {
+        return "ExecutionLimits[fuel=" + (fuel == Long.MAX_VALUE ? "unlimited" : fuel)
+                + ", timeLimit=" + (timeLimit == null ? "none" : timeLimit.toMillis() + " ms") + "]";
+    }
+}
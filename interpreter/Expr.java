@@ -2,4 +2,24 @@ package interpreter;
 
 public interface Expr {
     Object eval(Environment env);
+
+    /** Evaluates to an unboxed number, or throws with the value if it is not one. */
+    default double evalDouble(Environment env) throws UnexpectedResultException {
+        return asDouble(eval(env));
+    }
+
+    /** Evaluates to an unboxed boolean, or throws with the value if it is not one. */
+    default boolean evalBoolean(Environment env) throws UnexpectedResultException {
+        return asBoolean(eval(env));
+    }
+
+    static double asDouble(Object value) throws UnexpectedResultException {
+        if (value instanceof Double) return (Double) value;
+        throw new UnexpectedResultException(value);
+    }
+
+    static boolean asBoolean(Object value) throws UnexpectedResultException {
+        if (value instanceof Boolean) return (Boolean) value;
+        throw new UnexpectedResultException(value);
+    }
 }
@@ -1,14 +1,23 @@
 package interpreter;
 
-public class ExprStmt implements Stmt {
+public class ExprStmt extends Node implements Stmt {
     private final Expr expr;
 
     public ExprStmt(Expr expr) {
         this.expr = expr;
     }
 
+    Expr expr() {
+        return expr;
+    }
+
     @Override
     public void execute(Environment env) {
-        expr.eval(env);
+        // A call made for its effects may return nothing.
+        if (expr instanceof InvokeExpr call) {
+            call.call(env);
+        } else {
+            expr.eval(env);
+        }
     }
 }
@@ -0,0 +1,51 @@
+package interpreter;
+
+import java.util.List;
+
+/** {@code fun name(params) { body }}: declares a {@link Function}, replacing any of the same name. */
+public class FunStmt extends Node implements Stmt {
+    private final String name;
+    private final List<String> params;
+    private final List<Stmt> body;
+    private final Function function;
+
+    public FunStmt(String name, List<String> params, List<Stmt> body) {
+        this(name, params, body, -1);
+    }
+
+    FunStmt(String name, List<String> params, List<Stmt> body, int slots) {
+        this.name = name;
+        this.params = params;
+        this.body = body;
+        this.function = slots >= 0 ? new Function(name, params.size(), slots, body) : null;
+    }
+
+    String name() {
+        return name;
+    }
+
+    List<String> params() {
+        return params;
+    }
+
+    List<Stmt> body() {
+        return body;
+    }
+
+    /** Frame size of the function; -1 until resolved. */
+    int slots() {
+        return function != null ? function.slots() : -1;
+    }
+
+    Function function() {
+        return function;
+    }
+
+    @Override
+    public void execute(Environment env) {
+        if (function == null) {
+            throw new IllegalStateException("Unresolved function: " + name);
+        }
+        env.functions().define(function);
+    }
+}
@@ -0,0 +1,100 @@
+package interpreter;
+
+import java.util.List;
+
+/**
+ * A function declared by a {@link FunStmt}. Its parameters and local variables live in
+ * one frame, parameters first; a function sees neither globals nor the variables of its
+ * caller. Frames come from the {@link Environment}'s frame stack, which keeps the arrays
+ * of finished calls for the next call at the same depth.
+ *
+ * <p>A {@code return} of a call to the running function does not nest a new call: the
+ * arguments replace the parameters in the same frame and the body starts over, so
+ * self tail recursion runs in constant stack.
+ */
+final class Function {
+    private final String name;
+    private final int arity;
+    private final int slots;
+    private final List<Stmt> body;
+    private volatile Chunk chunk;
+    private volatile ClosureCompiler.Code closure;
+
+    Function(String name, int arity, int slots, List<Stmt> body) {
+        this.name = name;
+        this.arity = arity;
+        this.slots = slots;
+        this.body = body;
+    }
+
+    String name() {
+        return name;
+    }
+
+    int arity() {
+        return arity;
+    }
+
+    /** Size of the frame: parameters, then the function's own variables. */
+    int slots() {
+        return slots;
+    }
+
+    List<Stmt> body() {
+        return body;
+    }
+
+    /**
+     * Runs the function on the arguments the caller pushed with {@link Environment#push}.
+     * Returns its value, or null if it ended without returning one.
+     */
+    Object invoke(Environment env) {
+        env.enterCall(this, slots);
+        try {
+            while (true) {
+                try {
+                    for (Stmt stmt : body) {
+                        stmt.execute(env);
+                    }
+                    return null;
+                } catch (ReturnStmt.Signal signal) {
+                    if (signal != ReturnStmt.Signal.TAIL_CALL) return env.takeResult();
+                    env.restartCall(slots);
+                }
+            }
+        } catch (StackOverflowError e) {
+            throw stackOverflow();
+        } finally {
+            env.exitCall();
+        }
+    }
+
+    static RuntimeException stackOverflow() {
+        return new RuntimeException("Stack overflow: too many nested calls");
+    }
+
+    /** Bytecode for {@link Evaluator.Mode#BYTECODE}, compiled on first use. */
+    Chunk chunk() {
+        Chunk compiled = chunk;
+        if (compiled == null) {
+            compiled = new BytecodeCompiler().compile(this);
+            chunk = compiled;
+        }
+        return compiled;
+    }
+
+    /** Body for {@link Evaluator.Mode#CLOSURE}, compiled on first use. */
+    ClosureCompiler.Code closure() {
+        ClosureCompiler.Code compiled = closure;
+        if (compiled == null) {
+            compiled = new ClosureCompiler().compile(this);
+            closure = compiled;
+        }
+        return compiled;
+    }
+
+    @Override
+    public String toString() {
+        return "<fun " + name + ">";
+    }
+}
@@ -0,0 +1,27 @@
+package interpreter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The functions an {@link Environment} has declared, by name. Each name has one
+ * {@link Binding} for the table's lifetime, so a call site can keep the binding and
+ * only check whether the function in it has changed.
+ */
+final class FunctionTable {
+    private final Map<String, Binding> bindings = new HashMap<>();
+
+    static final class Binding {
+        // Null until a function of this name is declared.
+        Function function;
+    }
+
+    Binding binding(String name) {
+        return bindings.computeIfAbsent(name, n -> new Binding());
+    }
+
+    /** Declares {@code function}, replacing any earlier function of the same name. */
+    void define(Function function) {
+        binding(function.name()).function = function;
+    }
+}
@@ -1,6 +1,6 @@
 package interpreter;
 
-public class IfStmt implements Stmt {
+public class IfStmt extends Node implements Stmt {
     private final Expr condition;
     private final Stmt thenBranch;
     private final Stmt elseBranch;
@@ -11,14 +11,28 @@ public class IfStmt implements Stmt {
         this.elseBranch = elseBranch;
     }
 
+    Expr condition() {
+        return condition;
+    }
+
+    Stmt thenBranch() {
+        return thenBranch;
+    }
+
+    Stmt elseBranch() {
+        return elseBranch;
+    }
+
     @Override
     public void execute(Environment env) {
-        Object cond = condition.eval(env);
-        if (!(cond instanceof Boolean)) {
+        boolean cond;
+        try {
+            cond = condition.evalBoolean(env);
+        } catch (UnexpectedResultException e) {
             throw new RuntimeException("Condition must evaluate to a boolean.");
         }
 
-        if ((Boolean) cond) {
+        if (cond) {
             thenBranch.execute(env);
         } else if (elseBranch != null) {
             elseBranch.execute(env);
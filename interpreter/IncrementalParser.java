@@ -0,0 +1,75 @@
+package interpreter;
+
+import java.util.List;
+
+/**
+ * Front end for input that arrives a line at a time, like the REPL's. Each line is
+ * lexed once when it is fed, and its tokens are kept until they form complete
+ * statements: the input ends with {@code ;} or {@code }} outside any parentheses or
+ * braces, and not inside a string. Only then are the pending tokens parsed, so the
+ * work per line does not grow with the size of the statement being typed or pasted.
+ */
+public final class IncrementalParser {
+    private final Lexer lexer = new Lexer();
+    private final TokenBuffer tokens = new TokenBuffer();
+    // Open parentheses and braces in the pending tokens.
+    private int depth;
+
+    /**
+     * Adds a line of input. Returns the statements it completes, or null if more input
+     * is needed. On a syntax error the pending input is dropped and the error thrown.
+     */
+    public List<Stmt> feed(String line) {
+        try {
+            lexer.append(line);
+            lexer.append("\n");
+            scan();
+            if (depth > 0 || lexer.inToken() || tokens.size() == 0) return null;
+            Token.Kind last = tokens.last();
+            if (last != Token.Kind.SEMICOLON && last != Token.Kind.RIGHT_BRACE) return null;
+            List<Stmt> statements = new Parser(lexer, tokens).parse();
+            // The parser leaves the EOF it stopped at.
+            tokens.discard(tokens.size());
+            return statements;
+        } catch (RuntimeException e) {
+            reset();
+            throw e;
+        }
+    }
+
+    private void scan() {
+        while (true) {
+            lexer.scan(tokens);
+            switch (tokens.last()) {
+                case EOF:
+                    tokens.removeLast();
+                    return;
+                case LEFT_PAREN:
+                case LEFT_BRACE:
+                case LEFT_BRACKET:
+                    depth++;
+                    break;
+                case RIGHT_PAREN:
+                case RIGHT_BRACE:
+                case RIGHT_BRACKET:
+                    // Unbalanced closers are left for the parser to report.
+                    if (depth > 0) depth--;
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /** Whether some input has been fed that does not form complete statements yet. */
+    public boolean hasPending() {
+        return tokens.size() > 0 || lexer.inToken();
+    }
+
+    /** Drops pending input. */
+    public void reset() {
+        tokens.discard(tokens.size());
+        lexer.skip();
+        depth = 0;
+    }
+}
@@ -0,0 +1,36 @@
+package interpreter;
+
+/** {@code array[index]}: one element of a {@link DoubleArray}. */
+public class IndexExpr extends Node implements Expr {
+    private final Expr array;
+    private final Expr index;
+
+    public IndexExpr(Expr array, Expr index) {
+        this.array = array;
+        this.index = index;
+    }
+
+    Expr array() {
+        return array;
+    }
+
+    Expr index() {
+        return index;
+    }
+
+    @Override
+    public Object eval(Environment env) {
+        Object values = array.eval(env);
+        return DoubleArray.index(values, index.eval(env));
+    }
+
+    @Override
+    public double evalDouble(Environment env) {
+        Object values = array.eval(env);
+        try {
+            return DoubleArray.index(values, index.evalDouble(env));
+        } catch (UnexpectedResultException e) {
+            return (Double) DoubleArray.index(values, e.getResult());
+        }
+    }
+}
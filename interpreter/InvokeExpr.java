@@ -0,0 +1,79 @@
+package interpreter;
+
+import java.util.List;
+
+/**
+ * A call of a {@link Function} by name. The arguments are evaluated left to right, then
+ * the callee is looked up.
+ *
+ * <p>Each call site keeps a monomorphic inline cache: the function it called last and
+ * the table binding it came from. While the environment has the same table and the
+ * binding still holds that function, a call skips the lookup and the arity check.
+ */
+public class InvokeExpr extends Node implements Expr {
+    private final String name;
+    private final List<Expr> args;
+    private Link link;
+
+    // Immutable, so that a site shared by programs on several threads never mixes two links.
+    private record Link(FunctionTable table, FunctionTable.Binding binding, Function function) {
+    }
+
+    public InvokeExpr(String name, List<Expr> args) {
+        this.name = name;
+        this.args = args;
+    }
+
+    String name() {
+        return name;
+    }
+
+    List<Expr> args() {
+        return args;
+    }
+
+    /** The function this call runs, checked against the number of arguments. */
+    Function target(Environment env) {
+        Link cached = link;
+        FunctionTable table = env.functions();
+        if (cached != null && cached.table() == table && cached.binding().function == cached.function()) {
+            return cached.function();
+        }
+        FunctionTable.Binding binding = table.binding(name);
+        Function function = binding.function;
+        if (function == null) {
+            throw new RuntimeException("Undefined function: " + name);
+        }
+        if (function.arity() != args.size()) {
+            throw new RuntimeException(name + " takes " + function.arity() + " argument"
+                    + (function.arity() == 1 ? "" : "s") + ", got " + args.size());
+        }
+        link = new Link(table, binding, function);
+        return function;
+    }
+
+    void pushArguments(Environment env) {
+        for (Expr arg : args) {
+            env.push(arg.eval(env));
+        }
+    }
+
+    /** Runs the call; null if the function returned no value. */
+    Object call(Environment env) {
+        pushArguments(env);
+        return target(env).invoke(env);
+    }
+
+    @Override
+    public Object eval(Environment env) {
+        Object value = call(env);
+        if (value == null) {
+            throw noValue(name);
+        }
+        return value;
+    }
+
+    static RuntimeException noValue(String name) {
+        return new RuntimeException(name + " returned no value");
+    }
+}
@@ -0,0 +1,205 @@
+package interpreter;
+
+/**
+ * Static helpers called from loops compiled by {@link LoopCompiler}. The ones on objects
+ * have a number/number fast path small enough for HotSpot to inline, and defer to the
+ * tree-walker's semantics for everything else. The ones on {@code double} and
+ * {@code boolean} are for operands the {@link TypeChecker} has proven.
+ */
+final class JitRuntime {
+    private JitRuntime() {
+    }
+
+    static Object load(Environment env, int depth, int slot) {
+        return env.get(depth, slot);
+    }
+
+    static void store(Environment env, int depth, int slot, Object value) {
+        env.set(depth, slot, value);
+    }
+
+    static double loadDouble(Environment env, int depth, int slot) {
+        try {
+            return env.getDouble(depth, slot);
+        } catch (UnexpectedResultException e) {
+            throw unproven(e.getResult());
+        }
+    }
+
+    static void storeDouble(Environment env, int depth, int slot, double value) {
+        env.setDouble(depth, slot, value);
+    }
+
+    static double unboxNumber(Object value) {
+        if (!(value instanceof Double number)) throw unproven(value);
+        return number;
+    }
+
+    static boolean unboxBoolean(Object value) {
+        if (!(value instanceof Boolean bool)) throw unproven(value);
+        return bool;
+    }
+
+    private static IllegalStateException unproven(Object value) {
+        return new IllegalStateException("Operand of a proven type was " + BinaryExpr.typeName(value));
+    }
+
+    static Object defined(Object value, String name) {
+        if (value == null) {
+            throw new RuntimeException("Undefined variable: " + name);
+        }
+        return value;
+    }
+
+    static Object add(Object l, Object r) {
+        if (l instanceof Double && r instanceof Double) return (Double) l + (Double) r;
+        return BinaryExpr.apply("+", l, r);
+    }
+
+    static Object sub(Object l, Object r) {
+        if (l instanceof Double && r instanceof Double) return (Double) l - (Double) r;
+        return BinaryExpr.apply("-", l, r);
+    }
+
+    static Object mul(Object l, Object r) {
+        if (l instanceof Double && r instanceof Double) return (Double) l * (Double) r;
+        return BinaryExpr.apply("*", l, r);
+    }
+
+    static Object div(Object l, Object r) {
+        if (l instanceof Double && r instanceof Double && (Double) r != 0) return (Double) l / (Double) r;
+        return BinaryExpr.apply("/", l, r);
+    }
+
+    static Object mod(Object l, Object r) {
+        if (l instanceof Double && r instanceof Double) return (Double) l % (Double) r;
+        return BinaryExpr.apply("%", l, r);
+    }
+
+    static Object lt(Object l, Object r) {
+        if (l instanceof Double && r instanceof Double) return (Double) l < (Double) r;
+        return BinaryExpr.apply("<", l, r);
+    }
+
+    static Object gt(Object l, Object r) {
+        if (l instanceof Double && r instanceof Double) return (Double) l > (Double) r;
+        return BinaryExpr.apply(">", l, r);
+    }
+
+    static Object le(Object l, Object r) {
+        if (l instanceof Double && r instanceof Double) return (Double) l <= (Double) r;
+        return BinaryExpr.apply("<=", l, r);
+    }
+
+    static Object ge(Object l, Object r) {
+        if (l instanceof Double && r instanceof Double) return (Double) l >= (Double) r;
+        return BinaryExpr.apply(">=", l, r);
+    }
+
+    static double div(double l, double r) {
+        if (r == 0) throw new RuntimeException("Division by zero");
+        return l / r;
+    }
+
+    static double mod(double l, double r) {
+        return l % r;
+    }
+
+    static boolean lt(double l, double r) {
+        return l < r;
+    }
+
+    static boolean gt(double l, double r) {
+        return l > r;
+    }
+
+    static boolean le(double l, double r) {
+        return l <= r;
+    }
+
+    static boolean ge(double l, double r) {
+        return l >= r;
+    }
+
+    static boolean eq(double l, double r) {
+        return l == r;
+    }
+
+    static boolean ne(double l, double r) {
+        return l != r;
+    }
+
+    static boolean eq(boolean l, boolean r) {
+        return l == r;
+    }
+
+    static boolean ne(boolean l, boolean r) {
+        return l != r;
+    }
+
+    static Object eq(Object l, Object r) {
+        return BinaryExpr.apply("==", l, r);
+    }
+
+    static Object ne(Object l, Object r) {
+        return BinaryExpr.apply("!=", l, r);
+    }
+
+    static Object and(Object l, Object r) {
+        return BinaryExpr.apply("&&", l, r);
+    }
+
+    static Object or(Object l, Object r) {
+        return BinaryExpr.apply("||", l, r);
+    }
+
+    static Object neg(Object value) {
+        return UnaryExpr.apply("-", value);
+    }
+
+    static Object not(Object value) {
+        return UnaryExpr.apply("!", value);
+    }
+
+    static Object index(Object array, Object index) {
+        return DoubleArray.index(array, index);
+    }
+
+    static double index(Object array, double index) {
+        return DoubleArray.index(array, index);
+    }
+
+    static Object call1(Object arg, int builtin) {
+        return Builtin.VALUES[builtin].call(new Object[] { arg });
+    }
+
+    static Object call2(Object first, Object second, int builtin) {
+        return Builtin.VALUES[builtin].call(new Object[] { first, second });
+    }
+
+    /** While-loop test: anything but {@code true} ends the loop. */
+    static boolean isTrue(Object value) {
+        return Boolean.TRUE.equals(value);
+    }
+
+    /** Left operand of {@code &&} that decides the result on its own. */
+    static boolean isFalse(Object value) {
+        return Boolean.FALSE.equals(value);
+    }
+
+    /** If-statement test: the condition has to be a boolean. */
+    static boolean condition(Object value) {
+        if (!(value instanceof Boolean)) {
+            throw new RuntimeException("Condition must evaluate to a boolean.");
+        }
+        return (Boolean) value;
+    }
+
+    static void tick(Environment env) {
+        env.tick();
+    }
+
+    static void print(Environment env, Object value) {
+        env.output().print(value);
+    }
+}
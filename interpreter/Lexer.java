@@ -1,93 +1,392 @@
 package interpreter;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.*;
 
+import interpreter.Token.Kind;
+
+/**
+ * Turns source text into tokens. The {@link Parser} pulls tokens on demand into a
+ * {@link TokenBuffer}, which only records where each token's text is in this lexer's
+ * buffer; {@link #next()} and {@link #tokenize()} build {@link Token} objects instead.
+ * Input read from a {@link Reader} is buffered, and characters are discarded once no
+ * buffered token refers to them.
+ *
+ * <p>Scanning does not allocate: {@link #nextKind()} and scanning into a TokenBuffer
+ * allocate nothing per token, while {@link #next()} allocates the Token it returns.
+ * Numbers and identifiers are interned per lexer when their text is requested, so a
+ * name that occurs again returns the same String.
+ */
 public class Lexer {
-    private final String input;
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader reader;
+    // Input is added with append() and more may follow what is buffered.
+    private final boolean incremental;
+    private char[] buffer;
+    private int limit;
     private int pos = 0;
-    private final List<Token> tokens = new ArrayList<>();
+    // First character of the token being scanned; characters before it can be discarded.
+    private int start = 0;
+    // Tokens whose text must stay in the buffer, if scanning for a parser.
+    private TokenBuffer tokens;
+    // Current line, and the buffer index where it starts (negative once compacted away).
+    private int line = 1;
+    private int lineStart = 0;
+    private int startLine;
+    private int startColumn;
+
+    // Character classes, looked up in a table for ASCII.
+    private static final byte OTHER = 0;
+    private static final byte SPACE = 1;
+    private static final byte DIGIT = 2;
+    private static final byte LETTER = 3;
+    private static final byte QUOTE = 4;
+    private static final byte[] ASCII = new byte[128];
+
+    static {
+        for (char c = 0; c < 128; c++) {
+            if (Character.isWhitespace(c)) ASCII[c] = SPACE;
+            else if (Character.isDigit(c)) ASCII[c] = DIGIT;
+            else if (Character.isLetter(c) || c == '_') ASCII[c] = LETTER;
+        }
+        ASCII['"'] = QUOTE;
+    }
 
-    private static final Set<String> KEYWORDS = Set.of("if", "else", "while", "true", "false", "print");
-    private static final Set<String> OPERATORS = Set.of("+", "-", "*", "/", "%", "==", "!=", "<", ">", "<=", ">=", "&&", "||", "!");
-    private static final Set<String> SYMBOLS = Set.of("=", ";", "(", ")", "{", "}");
+    private static final int MAX_INTERNED = 1 << 16;
+    // Open-addressing table of number, identifier and keyword spellings seen so far.
+    private String[] interned = new String[64];
+    private Kind[] internedKinds = new Kind[64];
+    private int[] internedHashes = new int[64];
+    private int internedCount = 0;
 
     public Lexer(String input) {
-        this.input = input;
+        this(null, input.toCharArray(), input.length(), false);
     }
 
-    public List<Token> tokenize() {
-        while (!isAtEnd()) {
-            char c = peek();
-            if (Character.isWhitespace(c)) {
-                advance();
-            } else if (c == '"') {
-                tokenizeString();
-            } else if (Character.isDigit(c)) {
-                tokenizeNumber();
-            } else if (Character.isLetter(c) || c == '_') {
-                tokenizeIdentifierOrKeyword();
-            } else {
-                tokenizeOperatorOrSymbol();
+    public Lexer(Reader reader) {
+        this(reader, new char[BUFFER_SIZE], 0, false);
+    }
+
+    /** A lexer fed with {@link #append}; the end of the buffered input is EOF until more is appended. */
+    Lexer() {
+        this(null, new char[BUFFER_SIZE], 0, true);
+    }
+
+    private Lexer(Reader reader, char[] buffer, int limit, boolean incremental) {
+        this.reader = reader;
+        this.buffer = buffer;
+        this.limit = limit;
+        this.incremental = incremental;
+        for (Kind kind : Kind.VALUES) {
+            if (kind.type == Token.Type.KEYWORD) {
+                int hash = spread(kind.text.hashCode());
+                insert(-1 - find(kind.text, hash), kind.text, hash, kind);
             }
         }
-        tokens.add(new Token(Token.Type.EOF, ""));
+    }
+
+    /** Opens a UTF-8 file for {@link #Lexer(Reader)}, reading it through a memory-mapped window. */
+    public static Reader open(Path path) throws IOException {
+        return new MappedFileReader(path);
+    }
+
+    public List<Token> tokenize() {
+        List<Token> tokens = new ArrayList<>();
+        Token token;
+        do {
+            token = next();
+            tokens.add(token);
+        } while (token.type != Token.Type.EOF);
         return tokens;
     }
 
-    private void tokenizeString() {
+    /** Returns the next token; at the end of the input, returns EOF every time. */
+    public Token next() {
+        Kind kind = scan();
+        return new Token(kind, text(kind, start, pos - start), startLine, startColumn);
+    }
+
+    /** Scans the next token and returns only its kind, without building a Token. */
+    public Kind nextKind() {
+        return scan();
+    }
+
+    /** Appends the next token to {@code tokens}, keeping its text in the buffer until it is discarded. */
+    void scan(TokenBuffer tokens) {
+        this.tokens = tokens;
+        Kind kind = scan();
+        tokens.add(kind, start, pos - start, startLine, startColumn);
+    }
+
+    /** Adds input to an incremental lexer, discarding characters no buffered token needs. */
+    void append(CharSequence text) {
+        compact();
+        if (buffer.length - limit < text.length()) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, limit + text.length()));
+        }
+        for (int i = 0; i < text.length(); i++) {
+            buffer[limit++] = text.charAt(i);
+        }
+    }
+
+    /** Whether the input ends inside a token, i.e. a string literal that is still open. */
+    boolean inToken() {
+        return pos < limit;
+    }
+
+    /** Drops all buffered input, e.g. after an error. */
+    void skip() {
+        pos = limit;
+        start = limit;
+    }
+
+    /** Returns the text of a token scanned into a {@link TokenBuffer}. */
+    String text(Kind kind, int from, int length) {
+        if (kind.text != null) return kind.text;
+        if (kind == Kind.STRING) return new String(buffer, from + 1, length - 2);
+        int hash = 0;
+        for (int i = from; i < from + length; i++) {
+            hash = 31 * hash + buffer[i];
+        }
+        hash = spread(hash);
+        int index = find(from, length, hash);
+        if (index >= 0) return interned[index];
+        String text = new String(buffer, from, length);
+        insert(-1 - index, text, hash, kind);
+        return text;
+    }
+
+    /** Scans one token, leaving its text in {@code buffer[start, pos)} and its position in startLine and startColumn. */
+    private Kind scan() {
+        while (true) {
+            start = pos;
+            startLine = line;
+            startColumn = pos - lineStart + 1;
+            if (isAtEnd()) {
+                return Kind.EOF;
+            }
+            switch (classify(peek())) {
+                case SPACE:
+                    newline(advance());
+                    break;
+                case QUOTE:
+                    return scanString();
+                case DIGIT:
+                    return scanNumber();
+                case LETTER:
+                    return scanIdentifierOrKeyword();
+                default:
+                    return scanOperatorOrSymbol();
+            }
+        }
+    }
+
+    private Kind scanString() {
         advance(); // Skip opening quote
-        int start = pos;
         while (!isAtEnd() && peek() != '"') {
-            advance();
+            newline(advance());
         }
 
         if (isAtEnd()) {
+            if (incremental) {
+                // Rescan the whole literal once more input is appended.
+                pos = start;
+                line = startLine;
+                lineStart = start - startColumn + 1;
+                return Kind.EOF;
+            }
             throw new RuntimeException("Unterminated string literal");
         }
 
-        String str = input.substring(start, pos); // Extract string contents
         advance(); // Skip closing quote
-        tokens.add(new Token(Token.Type.STRING, str));
+        return Kind.STRING;
     }
 
-    private void tokenizeNumber() {
-        int start = pos;
-        while (!isAtEnd() && (Character.isDigit(peek()) || peek() == '.')) advance();
-        tokens.add(new Token(Token.Type.NUMBER, input.substring(start, pos)));
+    private Kind scanNumber() {
+        while (!isAtEnd() && (classify(peek()) == DIGIT || peek() == '.')) advance();
+        return Kind.NUMBER;
     }
 
-    private void tokenizeIdentifierOrKeyword() {
-        int start = pos;
-        while (!isAtEnd() && (Character.isLetterOrDigit(peek()) || peek() == '_')) advance();
-        String text = input.substring(start, pos);
-        Token.Type type = KEYWORDS.contains(text) ? Token.Type.KEYWORD : Token.Type.IDENTIFIER;
-        tokens.add(new Token(type, text));
+    private Kind scanIdentifierOrKeyword() {
+        int hash = 0;
+        byte kind;
+        while (!isAtEnd() && ((kind = classify(peek())) == LETTER || kind == DIGIT)) {
+            hash = 31 * hash + advance();
+        }
+        // Keywords are always in the table; anything not found is an identifier.
+        int index = find(start, pos - start, spread(hash));
+        return index >= 0 ? internedKinds[index] : Kind.IDENTIFIER;
     }
 
-    private void tokenizeOperatorOrSymbol() {
-        int start = pos;
-        for (int len = 3; len > 0; len--) {
-            if (pos + len <= input.length()) {
-                String text = input.substring(pos, pos + len);
-                if (OPERATORS.contains(text) || SYMBOLS.contains(text)) {
-                    tokens.add(new Token(OPERATORS.contains(text) ? Token.Type.OPERATOR : Token.Type.SYMBOL, text));
-                    pos += len;
-                    return;
-                }
-            }
+    private Kind scanOperatorOrSymbol() {
+        char c = advance();
+        char next = available(1) ? peek() : 0;
+        switch (c) {
+            case '+': return Kind.PLUS;
+            case '-': return Kind.MINUS;
+            case '*': return Kind.STAR;
+            case '/': return Kind.SLASH;
+            case '%': return Kind.PERCENT;
+            case ';': return Kind.SEMICOLON;
+            case '(': return Kind.LEFT_PAREN;
+            case ')': return Kind.RIGHT_PAREN;
+            case '{': return Kind.LEFT_BRACE;
+            case '}': return Kind.RIGHT_BRACE;
+            case '[': return Kind.LEFT_BRACKET;
+            case ']': return Kind.RIGHT_BRACKET;
+            case ',': return Kind.COMMA;
+            case '=': return next == '=' ? two(Kind.EQUAL_EQUAL) : Kind.ASSIGN;
+            case '!': return next == '=' ? two(Kind.BANG_EQUAL) : Kind.BANG;
+            case '<': return next == '=' ? two(Kind.LESS_EQUAL) : Kind.LESS;
+            case '>': return next == '=' ? two(Kind.GREATER_EQUAL) : Kind.GREATER;
+            case '&':
+                if (next == '&') return two(Kind.AND);
+                break;
+            case '|':
+                if (next == '|') return two(Kind.OR);
+                break;
+        }
+        throw new RuntimeException("Unexpected character: " + c);
+    }
+
+    private void newline(char c) {
+        if (c == '\n') {
+            line++;
+            lineStart = pos;
+        }
+    }
+
+    /** Consumes the second character of a two-character operator. */
+    private Kind two(Kind kind) {
+        pos++;
+        return kind;
+    }
+
+    private static byte classify(char c) {
+        if (c < 128) return ASCII[c];
+        if (Character.isWhitespace(c)) return SPACE;
+        if (Character.isDigit(c)) return DIGIT;
+        if (Character.isLetter(c)) return LETTER;
+        return OTHER;
+    }
+
+    // Intern table, probed with String.hashCode of the spelling.
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /** Index of {@code buffer[from, from + length)} in the table, or {@code -1 - index} of the free slot. */
+    private int find(int from, int length, int hash) {
+        int mask = interned.length - 1;
+        int index = hash & mask;
+        for (String text = interned[index]; text != null; text = interned[index]) {
+            if (internedHashes[index] == hash && matches(text, from, length)) return index;
+            index = (index + 1) & mask;
+        }
+        return -1 - index;
+    }
+
+    private int find(String text, int hash) {
+        int mask = interned.length - 1;
+        int index = hash & mask;
+        while (interned[index] != null) {
+            if (interned[index].equals(text)) return index;
+            index = (index + 1) & mask;
+        }
+        return -1 - index;
+    }
+
+    private boolean matches(String text, int from, int length) {
+        if (text.length() != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (text.charAt(i) != buffer[from + i]) return false;
+        }
+        return true;
+    }
+
+    private void insert(int index, String text, int hash, Kind kind) {
+        // Stop growing past MAX_INTERNED so scripts with endless distinct names stay bounded.
+        if (internedCount >= MAX_INTERNED) return;
+        interned[index] = text;
+        internedKinds[index] = kind;
+        internedHashes[index] = hash;
+        if (++internedCount * 2 > interned.length) rehash();
+    }
+
+    private void rehash() {
+        String[] oldTexts = interned;
+        Kind[] oldKinds = internedKinds;
+        int[] oldHashes = internedHashes;
+        interned = new String[oldTexts.length * 2];
+        internedKinds = new Kind[interned.length];
+        internedHashes = new int[interned.length];
+        int mask = interned.length - 1;
+        for (int i = 0; i < oldTexts.length; i++) {
+            if (oldTexts[i] == null) continue;
+            int index = oldHashes[i] & mask;
+            while (interned[index] != null) index = (index + 1) & mask;
+            interned[index] = oldTexts[i];
+            internedKinds[index] = oldKinds[i];
+            internedHashes[index] = oldHashes[i];
         }
-        throw new RuntimeException("Unexpected character: " + advance());
     }
 
+    // Input buffer
+
     private boolean isAtEnd() {
-        return pos >= input.length();
+        return !available(1);
     }
 
     private char peek() {
-        return input.charAt(pos);
+        return buffer[pos];
     }
 
     private char advance() {
-        return input.charAt(pos++);
+        return buffer[pos++];
+    }
+
+    /** Whether {@code count} characters starting at the current position are in the buffer. */
+    private boolean available(int count) {
+        while (pos + count > limit) {
+            if (!fill()) return false;
+        }
+        return true;
+    }
+
+    private boolean fill() {
+        if (reader == null) return false;
+        compact();
+        if (buffer.length - limit < buffer.length / 2) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        try {
+            int read = reader.read(buffer, limit, buffer.length - limit);
+            if (read < 0) return false;
+            limit += read;
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Moves the characters still needed to the start of the buffer. */
+    private void compact() {
+        int keep = start;
+        if (tokens != null && tokens.size() > 0) {
+            keep = Math.min(keep, tokens.start(0));
+        }
+        if (keep > 0) {
+            System.arraycopy(buffer, keep, buffer, 0, limit - keep);
+            pos -= keep;
+            limit -= keep;
+            start -= keep;
+            lineStart -= keep;
+            if (tokens != null) tokens.shift(keep);
+        }
     }
 }
@@ -1,15 +1,29 @@
 package interpreter;
 
-public class LiteralExpr implements Expr {
+public class LiteralExpr extends Node implements Expr {
     private final Object value;
+    private final boolean isNumber;
+    private final double number;
 
     public LiteralExpr(Object value) {
         this.value = value;
+        this.isNumber = value instanceof Double;
+        this.number = isNumber ? (Double) value : 0;
+    }
+
+    Object value() {
+        return value;
     }
 
     @Override
     public Object eval(Environment env) {
         return value;
     }
+
+    @Override
+    public double evalDouble(Environment env) throws UnexpectedResultException {
+        if (isNumber) return number;
+        throw new UnexpectedResultException(value);
+    }
 }
 
@@ -0,0 +1,501 @@
+package interpreter;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.*;
+
+/**
+ * Top tier for hot loops: translates a resolved {@link WhileStmt} into a static JVM
+ * method on a hidden class so that HotSpot can compile and inline the whole loop.
+ *
+ * <p>Every variable the loop touches becomes a JVM local. Variables declared outside
+ * the loop are loaded from the {@link Environment} on entry and stored back when the
+ * loop exits, normally or with an exception; block variables inside the loop only
+ * ever live in locals.
+ *
+ * <p>A variable that always holds a number in the loop gets a {@code double} local: an
+ * outer one the {@link TypeChecker} has proven a number at the head of the loop, or a
+ * block variable first assigned at the top level of its block, as long as every
+ * assignment to it in the loop is proven a number. Operators proven on numbers or
+ * booleans work on {@code double} and {@code int} values, and a proven condition is a
+ * plain branch. Everything else is an object and goes through {@link JitRuntime}, so the
+ * compiled loop behaves exactly like the tree-walker; a number is only boxed where such
+ * an operation needs it.
+ */
+final class LoopCompiler {
+    private static final String RUNTIME = "interpreter/JitRuntime";
+    private static final String ENVIRONMENT = "interpreter/Environment";
+    private static final String OBJECT = "Ljava/lang/Object;";
+    private static final String BINARY = "(" + OBJECT + OBJECT + ")" + OBJECT;
+    private static final MethodType RUN_TYPE = MethodType.methodType(void.class, Environment.class, Object[].class);
+
+    private static final int ENV = 0;
+    private static final int CONSTANTS = 1;
+
+    /** What a value is on the JVM stack or in a local: an object, a double or a boolean int. */
+    private enum Kind { OBJECT, NUMBER, BOOLEAN }
+
+    /** A variable the loop touches. */
+    private static final class Variable {
+        // Depth relative to the loop, for a variable declared outside it.
+        final int outerDepth;
+        final int slot;
+        boolean assigned;
+        // Whether every assignment in the loop is proven a number, and, for a block
+        // variable, whether each block that declares it does so at its top level.
+        boolean numbers = true;
+        boolean declared = true;
+        Kind kind;
+        int local;
+
+        Variable(int outerDepth, int slot) {
+            this.outerDepth = outerDepth;
+            this.slot = slot;
+        }
+
+        boolean isOuter() {
+            return outerDepth >= 0;
+        }
+    }
+
+    private final WhileStmt loop;
+    private final ClassWriter out = new ClassWriter();
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<String, Variable> variables = new LinkedHashMap<>();
+    // Slots assigned so far in each block being scanned, by nesting.
+    private final List<Set<Integer>> assigned = new ArrayList<>();
+    private int nesting = 0;
+
+    private LoopCompiler(WhileStmt loop) {
+        this.loop = loop;
+    }
+
+    /**
+     * Compiles {@code loop} into a handle of type {@code (Environment)void}, or returns
+     * null if the loop uses something this tier does not support.
+     */
+    static MethodHandle compile(WhileStmt loop) {
+        try {
+            return new LoopCompiler(loop).define();
+        } catch (UnsupportedOperationException | IllegalStateException
+                | ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    static void invoke(MethodHandle loop, Environment env) {
+        try {
+            loop.invokeExact(env);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    private MethodHandle define() throws ReflectiveOperationException {
+        // Find every variable and how it is assigned first, so each gets its local up front.
+        scan(loop, false);
+        nesting = 0;
+        int next = CONSTANTS + 1;
+        for (Variable variable : variables.values()) {
+            boolean number = variable.numbers && (variable.isOuter()
+                    ? loop.number(variable.outerDepth, variable.slot) : variable.declared);
+            variable.kind = number ? Kind.NUMBER : Kind.OBJECT;
+            variable.local = next;
+            next += number ? 2 : 1;
+        }
+
+        ClassWriter.Label start = out.newLabel();
+        ClassWriter.Label end = out.newLabel();
+        ClassWriter.Label handler = out.newLabel();
+
+        for (Variable variable : variables.values()) {
+            if (variable.isOuter()) {
+                out.aload(ENV);
+                out.pushInt(variable.outerDepth);
+                out.pushInt(variable.slot);
+                if (variable.kind == Kind.NUMBER) {
+                    out.invokeStatic(RUNTIME, "loadDouble", "(L" + ENVIRONMENT + ";II)D");
+                } else {
+                    out.invokeStatic(RUNTIME, "load", "(L" + ENVIRONMENT + ";II)" + OBJECT);
+                }
+            } else {
+                out.op(variable.kind == Kind.NUMBER ? ClassWriter.DCONST_0 : ClassWriter.ACONST_NULL);
+            }
+            store(variable);
+        }
+
+        out.mark(start);
+        statement(loop);
+        out.mark(end);
+        storeOuter();
+        out.op(ClassWriter.RETURN);
+
+        out.mark(handler);
+        out.stack(1);
+        int exception = next;
+        out.astore(exception);
+        storeOuter();
+        out.aload(exception);
+        out.op(ClassWriter.ATHROW);
+        out.handler(start, end, handler);
+
+        String descriptor = RUN_TYPE.toMethodDescriptorString();
+        byte[] bytes = out.toByteArray("interpreter/CompiledLoop", "run", descriptor);
+        MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+        MethodHandle run = lookup.findStatic(lookup.lookupClass(), "run", RUN_TYPE);
+        return MethodHandles.insertArguments(run, 1, (Object) constants.toArray());
+    }
+
+    private void storeOuter() {
+        for (Variable variable : variables.values()) {
+            if (!variable.isOuter() || !variable.assigned) continue;
+            out.aload(ENV);
+            out.pushInt(variable.outerDepth);
+            out.pushInt(variable.slot);
+            if (variable.kind == Kind.NUMBER) {
+                out.dload(variable.local);
+                out.invokeStatic(RUNTIME, "storeDouble", "(L" + ENVIRONMENT + ";IID)V");
+            } else {
+                out.aload(variable.local);
+                out.invokeStatic(RUNTIME, "store", "(L" + ENVIRONMENT + ";II" + OBJECT + ")V");
+            }
+        }
+    }
+
+    // Pre-pass: find the variables, which outer ones are assigned and which are always numbers.
+
+    /** {@code top} is set for a statement directly in a block, which runs whenever the block does. */
+    private void scan(Stmt stmt, boolean top) {
+        if (stmt instanceof AssignStmt assign) {
+            scan(assign.expr());
+            Variable variable = variable(assign.depth(), assign.slot());
+            // The first assignment in its block declares a block variable.
+            if (!variable.isOuter() && assigned.get(nesting - 1 - assign.depth()).add(assign.slot())
+                    && !(top && assign.depth() == 0)) {
+                variable.declared = false;
+            }
+            variable.assigned = true;
+            if (!assign.number()) variable.numbers = false;
+        } else if (stmt instanceof PrintStmt print) {
+            scan(print.expr());
+        } else if (stmt instanceof ExprStmt exprStmt) {
+            scan(exprStmt.expr());
+        } else if (stmt instanceof BlockStmt block) {
+            nesting++;
+            assigned.add(new HashSet<>());
+            for (Stmt inner : block.statements()) {
+                scan(inner, true);
+            }
+            assigned.remove(nesting - 1);
+            nesting--;
+        } else if (stmt instanceof IfStmt ifStmt) {
+            scan(ifStmt.condition());
+            scan(ifStmt.thenBranch(), false);
+            if (ifStmt.elseBranch() != null) scan(ifStmt.elseBranch(), false);
+        } else if (stmt instanceof WhileStmt whileStmt) {
+            scan(whileStmt.condition());
+            scan(whileStmt.body(), false);
+        } else {
+            throw new UnsupportedOperationException(stmt.getClass().getSimpleName());
+        }
+    }
+
+    private void scan(Expr expr) {
+        if (expr instanceof VariableExpr variable) {
+            variable(variable.depth(), variable.slot());
+        } else if (expr instanceof BinaryExpr binary) {
+            scan(binary.left());
+            scan(binary.right());
+        } else if (expr instanceof UnaryExpr unary) {
+            scan(unary.expr());
+        } else if (expr instanceof CachedExpr cached) {
+            scan(cached.expr());
+        } else if (expr instanceof IndexExpr index) {
+            scan(index.array());
+            scan(index.index());
+        } else if (expr instanceof CallExpr call) {
+            for (Expr arg : call.args()) {
+                scan(arg);
+            }
+        } else if (!(expr instanceof LiteralExpr)) {
+            throw new UnsupportedOperationException(expr.getClass().getSimpleName());
+        }
+    }
+
+    /** The variable at (depth, slot) from the current nesting inside the loop. */
+    private Variable variable(int depth, int slot) {
+        return variables.computeIfAbsent(key(depth, slot),
+                key -> new Variable(depth >= nesting ? depth - nesting : -1, slot));
+    }
+
+    private String key(int depth, int slot) {
+        return depth >= nesting ? "outer " + (depth - nesting) + " " + slot : "block " + (nesting - depth) + " " + slot;
+    }
+
+    // Code generation
+
+    private void statement(Stmt stmt) {
+        if (stmt instanceof AssignStmt assign) {
+            Variable variable = variable(assign.depth(), assign.slot());
+            Kind kind = expression(assign.expr());
+            if (variable.kind == Kind.NUMBER) {
+                unboxNumber(kind);
+            } else {
+                box(kind);
+            }
+            store(variable);
+        } else if (stmt instanceof PrintStmt print) {
+            out.aload(ENV);
+            box(expression(print.expr()));
+            out.invokeStatic(RUNTIME, "print", "(L" + ENVIRONMENT + ";" + OBJECT + ")V");
+        } else if (stmt instanceof ExprStmt exprStmt) {
+            Kind kind = expression(exprStmt.expr());
+            out.op(kind == Kind.NUMBER ? ClassWriter.POP2 : ClassWriter.POP);
+        } else if (stmt instanceof BlockStmt block) {
+            nesting++;
+            for (int slot = 0; slot < block.slots(); slot++) {
+                // A number is assigned before it is read, so only objects are cleared.
+                Variable variable = variables.get(key(0, slot));
+                if (variable != null && variable.kind == Kind.OBJECT) {
+                    out.op(ClassWriter.ACONST_NULL);
+                    store(variable);
+                }
+            }
+            for (Stmt inner : block.statements()) {
+                statement(inner);
+            }
+            nesting--;
+        } else if (stmt instanceof IfStmt ifStmt) {
+            ClassWriter.Label otherwise = out.newLabel();
+            Kind condition = expression(ifStmt.condition());
+            if (condition != Kind.BOOLEAN) {
+                box(condition);
+                out.invokeStatic(RUNTIME, "condition", "(" + OBJECT + ")Z");
+            }
+            out.jump(ClassWriter.IFEQ, otherwise);
+            statement(ifStmt.thenBranch());
+            if (ifStmt.elseBranch() != null) {
+                ClassWriter.Label end = out.newLabel();
+                out.jump(ClassWriter.GOTO, end);
+                out.mark(otherwise);
+                statement(ifStmt.elseBranch());
+                out.mark(end);
+            } else {
+                out.mark(otherwise);
+            }
+        } else if (stmt instanceof WhileStmt whileStmt) {
+            ClassWriter.Label body = out.newLabel();
+            ClassWriter.Label test = out.newLabel();
+            out.jump(ClassWriter.GOTO, test);
+            out.mark(body);
+            out.aload(ENV);
+            out.invokeStatic(RUNTIME, "tick", "(L" + ENVIRONMENT + ";)V");
+            statement(whileStmt.body());
+            out.mark(test);
+            Kind condition = expression(whileStmt.condition());
+            if (condition != Kind.BOOLEAN) {
+                box(condition);
+                out.invokeStatic(RUNTIME, "isTrue", "(" + OBJECT + ")Z");
+            }
+            out.jump(ClassWriter.IFNE, body);
+        } else {
+            throw new UnsupportedOperationException(stmt.getClass().getSimpleName());
+        }
+    }
+
+    private void store(Variable variable) {
+        if (variable.kind == Kind.NUMBER) {
+            out.dstore(variable.local);
+        } else {
+            out.astore(variable.local);
+        }
+    }
+
+    /** What {@link #expression} leaves on the stack for {@code expr}. */
+    private Kind kind(Expr expr) {
+        if (expr instanceof LiteralExpr literal) {
+            if (literal.value() instanceof Double) return Kind.NUMBER;
+            return literal.value() instanceof Boolean ? Kind.BOOLEAN : Kind.OBJECT;
+        }
+        if (expr instanceof VariableExpr variable) {
+            return variable(variable.depth(), variable.slot()).kind;
+        }
+        if (expr instanceof BinaryExpr binary) {
+            if (isShortCircuit(binary)) {
+                boolean booleans = kind(binary.left()) == Kind.BOOLEAN && kind(binary.right()) == Kind.BOOLEAN;
+                return booleans ? Kind.BOOLEAN : Kind.OBJECT;
+            }
+            if (binary.proven() instanceof BinaryExpr.Arithmetic) return Kind.NUMBER;
+            if (binary.proven() instanceof BinaryExpr.Comparison || binary.proven() instanceof BinaryExpr.Logical) {
+                return Kind.BOOLEAN;
+            }
+            return Kind.OBJECT;
+        }
+        if (expr instanceof UnaryExpr unary) {
+            if (unary.proven() == UnaryExpr.Specialization.NEGATE) return Kind.NUMBER;
+            return unary.proven() == UnaryExpr.Specialization.NOT ? Kind.BOOLEAN : Kind.OBJECT;
+        }
+        if (expr instanceof CachedExpr cached) {
+            return kind(cached.expr());
+        }
+        if (expr instanceof IndexExpr index) {
+            return kind(index.index()) == Kind.NUMBER ? Kind.NUMBER : Kind.OBJECT;
+        }
+        return Kind.OBJECT;
+    }
+
+    /** Emits {@code expr} and returns its {@link #kind}. */
+    private Kind expression(Expr expr) {
+        Kind kind = kind(expr);
+        if (expr instanceof LiteralExpr literal) {
+            if (kind == Kind.NUMBER) {
+                out.pushDouble((Double) literal.value());
+            } else if (kind == Kind.BOOLEAN) {
+                out.pushInt((Boolean) literal.value() ? 1 : 0);
+            } else {
+                out.aload(CONSTANTS);
+                out.pushInt(constants.size());
+                out.op(ClassWriter.AALOAD);
+                constants.add(literal.value());
+            }
+        } else if (expr instanceof VariableExpr variable) {
+            Variable local = variable(variable.depth(), variable.slot());
+            if (kind == Kind.NUMBER) {
+                out.dload(local.local);
+            } else {
+                out.aload(local.local);
+                out.pushString(variable.name());
+                out.invokeStatic(RUNTIME, "defined", "(" + OBJECT + "Ljava/lang/String;)" + OBJECT);
+            }
+        } else if (expr instanceof BinaryExpr binary && isShortCircuit(binary)) {
+            // The left value stays on the stack as the result when it decides it.
+            ClassWriter.Label end = out.newLabel();
+            boolean and = binary.operator().equals("&&");
+            if (kind == Kind.BOOLEAN) {
+                expression(binary.left());
+                out.op(ClassWriter.DUP);
+                out.jump(and ? ClassWriter.IFEQ : ClassWriter.IFNE, end);
+                out.op(ClassWriter.POP);
+                expression(binary.right());
+            } else {
+                box(expression(binary.left()));
+                out.op(ClassWriter.DUP);
+                out.invokeStatic(RUNTIME, and ? "isFalse" : "isTrue", "(" + OBJECT + ")Z");
+                out.jump(ClassWriter.IFNE, end);
+                box(expression(binary.right()));
+                out.invokeStatic(RUNTIME, helper(binary.operator()), BINARY);
+            }
+            out.mark(end);
+        } else if (expr instanceof BinaryExpr binary) {
+            if (kind == Kind.OBJECT) {
+                box(expression(binary.left()));
+                box(expression(binary.right()));
+                out.invokeStatic(RUNTIME, helper(binary.operator()), BINARY);
+            } else if (binary.proven() instanceof BinaryExpr.Logical) {
+                unboxBoolean(expression(binary.left()));
+                unboxBoolean(expression(binary.right()));
+                out.invokeStatic(RUNTIME, helper(binary.operator()), "(ZZ)Z");
+            } else {
+                unboxNumber(expression(binary.left()));
+                unboxNumber(expression(binary.right()));
+                switch (binary.operator()) {
+                    case "+": out.op(ClassWriter.DADD); break;
+                    case "-": out.op(ClassWriter.DSUB); break;
+                    case "*": out.op(ClassWriter.DMUL); break;
+                    case "/": case "%":
+                        out.invokeStatic(RUNTIME, helper(binary.operator()), "(DD)D");
+                        break;
+                    default:
+                        out.invokeStatic(RUNTIME, helper(binary.operator()), "(DD)Z");
+                        break;
+                }
+            }
+        } else if (expr instanceof UnaryExpr unary) {
+            if (kind == Kind.NUMBER) {
+                unboxNumber(expression(unary.expr()));
+                out.op(ClassWriter.DNEG);
+            } else if (kind == Kind.BOOLEAN) {
+                unboxBoolean(expression(unary.expr()));
+                out.op(ClassWriter.ICONST_1);
+                out.op(ClassWriter.IXOR);
+            } else {
+                box(expression(unary.expr()));
+                String helper = unary.operator().equals("-") ? "neg" : "not";
+                out.invokeStatic(RUNTIME, helper, "(" + OBJECT + ")" + OBJECT);
+            }
+        } else if (expr instanceof CachedExpr cached) {
+            // HotSpot hoists and shares pure computations itself.
+            expression(cached.expr());
+        } else if (expr instanceof IndexExpr index) {
+            box(expression(index.array()));
+            if (kind == Kind.NUMBER) {
+                expression(index.index());
+                out.invokeStatic(RUNTIME, "index", "(" + OBJECT + "D)D");
+            } else {
+                box(expression(index.index()));
+                out.invokeStatic(RUNTIME, "index", BINARY);
+            }
+        } else if (expr instanceof CallExpr call) {
+            for (Expr arg : call.args()) {
+                box(expression(arg));
+            }
+            out.pushInt(call.function().ordinal());
+            String helper = call.args().size() == 1 ? "call1" : "call2";
+            out.invokeStatic(RUNTIME, helper, "(" + OBJECT.repeat(call.args().size()) + "I)" + OBJECT);
+        } else {
+            throw new UnsupportedOperationException(expr.getClass().getSimpleName());
+        }
+        return kind;
+    }
+
+    /** Turns a value of {@code kind} on the stack into an object. */
+    private void box(Kind kind) {
+        if (kind == Kind.NUMBER) {
+            out.invokeStatic("java/lang/Double", "valueOf", "(D)Ljava/lang/Double;");
+        } else if (kind == Kind.BOOLEAN) {
+            out.invokeStatic("java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;");
+        }
+    }
+
+    /** Turns a value of {@code kind} on the stack, proven a number, into a double. */
+    private void unboxNumber(Kind kind) {
+        if (kind != Kind.NUMBER) {
+            box(kind);
+            out.invokeStatic(RUNTIME, "unboxNumber", "(" + OBJECT + ")D");
+        }
+    }
+
+    /** Turns a value of {@code kind} on the stack, proven a boolean, into an int. */
+    private void unboxBoolean(Kind kind) {
+        if (kind != Kind.BOOLEAN) {
+            box(kind);
+            out.invokeStatic(RUNTIME, "unboxBoolean", "(" + OBJECT + ")Z");
+        }
+    }
+
+    private static boolean isShortCircuit(BinaryExpr binary) {
+        return binary.operator().equals("&&") || binary.operator().equals("||");
+    }
+
+    private static String helper(String operator) {
+        switch (operator) {
+            case "+": return "add";
+            case "-": return "sub";
+            case "*": return "mul";
+            case "/": return "div";
+            case "%": return "mod";
+            case "<": return "lt";
+            case ">": return "gt";
+            case "<=": return "le";
+            case ">=": return "ge";
+            case "==": return "eq";
+            case "!=": return "ne";
+            case "&&": return "and";
+            case "||": return "or";
+        }
+        throw new UnsupportedOperationException("Operator " + operator);
+    }
+}
@@ -0,0 +1,440 @@
+package interpreter;
+
+import java.util.*;
+
+/**
+ * Optional pass over a resolved {@link Program} that stops loops from recomputing
+ * values. It runs after the {@link Resolver}, so that a variable is a storage location
+ * (frame and slot) rather than a name that blocks may shadow.
+ *
+ * <p>An operation in a loop whose variables live outside the loop and are never assigned
+ * in it is loop-invariant. It becomes a {@link CachedExpr} owned by the outermost loop
+ * for which that holds: computed on first use and kept until that loop is entered again.
+ * An operation that is not invariant but occurs more than once in the same loop is
+ * shared instead: its occurrences use one cache slot that every assignment to one of its
+ * variables clears. Values are computed lazily, never moved in front of the loop, so
+ * nothing runs that did not run before and errors are raised at the same point.
+ * Operations that contain a function call are never cached: the call may print.
+ *
+ * <p>Loops in function bodies are optimized the same way. Each call of a function gets
+ * cache slots of its own from the {@link Environment}, so recursion is safe.
+ */
+final class LoopOptimizer {
+    private final Optimizer.Report report;
+    private final Map<WhileStmt, Loop> loops = new IdentityHashMap<>();
+    private final Map<Expr, Candidate> candidates = new IdentityHashMap<>();
+    private final Map<Expr, Slot> chosen = new IdentityHashMap<>();
+    // Operations that contain a function call.
+    private final Set<Expr> calls = Collections.newSetFromMap(new IdentityHashMap<>());
+    // Innermost loop first.
+    private final Deque<Loop> enclosing = new ArrayDeque<>();
+    private int level;
+    private int slots;
+
+    LoopOptimizer() {
+        this(new Optimizer.Report());
+    }
+
+    LoopOptimizer(Optimizer.Report report) {
+        this.report = report;
+    }
+
+    Program optimize(Program program) {
+        for (Stmt stmt : program.statements()) {
+            analyze(stmt);
+        }
+        for (Stmt stmt : program.statements()) {
+            select(stmt);
+        }
+        if (slots == 0) {
+            return program;
+        }
+        List<Stmt> statements = new ArrayList<>(program.statements().size());
+        for (Stmt stmt : program.statements()) {
+            statements.add(rewrite(stmt));
+        }
+        return program.with(statements);
+    }
+
+    private static final class Loop {
+        final WhileStmt node;
+        // Nesting level of the frame the loop runs in; deeper frames belong to its body.
+        final int level;
+        final Set<Long> written = new HashSet<>();
+        final Map<String, Integer> occurrences = new HashMap<>();
+        final Map<String, Slot> slots = new LinkedHashMap<>();
+
+        Loop(WhileStmt node, int level) {
+            this.node = node;
+            this.level = level;
+        }
+    }
+
+    /** An operation inside a loop: a key equal for equal operations on the same locations, and what it reads. */
+    private record Candidate(String key, Set<Long> reads) {
+    }
+
+    private record Slot(int index, Set<Long> reads, boolean shared) {
+    }
+
+    private static long location(int frame, int slot) {
+        return (long) frame << 32 | slot;
+    }
+
+    // Pass 1: what every loop assigns, and the operations inside loops.
+
+    private void analyze(Stmt stmt) {
+        if (stmt instanceof AssignStmt assign) {
+            analyze(assign.expr());
+            long written = location(level - assign.depth(), assign.slot());
+            for (Loop loop : enclosing) {
+                loop.written.add(written);
+            }
+        } else if (stmt instanceof PrintStmt print) {
+            analyze(print.expr());
+        } else if (stmt instanceof ExprStmt exprStmt) {
+            analyze(exprStmt.expr());
+        } else if (stmt instanceof BlockStmt block) {
+            level++;
+            for (Stmt inner : block.statements()) {
+                analyze(inner);
+            }
+            level--;
+        } else if (stmt instanceof IfStmt ifStmt) {
+            analyze(ifStmt.condition());
+            analyze(ifStmt.thenBranch());
+            if (ifStmt.elseBranch() != null) analyze(ifStmt.elseBranch());
+        } else if (stmt instanceof WhileStmt whileStmt) {
+            Loop loop = new Loop(whileStmt, level);
+            loops.put(whileStmt, loop);
+            enclosing.push(loop);
+            analyze(whileStmt.condition());
+            analyze(whileStmt.body());
+            enclosing.pop();
+        } else if (stmt instanceof FunStmt function) {
+            level++;
+            for (Stmt inner : function.body()) {
+                analyze(inner);
+            }
+            level--;
+        } else if (stmt instanceof ReturnStmt returnStmt) {
+            if (returnStmt.value() != null) analyze(returnStmt.value());
+        } else {
+            throw new IllegalArgumentException("Unknown statement: " + stmt.getClass().getSimpleName());
+        }
+    }
+
+    /** Returns the key of {@code expr}, recording it as a candidate if it is an operation in a loop. */
+    private String analyze(Expr expr) {
+        if (expr instanceof LiteralExpr literal) {
+            Object value = literal.value();
+            return value instanceof String ? "\"" + value + "\"" : String.valueOf(value);
+        }
+        if (expr instanceof VariableExpr variable) {
+            return "$" + (level - variable.depth()) + ":" + variable.slot();
+        }
+        String key;
+        Expr[] operands;
+        if (expr instanceof BinaryExpr binary) {
+            key = "(" + analyze(binary.left()) + binary.operator() + analyze(binary.right()) + ")";
+            operands = new Expr[] { binary.left(), binary.right() };
+        } else if (expr instanceof UnaryExpr unary) {
+            key = "(" + unary.operator() + analyze(unary.expr()) + ")";
+            // Not worth a cache lookup when it only negates a leaf.
+            if (isLeaf(unary.expr())) return key;
+            operands = new Expr[] { unary.expr() };
+        } else if (expr instanceof IndexExpr index) {
+            key = "(" + analyze(index.array()) + "[" + analyze(index.index()) + "])";
+            operands = new Expr[] { index.array(), index.index() };
+        } else if (expr instanceof CallExpr call) {
+            operands = call.args().toArray(new Expr[0]);
+            key = call.function().name + "(" + keys(operands) + ")";
+        } else if (expr instanceof ArrayExpr array) {
+            operands = array.elements().toArray(new Expr[0]);
+            key = "[" + keys(operands) + "]";
+        } else if (expr instanceof InvokeExpr call) {
+            operands = call.args().toArray(new Expr[0]);
+            key = call.name() + "(" + keys(operands) + ")";
+            calls.add(expr);
+        } else {
+            throw new IllegalArgumentException("Unknown expression: " + expr.getClass().getSimpleName());
+        }
+        for (Expr operand : operands) {
+            if (calls.contains(operand)) calls.add(expr);
+        }
+        Loop innermost = enclosing.peek();
+        if (innermost != null && !calls.contains(expr)) {
+            Set<Long> reads = new HashSet<>();
+            for (Expr operand : operands) {
+                reads(operand, reads);
+            }
+            // Arrays built from constants are still worth keeping: building one allocates.
+            if (!reads.isEmpty() || expr instanceof CallExpr || expr instanceof ArrayExpr) {
+                candidates.put(expr, new Candidate(key, reads));
+                innermost.occurrences.merge(key, 1, Integer::sum);
+            }
+        }
+        return key;
+    }
+
+    private String keys(Expr[] operands) {
+        StringJoiner keys = new StringJoiner(",");
+        for (Expr operand : operands) {
+            keys.add(analyze(operand));
+        }
+        return keys.toString();
+    }
+
+    private void reads(Expr expr, Set<Long> reads) {
+        Candidate candidate = candidates.get(expr);
+        if (candidate != null) {
+            reads.addAll(candidate.reads());
+        } else if (expr instanceof VariableExpr variable) {
+            reads.add(location(level - variable.depth(), variable.slot()));
+        } else if (expr instanceof BinaryExpr binary) {
+            reads(binary.left(), reads);
+            reads(binary.right(), reads);
+        } else if (expr instanceof UnaryExpr unary) {
+            reads(unary.expr(), reads);
+        } else {
+            for (Expr operand : operands(expr)) {
+                reads(operand, reads);
+            }
+        }
+    }
+
+    /** Operands of the array and call nodes; none for the others. */
+    private static List<Expr> operands(Expr expr) {
+        if (expr instanceof IndexExpr index) return List.of(index.array(), index.index());
+        if (expr instanceof CallExpr call) return call.args();
+        if (expr instanceof InvokeExpr call) return call.args();
+        if (expr instanceof ArrayExpr array) return array.elements();
+        return List.of();
+    }
+
+    private static boolean isLeaf(Expr expr) {
+        return expr instanceof LiteralExpr || expr instanceof VariableExpr;
+    }
+
+    // Pass 2: choose what to cache, largest operations first.
+
+    private void select(Stmt stmt) {
+        if (stmt instanceof AssignStmt assign) {
+            select(assign.expr());
+        } else if (stmt instanceof PrintStmt print) {
+            select(print.expr());
+        } else if (stmt instanceof ExprStmt exprStmt) {
+            select(exprStmt.expr());
+        } else if (stmt instanceof BlockStmt block) {
+            for (Stmt inner : block.statements()) {
+                select(inner);
+            }
+        } else if (stmt instanceof IfStmt ifStmt) {
+            select(ifStmt.condition());
+            select(ifStmt.thenBranch());
+            if (ifStmt.elseBranch() != null) select(ifStmt.elseBranch());
+        } else if (stmt instanceof WhileStmt whileStmt) {
+            enclosing.push(loops.get(whileStmt));
+            select(whileStmt.condition());
+            select(whileStmt.body());
+            enclosing.pop();
+        } else if (stmt instanceof FunStmt function) {
+            for (Stmt inner : function.body()) {
+                select(inner);
+            }
+        } else if (stmt instanceof ReturnStmt returnStmt) {
+            if (returnStmt.value() != null) select(returnStmt.value());
+        }
+    }
+
+    private void select(Expr expr) {
+        Candidate candidate = candidates.get(expr);
+        if (candidate != null) {
+            Loop owner = null;
+            for (Iterator<Loop> outward = enclosing.descendingIterator(); outward.hasNext() && owner == null; ) {
+                Loop loop = outward.next();
+                if (isInvariant(candidate, loop)) owner = loop;
+            }
+            Loop innermost = enclosing.peek();
+            if (owner != null) {
+                chosen.put(expr, slot(owner, candidate, expr, false));
+                return;
+            }
+            if (livesOutside(candidate, innermost) && innermost.occurrences.get(candidate.key()) > 1) {
+                chosen.put(expr, slot(innermost, candidate, expr, true));
+                return;
+            }
+        }
+        if (expr instanceof BinaryExpr binary) {
+            select(binary.left());
+            select(binary.right());
+        } else if (expr instanceof UnaryExpr unary) {
+            select(unary.expr());
+        } else {
+            for (Expr operand : operands(expr)) {
+                select(operand);
+            }
+        }
+    }
+
+    private static boolean isInvariant(Candidate candidate, Loop loop) {
+        return livesOutside(candidate, loop) && Collections.disjoint(candidate.reads(), loop.written);
+    }
+
+    // Block variables of the loop body share frames with other blocks, so only outer ones qualify.
+    private static boolean livesOutside(Candidate candidate, Loop loop) {
+        for (long read : candidate.reads()) {
+            if ((int) (read >>> 32) > loop.level) return false;
+        }
+        return true;
+    }
+
+    private Slot slot(Loop loop, Candidate candidate, Expr expr, boolean shared) {
+        Slot slot = loop.slots.get(candidate.key());
+        if (slot == null) {
+            slot = new Slot(slots++, candidate.reads(), shared);
+            loop.slots.put(candidate.key(), slot);
+            String position = expr instanceof Node node ? node.line() + ":" + node.column() : "?";
+            String where = loop.node.line() + ":" + loop.node.column();
+            if (shared) {
+                report.record(Optimizer.Report.Kind.SHARED, describe(expr) + " at " + position
+                        + " in the loop at " + where);
+            } else {
+                report.record(Optimizer.Report.Kind.HOISTED, describe(expr) + " at " + position
+                        + " out of the loop at " + where);
+            }
+        }
+        return slot;
+    }
+
+    private static String describe(Expr expr) {
+        if (expr instanceof LiteralExpr literal) return String.valueOf(literal.value());
+        if (expr instanceof VariableExpr variable) return variable.name();
+        if (expr instanceof BinaryExpr binary) {
+            return "(" + describe(binary.left()) + " " + binary.operator() + " " + describe(binary.right()) + ")";
+        }
+        if (expr instanceof UnaryExpr unary) return unary.operator() + describe(unary.expr());
+        if (expr instanceof IndexExpr index) return describe(index.array()) + "[" + describe(index.index()) + "]";
+        if (expr instanceof CallExpr call) return call.function().name + "(" + describe(call.args()) + ")";
+        if (expr instanceof ArrayExpr array) return "[" + describe(array.elements()) + "]";
+        if (expr instanceof InvokeExpr call) return call.name() + "(" + describe(call.args()) + ")";
+        return expr.getClass().getSimpleName();
+    }
+
+    private static String describe(List<Expr> exprs) {
+        StringJoiner text = new StringJoiner(", ");
+        for (Expr expr : exprs) {
+            text.add(describe(expr));
+        }
+        return text.toString();
+    }
+
+    // Pass 3: rebuild the tree with the cached operations and the slots to clear.
+
+    private Stmt rewrite(Stmt stmt) {
+        if (stmt instanceof AssignStmt assign) {
+            long written = location(level - assign.depth(), assign.slot());
+            List<Integer> invalidates = new ArrayList<>();
+            for (Loop loop : enclosing) {
+                for (Slot slot : loop.slots.values()) {
+                    if (slot.shared() && slot.reads().contains(written)) invalidates.add(slot.index());
+                }
+            }
+            return Node.at(assign.with(rewrite(assign.expr()), indexes(invalidates)), assign);
+        }
+        if (stmt instanceof PrintStmt print) {
+            return Node.at(new PrintStmt(rewrite(print.expr())), print);
+        }
+        if (stmt instanceof ExprStmt exprStmt) {
+            return Node.at(new ExprStmt(rewrite(exprStmt.expr())), exprStmt);
+        }
+        if (stmt instanceof BlockStmt block) {
+            level++;
+            List<Stmt> body = new ArrayList<>(block.statements().size());
+            for (Stmt inner : block.statements()) {
+                body.add(rewrite(inner));
+            }
+            level--;
+            return Node.at(new BlockStmt(body, block.slots()), block);
+        }
+        if (stmt instanceof IfStmt ifStmt) {
+            Stmt elseBranch = ifStmt.elseBranch() != null ? rewrite(ifStmt.elseBranch()) : null;
+            IfStmt copy = new IfStmt(rewrite(ifStmt.condition()), rewrite(ifStmt.thenBranch()), elseBranch);
+            return Node.at(copy, ifStmt);
+        }
+        if (stmt instanceof WhileStmt whileStmt) {
+            Loop loop = loops.get(whileStmt);
+            // Shared slots of enclosing loops that a compiled run of this loop may invalidate.
+            List<Integer> clobbered = new ArrayList<>();
+            for (Loop outer : enclosing) {
+                for (Slot slot : outer.slots.values()) {
+                    if (slot.shared() && !Collections.disjoint(slot.reads(), loop.written)) {
+                        clobbered.add(slot.index());
+                    }
+                }
+            }
+            List<Integer> cached = new ArrayList<>();
+            for (Slot slot : loop.slots.values()) {
+                cached.add(slot.index());
+            }
+            enclosing.push(loop);
+            Expr condition = rewrite(whileStmt.condition());
+            Stmt body = rewrite(whileStmt.body());
+            enclosing.pop();
+            return Node.at(new WhileStmt(condition, body, indexes(cached), indexes(clobbered),
+                    whileStmt.numbers()), whileStmt);
+        }
+        if (stmt instanceof FunStmt function) {
+            level++;
+            List<Stmt> body = new ArrayList<>(function.body().size());
+            for (Stmt inner : function.body()) {
+                body.add(rewrite(inner));
+            }
+            level--;
+            return Node.at(new FunStmt(function.name(), function.params(), body, function.slots()), function);
+        }
+        if (stmt instanceof ReturnStmt returnStmt) {
+            Expr value = returnStmt.value() != null ? rewrite(returnStmt.value()) : null;
+            return Node.at(new ReturnStmt(value), returnStmt);
+        }
+        throw new IllegalArgumentException("Unknown statement: " + stmt.getClass().getSimpleName());
+    }
+
+    private Expr rewrite(Expr expr) {
+        Expr rewritten = expr;
+        if (expr instanceof BinaryExpr binary) {
+            Expr left = rewrite(binary.left());
+            rewritten = Node.at(binary.with(left, rewrite(binary.right())), binary);
+        } else if (expr instanceof UnaryExpr unary) {
+            rewritten = Node.at(unary.with(rewrite(unary.expr())), unary);
+        } else if (expr instanceof IndexExpr index) {
+            Expr array = rewrite(index.array());
+            rewritten = Node.at(new IndexExpr(array, rewrite(index.index())), index);
+        } else if (expr instanceof CallExpr call) {
+            rewritten = Node.at(new CallExpr(call.function(), rewriteAll(call.args())), call);
+        } else if (expr instanceof ArrayExpr array) {
+            rewritten = Node.at(new ArrayExpr(rewriteAll(array.elements())), array);
+        } else if (expr instanceof InvokeExpr call) {
+            rewritten = Node.at(new InvokeExpr(call.name(), rewriteAll(call.args())), call);
+        }
+        Slot slot = chosen.get(expr);
+        return slot != null ? Node.at(new CachedExpr(rewritten, slot.index()), expr) : rewritten;
+    }
+
+    private List<Expr> rewriteAll(List<Expr> exprs) {
+        List<Expr> rewritten = new ArrayList<>(exprs.size());
+        for (Expr expr : exprs) {
+            rewritten.add(rewrite(expr));
+        }
+        return rewritten;
+    }
+
+    private static int[] indexes(List<Integer> slots) {
+        if (slots.isEmpty()) return WhileStmt.NO_SLOTS;
+        int[] indexes = new int[slots.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = slots.get(i);
+        }
+        return indexes;
+    }
+}
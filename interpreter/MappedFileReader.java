@@ -0,0 +1,71 @@
+package interpreter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a UTF-8 file through a sliding memory-mapped window, so that large scripts can be
+ * lexed without copying them onto the heap. Only the window being decoded is mapped.
+ */
+final class MappedFileReader extends Reader {
+    private static final long WINDOW = 64L << 20;
+
+    private final FileChannel channel;
+    private final long size;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private MappedByteBuffer window;
+    private long windowStart;
+    private boolean flushed;
+
+    MappedFileReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        size = channel.size();
+        map(0);
+    }
+
+    private void map(long position) throws IOException {
+        windowStart = position;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW, size - position));
+    }
+
+    @Override
+    public int read(char[] chars, int offset, int length) throws IOException {
+        if (length == 0) return 0;
+        // The decoder cannot be used again once flushed.
+        if (flushed) return -1;
+        CharBuffer out = CharBuffer.wrap(chars, offset, length);
+        while (true) {
+            boolean last = windowStart + window.limit() == size;
+            CoderResult result = decoder.decode(window, out, last);
+            if (result.isError()) result.throwException();
+            if (out.position() > offset) break;
+            if (last) {
+                if (!flushed) {
+                    flushed = true;
+                    decoder.flush(out);
+                    if (out.position() > offset) break;
+                }
+                return -1;
+            }
+            // Continue from the first byte not decoded, which may start a character cut by the window.
+            map(windowStart + window.position());
+        }
+        return out.position() - offset;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
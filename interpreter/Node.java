@@ -0,0 +1,30 @@
+package interpreter;
+
+/**
+ * Base class of the AST nodes: where the node starts in the source. Positions are
+ * 1-based; 0 means unknown, e.g. for nodes built by hand rather than parsed.
+ */
+abstract class Node {
+    private int line;
+    private int column;
+
+    int line() {
+        return line;
+    }
+
+    int column() {
+        return column;
+    }
+
+    static <T extends Node> T at(T node, int line, int column) {
+        Node target = node;
+        target.line = line;
+        target.column = column;
+        return node;
+    }
+
+    /** Gives {@code node} the position of {@code original}, for passes that rebuild the tree. */
+    static <T extends Node> T at(T node, Object original) {
+        return original instanceof Node source ? at(node, source.line, source.column) : node;
+    }
+}
@@ -0,0 +1,96 @@
+package interpreter;
+
+/**
+ * Instruction set of the {@link VirtualMachine}. Each instruction is one int followed
+ * by its operands, listed next to each opcode. Operands named a, b, src and dst are
+ * register indexes; constants live in registers of their own.
+ */
+final class Opcode {
+    static final int MOVE = 0;             // dst, src
+    static final int ADD = 1;              // dst, a, b
+    static final int SUB = 2;              // dst, a, b
+    static final int MUL = 3;              // dst, a, b
+    static final int DIV = 4;              // dst, a, b
+    static final int MOD = 5;              // dst, a, b
+    static final int EQ = 6;               // dst, a, b
+    static final int NE = 7;               // dst, a, b
+    static final int LT = 8;               // dst, a, b
+    static final int GT = 9;               // dst, a, b
+    static final int LE = 10;              // dst, a, b
+    static final int GE = 11;              // dst, a, b
+    static final int AND = 12;             // dst, a, b
+    static final int OR = 13;              // dst, a, b
+    static final int NEG = 14;             // dst, a
+    static final int NOT = 15;             // dst, a
+    static final int PRINT = 16;           // a
+    static final int JUMP = 17;            // target
+    // JUMP_IF_TRUE and JUMP_IF_<cmp> only close loops; taking one counts an iteration.
+    static final int JUMP_IF_TRUE = 18;    // a, target; any non-true value falls through
+    static final int JUMP_IF_FALSE = 19;   // a, target; a must be a boolean
+    static final int JUMP_IF_LT = 20;      // a, b, target
+    static final int JUMP_IF_GT = 21;      // a, b, target
+    static final int JUMP_IF_LE = 22;      // a, b, target
+    static final int JUMP_IF_GE = 23;      // a, b, target
+    static final int JUMP_UNLESS_LT = 24;  // a, b, target
+    static final int JUMP_UNLESS_GT = 25;  // a, b, target
+    static final int JUMP_UNLESS_LE = 26;  // a, b, target
+    static final int JUMP_UNLESS_GE = 27;  // a, b, target
+    static final int CLEAR = 28;           // first register, count
+    static final int HALT = 29;
+    // Left operand of && and ||: when it decides the result, store it and skip the right operand.
+    static final int JUMP_AND = 30;        // dst, a, target; taken if a is false
+    static final int JUMP_OR = 31;         // dst, a, target; taken if a is true
+    static final int INDEX = 32;           // dst, a, b; a[b]
+    static final int CALL = 33;            // dst, builtin ordinal, first register, count
+    static final int ARRAY = 34;           // dst, first register, count
+    // Function calls: site is a constant holding the InvokeExpr, whose inline cache finds the callee.
+    static final int INVOKE = 35;          // dst, site, first register, count; the call must return a value
+    static final int INVOKE_VOID = 36;     // site, first register, count
+    static final int RETURN = 37;          // a
+    static final int RETURN_CALL = 38;     // site, first register, count; a call of the running function jumps to 0
+    static final int DEFINE = 39;          // a, a constant holding the Function
+    // Arithmetic on operands the TypeChecker has proven numbers: no generic path.
+    static final int ADD_NUMBER = 40;      // dst, a, b
+    static final int SUB_NUMBER = 41;      // dst, a, b
+    static final int MUL_NUMBER = 42;      // dst, a, b
+    static final int DIV_NUMBER = 43;      // dst, a, b
+    static final int MOD_NUMBER = 44;      // dst, a, b
+
+    // Source operator of each operator opcode, used for the generic slow path.
+    static final String[] OPERATORS = {
+        null, "+", "-", "*", "/", "%", "==", "!=", "<", ">", "<=", ">=", "&&", "||", "-", "!",
+        null, null, null, null,
+        "<", ">", "<=", ">=", "<", ">", "<=", ">=",
+    };
+
+    private Opcode() {
+    }
+
+    static int binary(String operator) {
+        for (int op = ADD; op <= OR; op++) {
+            if (OPERATORS[op].equals(operator)) return op;
+        }
+        throw new IllegalArgumentException("Unknown binary operator: " + operator);
+    }
+
+    /** Opcode for an arithmetic operator on proven numbers. */
+    static int number(String operator) {
+        return binary(operator) - ADD + ADD_NUMBER;
+    }
+
+    static int unary(String operator) {
+        switch (operator) {
+            case "-": return NEG;
+            case "!": return NOT;
+        }
+        throw new IllegalArgumentException("Unknown unary operator: " + operator);
+    }
+
+    /** Fused compare-and-branch opcode for a relational operator, or -1 if there is none. */
+    static int jumpIf(String operator, boolean unless) {
+        for (int op = JUMP_IF_LT; op <= JUMP_IF_GE; op++) {
+            if (OPERATORS[op].equals(operator)) return unless ? op + 4 : op;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,270 @@
+package interpreter;
+
+import java.util.*;
+
+/**
+ * Optional pass over the parsed tree, run before the {@link Resolver}. It folds
+ * operators whose operands are literals, removes identity operations, and drops
+ * statements that can never run.
+ *
+ * <p>Every rewrite keeps the tree-walker's behaviour: an operation that would fail at
+ * runtime (division by zero, a type mismatch) is left in place so the error is still
+ * raised when and if it executes, and identities are only removed when the remaining
+ * operand is known to produce a value of the right type.
+ */
+public class Optimizer {
+    private final Report report = new Report();
+
+    public List<Stmt> optimize(List<Stmt> statements) {
+        return optimizeAll(statements);
+    }
+
+    public Report report() {
+        return report;
+    }
+
+    private List<Stmt> optimizeAll(List<Stmt> statements) {
+        List<Stmt> optimized = new ArrayList<>(statements.size());
+        for (Stmt stmt : statements) {
+            Stmt result = optimize(stmt);
+            if (result != null) optimized.add(result);
+        }
+        return optimized;
+    }
+
+    /** Returns the rewritten statement, or null if it can be dropped. */
+    private Stmt optimize(Stmt stmt) {
+        if (stmt instanceof AssignStmt assign) {
+            return Node.at(new AssignStmt(assign.name(), optimize(assign.expr())), assign);
+        }
+        if (stmt instanceof PrintStmt print) {
+            return Node.at(new PrintStmt(optimize(print.expr())), print);
+        }
+        if (stmt instanceof ExprStmt exprStmt) {
+            Expr expr = optimize(exprStmt.expr());
+            if (expr instanceof LiteralExpr) {
+                report.record(Report.Kind.DEAD_CODE, "dropped expression statement " + literal(expr));
+                return null;
+            }
+            return Node.at(new ExprStmt(expr), exprStmt);
+        }
+        if (stmt instanceof BlockStmt block) {
+            return Node.at(new BlockStmt(optimizeAll(block.statements())), block);
+        }
+        if (stmt instanceof IfStmt ifStmt) {
+            Expr condition = optimize(ifStmt.condition());
+            Stmt thenBranch = optimize(ifStmt.thenBranch());
+            Stmt elseBranch = ifStmt.elseBranch() != null ? optimize(ifStmt.elseBranch()) : null;
+            if (condition instanceof LiteralExpr literal && literal.value() instanceof Boolean taken) {
+                String kept = taken ? "kept then branch" : elseBranch != null ? "kept else branch" : "removed";
+                report.record(Report.Kind.DEAD_CODE, "if (" + taken + "): " + kept);
+                return taken ? thenBranch : elseBranch;
+            }
+            return Node.at(new IfStmt(condition, thenBranch != null ? thenBranch : emptyBlock(), elseBranch), ifStmt);
+        }
+        if (stmt instanceof WhileStmt whileStmt) {
+            Expr condition = optimize(whileStmt.condition());
+            // Anything but true ends a loop, so a literal condition other than true never runs it.
+            if (condition instanceof LiteralExpr literal && !Boolean.TRUE.equals(literal.value())) {
+                report.record(Report.Kind.DEAD_CODE, "removed while (" + literal(literal) + ") loop");
+                return null;
+            }
+            Stmt body = optimize(whileStmt.body());
+            return Node.at(new WhileStmt(condition, body != null ? body : emptyBlock()), whileStmt);
+        }
+        if (stmt instanceof FunStmt function) {
+            return Node.at(new FunStmt(function.name(), function.params(), optimizeAll(function.body())), function);
+        }
+        if (stmt instanceof ReturnStmt returnStmt && returnStmt.value() != null) {
+            return Node.at(new ReturnStmt(optimize(returnStmt.value())), returnStmt);
+        }
+        return stmt;
+    }
+
+    private Expr optimize(Expr expr) {
+        if (expr instanceof BinaryExpr binary) {
+            Expr left = optimize(binary.left());
+            Expr right = optimize(binary.right());
+            String operator = binary.operator();
+            if (left instanceof LiteralExpr l && right instanceof LiteralExpr r) {
+                try {
+                    // Literals are shared by every run, so they hold flat Strings.
+                    Object value = ConcatString.flatten(BinaryExpr.apply(operator, l.value(), r.value()));
+                    report.record(Report.Kind.CONSTANT_FOLDED, literal(l) + " " + operator + " "
+                            + literal(r) + " => " + literal(value));
+                    return Node.at(new LiteralExpr(value), binary);
+                } catch (RuntimeException e) {
+                    // Leave it for the runtime to report.
+                }
+            }
+            // false && x and true || x never evaluate x.
+            if (left instanceof LiteralExpr l && l.value() instanceof Boolean decided
+                    && (operator.equals("&&") ? !decided : operator.equals("||") && decided)) {
+                report.record(Report.Kind.CONSTANT_FOLDED, literal(l) + " " + operator + " ... => " + literal(l));
+                return Node.at(new LiteralExpr(decided), binary);
+            }
+            Expr simplified = simplify(left, operator, right);
+            if (simplified != null) {
+                report.record(Report.Kind.SIMPLIFIED, "removed identity operation " + operator);
+                return simplified;
+            }
+            return Node.at(new BinaryExpr(left, operator, right), binary);
+        }
+        if (expr instanceof UnaryExpr unary) {
+            Expr operand = optimize(unary.expr());
+            String operator = unary.operator();
+            if (operand instanceof LiteralExpr literal) {
+                try {
+                    Object value = UnaryExpr.apply(operator, literal.value());
+                    report.record(Report.Kind.CONSTANT_FOLDED, operator + literal(literal) + " => " + literal(value));
+                    return Node.at(new LiteralExpr(value), unary);
+                } catch (RuntimeException e) {
+                    // Leave it for the runtime to report.
+                }
+            }
+            // --x and !!x, when x already has the operator's type.
+            if (operand instanceof UnaryExpr inner && inner.operator().equals(operator)
+                    && (operator.equals("-") ? isNumber(inner.expr()) : isBoolean(inner.expr()))) {
+                report.record(Report.Kind.SIMPLIFIED, "removed double " + operator);
+                return inner.expr();
+            }
+            return Node.at(new UnaryExpr(operator, operand), unary);
+        }
+        if (expr instanceof IndexExpr index) {
+            return Node.at(new IndexExpr(optimize(index.array()), optimize(index.index())), index);
+        }
+        if (expr instanceof CallExpr call) {
+            return Node.at(new CallExpr(call.function(), optimizeExprs(call.args())), call);
+        }
+        if (expr instanceof ArrayExpr array) {
+            return Node.at(new ArrayExpr(optimizeExprs(array.elements())), array);
+        }
+        if (expr instanceof InvokeExpr call) {
+            return Node.at(new InvokeExpr(call.name(), optimizeExprs(call.args())), call);
+        }
+        return expr;
+    }
+
+    private List<Expr> optimizeExprs(List<Expr> exprs) {
+        List<Expr> optimized = new ArrayList<>(exprs.size());
+        for (Expr expr : exprs) {
+            optimized.add(optimize(expr));
+        }
+        return optimized;
+    }
+
+    /**
+     * Identities that hold for every value of the other operand's type. {@code x + 0} is
+     * not one of them: it turns -0 into 0.
+     */
+    private static Expr simplify(Expr left, String operator, Expr right) {
+        switch (operator) {
+            case "-":
+            case "/":
+                if (isNumber(left) && isLiteral(right, operator.equals("-") ? 0.0 : 1.0)) return left;
+                break;
+            case "*":
+                if (isNumber(left) && isLiteral(right, 1.0)) return left;
+                if (isLiteral(left, 1.0) && isNumber(right)) return right;
+                break;
+            case "&&":
+                if (isBoolean(left) && isLiteral(right, true)) return left;
+                if (isLiteral(left, true) && isBoolean(right)) return right;
+                break;
+            case "||":
+                if (isBoolean(left) && isLiteral(right, false)) return left;
+                if (isLiteral(left, false) && isBoolean(right)) return right;
+                break;
+        }
+        return null;
+    }
+
+    private static boolean isLiteral(Expr expr, Object value) {
+        return expr instanceof LiteralExpr literal && value.equals(literal.value());
+    }
+
+    /**
+     * Whether {@code expr} evaluates to a number whenever it does not throw. Arithmetic
+     * also accepts arrays, but the identities used here hold for them element by element.
+     */
+    private static boolean isNumber(Expr expr) {
+        if (expr instanceof LiteralExpr literal) {
+            return literal.value() instanceof Double;
+        }
+        if (expr instanceof BinaryExpr binary) {
+            switch (binary.operator()) {
+                case "-": case "*": case "/": case "%":
+                    return true;
+                case "+":
+                    return isNumber(binary.left()) && isNumber(binary.right());
+            }
+            return false;
+        }
+        return expr instanceof UnaryExpr unary && unary.operator().equals("-");
+    }
+
+    /** Whether {@code expr} evaluates to a boolean whenever it does not throw. */
+    private static boolean isBoolean(Expr expr) {
+        if (expr instanceof LiteralExpr literal) {
+            return literal.value() instanceof Boolean;
+        }
+        if (expr instanceof BinaryExpr binary) {
+            return !binary.operator().equals("+") && !isNumber(binary);
+        }
+        return expr instanceof UnaryExpr unary && unary.operator().equals("!");
+    }
+
+    private static BlockStmt emptyBlock() {
+        return new BlockStmt(new ArrayList<>());
+    }
+
+    private static String literal(Expr expr) {
+        return literal(((LiteralExpr) expr).value());
+    }
+
+    private static String literal(Object value) {
+        return value instanceof String ? "\"" + value + "\"" : String.valueOf(value);
+    }
+
+    /** What the optimizer rewrote, in the order it did so. */
+    public static final class Report {
+        public enum Kind {
+            CONSTANT_FOLDED,
+            SIMPLIFIED,
+            DEAD_CODE,
+            // Recorded by the LoopOptimizer.
+            HOISTED,
+            SHARED
+        }
+
+        private final Map<Kind, Integer> counts = new EnumMap<>(Kind.class);
+        private final List<String> rewrites = new ArrayList<>();
+
+        void record(Kind kind, String description) {
+            counts.merge(kind, 1, Integer::sum);
+            rewrites.add(kind + ": " + description);
+        }
+
+        public int count(Kind kind) {
+            return counts.getOrDefault(kind, 0);
+        }
+
+        public List<String> rewrites() {
+            return Collections.unmodifiableList(rewrites);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder("Optimizer: ")
+                    .append(count(Kind.CONSTANT_FOLDED)).append(" folded, ")
+                    .append(count(Kind.SIMPLIFIED)).append(" simplified, ")
+                    .append(count(Kind.DEAD_CODE)).append(" removed, ")
+                    .append(count(Kind.HOISTED)).append(" hoisted, ")
+                    .append(count(Kind.SHARED)).append(" shared");
+            for (String rewrite : rewrites) {
+                text.append("\n  ").append(rewrite);
+            }
+            return text.toString();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package interpreter;
+
+import java.nio.charset.Charset;
+
+/**
+ * Where {@code print} statements write. Each execution prints through the sink of its
+ * {@link Environment}; sinks that buffer are flushed when the execution ends.
+ */
+public interface OutputSink {
+    /** Drops all output, e.g. for benchmarks. */
+    OutputSink DISCARD = value -> { };
+
+    /** Writes {@code value} followed by a line separator, like {@code println}. */
+    void print(Object value);
+
+    default void flush() {
+    }
+
+    /** A new buffered sink on standard output. */
+    static OutputSink stdout() {
+        String encoding = System.getProperty("stdout.encoding", System.getProperty("sun.stdout.encoding"));
+        Charset charset = encoding != null && Charset.isSupported(encoding) ? Charset.forName(encoding) : Charset.defaultCharset();
+        return new BufferedOutputSink(System.out, charset, BufferedOutputSink.DEFAULT_BUFFER_SIZE,
+                BufferedOutputSink.DEFAULT_FLUSH_INTERVAL_MILLIS);
+    }
+}
@@ -0,0 +1,347 @@
+package interpreter;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Runs the top-level statements of a resolved {@link Program} that do not depend on each
+ * other at the same time, on the common {@link ForkJoinPool}.
+ *
+ * <p>Statements are grouped by the globals they read and write: a statement joins the
+ * group of the statement whose value of a global it may read, and of an earlier writer
+ * of a global it may leave unassigned. A statement that always assigns a global before
+ * reading it starts a new version of that global instead, so reusing a variable such as
+ * a loop counter does not tie unrelated statements together. A statement that would join
+ * two groups with loops, such as one printing both their results, ends a segment instead:
+ * segments run one after the other, and the groups of a segment in parallel. A statement
+ * whose effects are not known, such as a function declaration or call, runs sequentially
+ * between two segments.
+ *
+ * <p>Each group runs in program order in an {@link Environment} of its own, so nothing a
+ * group does is visible until the whole segment has finished. Then what the segment
+ * printed is replayed in program order and each global is taken from the group that
+ * holds its last version. If any group fails, the others are cancelled and none of the
+ * segment's effects are kept: the caller runs the segment again sequentially, which
+ * reports the error (or limit) at the same point and with the same output as if it had
+ * never run in parallel.
+ */
+final class ParallelExecution {
+    private final Program program;
+    // Statement indexes of each task, or null to run the segment sequentially.
+    private final int[][] tasks;
+    // Global slot -> task whose environment holds its final value, or -1 if none assigns it.
+    private final int[] owners;
+    private final List<List<Object>> printed;
+    private Environment[] environments;
+
+    private ParallelExecution(Program program, int[][] tasks, int[] owners) {
+        this.program = program;
+        this.tasks = tasks;
+        this.owners = owners;
+        this.printed = new ArrayList<>(tasks != null ? program.statements().size() : 0);
+        for (int i = 0; tasks != null && i < program.statements().size(); i++) {
+            printed.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * Splits {@code program} into segments to run in order, or returns null if no part of
+     * it is worth running in parallel: no segment has two independent groups with loops,
+     * or the pool has a single thread.
+     */
+    static List<ParallelExecution> plan(Program program) {
+        if (ForkJoinPool.getCommonPoolParallelism() < 2) return null;
+        List<Stmt> statements = program.statements();
+        int count = statements.size();
+        Access[] accesses = new Access[count];
+        for (int i = 0; i < count; i++) {
+            accesses[i] = Access.of(statements.get(i));
+        }
+
+        int[] groups = new int[count];
+        boolean[] loops = new boolean[count];
+        // Last statement of the segment that may have assigned each global; -1 if none.
+        int[] versions = new int[program.globalCount()];
+        Arrays.fill(versions, -1);
+        List<ParallelExecution> segments = new ArrayList<>();
+        int start = 0;
+        int sequential = 0;
+        for (int i = 0; i < count; i++) {
+            groups[i] = i;
+            if (accesses[i] == null) {
+                // A barrier: it runs on its own, after the statements before it and before
+                // those after it, which are grouped afresh.
+                ParallelExecution segment = segment(program, groups, loops, versions, start, i);
+                if (segment != null) {
+                    if (sequential < start) segments.add(sequential(program, sequential, start));
+                    segments.add(segment);
+                    sequential = i;
+                }
+                start = i + 1;
+                Arrays.fill(versions, -1);
+                continue;
+            }
+            loops[i] = accesses[i].loops;
+            List<Integer> joined = joined(accesses[i], groups, versions);
+            if (joined.stream().filter(group -> loops[group]).count() >= 2) {
+                ParallelExecution segment = segment(program, groups, loops, versions, start, i);
+                if (segment != null) {
+                    if (sequential < start) segments.add(sequential(program, sequential, start));
+                    segments.add(segment);
+                    sequential = i;
+                }
+                start = i;
+                Arrays.fill(versions, -1);
+                joined = List.of();
+            }
+            for (int group : joined) {
+                loops[i] |= loops[group];
+                groups[group] = i;
+            }
+            Access access = accesses[i];
+            for (int slot = access.writes.nextSetBit(0); slot >= 0; slot = access.writes.nextSetBit(slot + 1)) {
+                versions[slot] = i;
+            }
+        }
+        ParallelExecution segment = segment(program, groups, loops, versions, start, count);
+        if (segment == null && segments.isEmpty()) return null;
+        if (segment != null) {
+            if (sequential < start) segments.add(sequential(program, sequential, start));
+            segments.add(segment);
+        } else {
+            segments.add(sequential(program, sequential, count));
+        }
+        return segments;
+    }
+
+    /** Distinct groups statement {@code access} must join, found through the versions it depends on. */
+    private static List<Integer> joined(Access access, int[] groups, int[] versions) {
+        BitSet dependencies = (BitSet) access.writes.clone();
+        dependencies.andNot(access.assigned);
+        dependencies.or(access.reads);
+        List<Integer> joined = new ArrayList<>();
+        for (int slot = dependencies.nextSetBit(0); slot >= 0; slot = dependencies.nextSetBit(slot + 1)) {
+            if (versions[slot] < 0) continue;
+            int group = find(groups, versions[slot]);
+            if (!joined.contains(group)) joined.add(group);
+        }
+        return joined;
+    }
+
+    /**
+     * The statements in [{@code start}, {@code end}) as a parallel segment, or null if they
+     * have fewer than two groups with loops. Each group with a loop is a task; the rest
+     * share one.
+     */
+    private static ParallelExecution segment(Program program, int[] groups, boolean[] loops, int[] versions,
+                                             int start, int end) {
+        Map<Integer, List<Integer>> members = new LinkedHashMap<>();
+        List<Integer> rest = new ArrayList<>();
+        for (int i = start; i < end; i++) {
+            int group = find(groups, i);
+            if (loops[group]) {
+                members.computeIfAbsent(group, g -> new ArrayList<>()).add(i - start);
+            } else {
+                rest.add(i - start);
+            }
+        }
+        if (members.size() < 2) return null;
+        List<List<Integer>> lists = new ArrayList<>(members.values());
+        if (!rest.isEmpty()) lists.add(rest);
+        int[][] tasks = new int[lists.size()][];
+        int[] taskOf = new int[end - start];
+        for (int t = 0; t < tasks.length; t++) {
+            tasks[t] = lists.get(t).stream().mapToInt(Integer::intValue).toArray();
+            for (int i : tasks[t]) taskOf[i] = t;
+        }
+        int[] owners = new int[versions.length];
+        for (int slot = 0; slot < versions.length; slot++) {
+            owners[slot] = versions[slot] >= 0 ? taskOf[versions[slot] - start] : -1;
+        }
+        return new ParallelExecution(program.with(program.statements().subList(start, end)), tasks, owners);
+    }
+
+    private static ParallelExecution sequential(Program program, int start, int end) {
+        return new ParallelExecution(program.with(program.statements().subList(start, end)), null, null);
+    }
+
+    private static int find(int[] groups, int i) {
+        while (groups[i] != i) {
+            groups[i] = groups[groups[i]];
+            i = groups[i];
+        }
+        return i;
+    }
+
+    /** The statements of this segment, with the globals of the whole program. */
+    Program program() {
+        return program;
+    }
+
+    /** Whether this segment runs in parallel; otherwise the caller runs {@link #program()}. */
+    boolean isParallel() {
+        return tasks != null;
+    }
+
+    /**
+     * Runs every task in an environment from {@code newEnvironment}, which is given the sink
+     * the environment must print to. Returns false if any task failed; nothing has been
+     * printed to the real output then.
+     */
+    boolean run(Function<OutputSink, Environment> newEnvironment, Evaluator.Mode mode) {
+        environments = new Environment[tasks.length];
+        AtomicBoolean failed = new AtomicBoolean();
+        List<ForkJoinTask<?>> runs = new ArrayList<>(tasks.length);
+        for (int t = 0; t < tasks.length; t++) {
+            int task = t;
+            runs.add(ForkJoinTask.adapt(() -> {
+                try {
+                    run(task, newEnvironment, mode, failed);
+                } catch (RuntimeException e) {
+                    failed.set(true);
+                }
+            }));
+        }
+        ForkJoinTask.invokeAll(runs);
+        return !failed.get();
+    }
+
+    private void run(int task, Function<OutputSink, Environment> newEnvironment, Evaluator.Mode mode,
+                     AtomicBoolean failed) {
+        Recorder recorder = new Recorder();
+        Environment env = newEnvironment.apply(recorder);
+        env.cancelWhen(failed);
+        environments[task] = env;
+        for (int i : tasks[task]) {
+            recorder.values = printed.get(i);
+            Stmt stmt = program.statements().get(i);
+            if (mode == Evaluator.Mode.BYTECODE) {
+                VirtualMachine.run(program.with(List.of(stmt)).chunk(), env);
+            } else if (mode == Evaluator.Mode.CLOSURE) {
+                program.with(List.of(stmt)).closure().run(env);
+            } else {
+                stmt.execute(env);
+            }
+        }
+    }
+
+    /**
+     * Loop iterations the tasks ran together, out of the {@code budget} each of them had;
+     * more than {@code budget} if they overran it together.
+     */
+    long fuelUsed(long budget) {
+        if (budget == Long.MAX_VALUE) return 0;
+        long used = 0;
+        for (Environment env : environments) {
+            long spent = budget - env.fuelLeft();
+            if (spent > budget - used) return Long.MAX_VALUE;
+            used += spent;
+        }
+        return used;
+    }
+
+    /**
+     * Prints what the statements printed, in program order, and stores the final value of
+     * every assigned global into {@code globals} by name.
+     */
+    void commit(OutputSink output, Map<String, Object> globals) {
+        for (List<Object> values : printed) {
+            for (Object value : values) {
+                output.print(value);
+            }
+        }
+        for (int slot = 0; slot < owners.length; slot++) {
+            if (owners[slot] < 0) continue;
+            Object value = environments[owners[slot]].getGlobal(slot);
+            if (value != null) globals.put(program.globalName(slot), value);
+        }
+    }
+
+    /** Keeps what the running statement prints. */
+    private static final class Recorder implements OutputSink {
+        List<Object> values;
+
+        @Override
+        public void print(Object value) {
+            values.add(ConcatString.flatten(value));
+        }
+    }
+
+    /** The globals one top-level statement uses. */
+    private static final class Access {
+        // Globals it may read before assigning them, and may assign.
+        final BitSet reads = new BitSet();
+        final BitSet writes = new BitSet();
+        // Globals it assigns whichever way it runs.
+        final BitSet assigned = new BitSet();
+        boolean loops;
+        // Set for nodes this pass does not know about.
+        boolean unknown;
+
+        static Access of(Stmt stmt) {
+            Access access = new Access();
+            access.scan(stmt, 0, access.assigned);
+            return access.unknown ? null : access;
+        }
+
+        /** {@code level} is the number of enclosing blocks; {@code assigned} is updated in place. */
+        private void scan(Stmt stmt, int level, BitSet assigned) {
+            if (stmt instanceof AssignStmt assign) {
+                scan(assign.expr(), level, assigned);
+                if (assign.depth() == level) {
+                    writes.set(assign.slot());
+                    assigned.set(assign.slot());
+                }
+            } else if (stmt instanceof BlockStmt block) {
+                for (Stmt inner : block.statements()) {
+                    scan(inner, level + 1, assigned);
+                }
+            } else if (stmt instanceof IfStmt ifStmt) {
+                scan(ifStmt.condition(), level, assigned);
+                BitSet then = (BitSet) assigned.clone();
+                scan(ifStmt.thenBranch(), level, then);
+                BitSet otherwise = (BitSet) assigned.clone();
+                if (ifStmt.elseBranch() != null) scan(ifStmt.elseBranch(), level, otherwise);
+                then.and(otherwise);
+                assigned.or(then);
+            } else if (stmt instanceof WhileStmt whileStmt) {
+                loops = true;
+                scan(whileStmt.condition(), level, assigned);
+                // The body may not run, and what it reads on later iterations it has either
+                // assigned itself or already read on the first one.
+                scan(whileStmt.body(), level, (BitSet) assigned.clone());
+            } else if (stmt instanceof PrintStmt print) {
+                scan(print.expr(), level, assigned);
+            } else if (stmt instanceof ExprStmt exprStmt) {
+                scan(exprStmt.expr(), level, assigned);
+            } else {
+                unknown = true;
+            }
+        }
+
+        private void scan(Expr expr, int level, BitSet assigned) {
+            if (expr instanceof VariableExpr variable) {
+                if (variable.depth() == level && !assigned.get(variable.slot())) reads.set(variable.slot());
+            } else if (expr instanceof BinaryExpr binary) {
+                scan(binary.left(), level, assigned);
+                scan(binary.right(), level, assigned);
+            } else if (expr instanceof UnaryExpr unary) {
+                scan(unary.expr(), level, assigned);
+            } else if (expr instanceof CachedExpr cached) {
+                scan(cached.expr(), level, assigned);
+            } else if (expr instanceof IndexExpr index) {
+                scan(index.array(), level, assigned);
+                scan(index.index(), level, assigned);
+            } else if (expr instanceof CallExpr call) {
+                for (Expr arg : call.args()) scan(arg, level, assigned);
+            } else if (expr instanceof ArrayExpr array) {
+                for (Expr element : array.elements()) scan(element, level, assigned);
+            } else if (!(expr instanceof LiteralExpr)) {
+                unknown = true;
+            }
+        }
+    }
+}
@@ -2,215 +2,416 @@ package interpreter;
 
 import java.util.*;
 
+import interpreter.Token.Kind;
+
 public class Parser {
-    private final List<Token> tokens;
+    private static final Kind[] OR = { Kind.OR };
+    private static final Kind[] AND = { Kind.AND };
+    private static final Kind[] EQUALITY = { Kind.EQUAL_EQUAL, Kind.BANG_EQUAL };
+    private static final Kind[] COMPARISON = { Kind.LESS, Kind.LESS_EQUAL, Kind.GREATER, Kind.GREATER_EQUAL };
+    private static final Kind[] TERM = { Kind.PLUS, Kind.MINUS };
+    private static final Kind[] FACTOR = { Kind.STAR, Kind.SLASH, Kind.PERCENT };
+    private static final Kind[] UNARY = { Kind.BANG, Kind.MINUS };
+
+    private final Lexer lexer;
+    // Tokens of the statement being parsed, read from the lexer as the parser needs them.
+    private final TokenBuffer tokens;
     private int current = 0;
+    // Whether the statement being parsed is in a function body, where return is allowed.
+    private boolean inFunction;
 
-    public Parser(List<Token> tokens) {
+    public Parser(Lexer lexer) {
+        this(lexer, new TokenBuffer());
+    }
+
+    /** Parses {@code tokens}, already scanned by {@code lexer}, before reading more from it. */
+    Parser(Lexer lexer, TokenBuffer tokens) {
+        this.lexer = lexer;
         this.tokens = tokens;
     }
 
+    /** Parses tokens lexed beforehand; they are re-read from their text. */
+    public Parser(List<Token> tokens) {
+        this(new Lexer(source(tokens)));
+    }
+
+    private static String source(List<Token> tokens) {
+        StringBuilder source = new StringBuilder();
+        for (Token token : tokens) {
+            if (token.type == Token.Type.STRING) {
+                source.append('"').append(token.text).append('"');
+            } else {
+                source.append(token.text);
+            }
+            source.append(' ');
+        }
+        return source.toString();
+    }
+
     public List<Stmt> parse() {
         List<Stmt> statements = new ArrayList<>();
-        while (!isAtEnd()) {
-            statements.add(statement());
+        for (Stmt stmt = parseStatement(); stmt != null; stmt = parseStatement()) {
+            statements.add(stmt);
         }
         return statements;
     }
 
+    /**
+     * Parses the next top-level statement, or returns null at the end of the input.
+     * Tokens are only read as far as the statement needs and are dropped once it is
+     * parsed.
+     */
+    public Stmt parseStatement() {
+        if (isAtEnd()) return null;
+        Stmt stmt = match(Kind.FUN) ? function() : statement();
+        tokens.discard(current);
+        current = 0;
+        return stmt;
+    }
+
+    /** Parses the whole input as one expression, with no semicolon after it. */
+    public Expr parseExpression() {
+        Expr expr = expression();
+        if (!isAtEnd()) throw error(current, "Expected end of expression.");
+        tokens.discard(current);
+        current = 0;
+        return expr;
+    }
+
     private Stmt statement() {
-        if (match("KEYWORD", "if")) return ifStatement();
-        if (match("KEYWORD", "while")) return whileStatement();
-        if (match("KEYWORD", "print")) return printStatement();
-        if (check("IDENTIFIER") && checkNext("SYMBOL", "=")) return assignStatement();
-        if (match("SYMBOL", "{")) {
+        if (match(Kind.IF)) return ifStatement();
+        if (match(Kind.WHILE)) return whileStatement();
+        if (match(Kind.PRINT)) return printStatement();
+        if (match(Kind.RETURN)) return returnStatement();
+        if (check(Kind.FUN)) throw error(current, "Functions can only be declared at the top level.");
+        if (check(Kind.IDENTIFIER) && checkNext(Kind.ASSIGN)) return assignStatement();
+        if (match(Kind.LEFT_BRACE)) {
             Stmt block = block();
-            match("SYMBOL", ";");
+            match(Kind.SEMICOLON);
             return block;
         }
         return expressionStatement();
     }
 
     private Stmt assignStatement() {
-        Token name = advance(); // IDENTIFIER
-        consume("SYMBOL", "=");
+        int start = current;
+        String name = text(current); // IDENTIFIER
+        advance();
+        consume(Kind.ASSIGN);
         Expr value = expression();
-        consume("SYMBOL", ";");
-        return new AssignStmt(name.text, value);
+        consume(Kind.SEMICOLON);
+        return at(new AssignStmt(name, value), start);
     }
 
     private Stmt printStatement() {
+        int start = current - 1;
         Expr value = expression();
-        consume("SYMBOL", ";");
-        return new PrintStmt(value);
+        consume(Kind.SEMICOLON);
+        return at(new PrintStmt(value), start);
+    }
+
+    private Stmt function() {
+        int start = current - 1;
+        String name = identifier("Expected function name.");
+        if (Builtin.named(name) != null) {
+            throw error(current - 1, "'" + name + "' is a builtin function.");
+        }
+        consume(Kind.LEFT_PAREN);
+        List<String> params = new ArrayList<>();
+        if (!check(Kind.RIGHT_PAREN)) {
+            do {
+                String param = identifier("Expected parameter name.");
+                if (params.contains(param)) {
+                    throw error(current - 1, "Duplicate parameter '" + param + "'.");
+                }
+                params.add(param);
+            } while (match(Kind.COMMA));
+        }
+        consume(Kind.RIGHT_PAREN);
+        consume(Kind.LEFT_BRACE);
+        inFunction = true;
+        try {
+            BlockStmt body = (BlockStmt) block();
+            return at(new FunStmt(name, params, body.statements()), start);
+        } finally {
+            inFunction = false;
+        }
+    }
+
+    private String identifier(String message) {
+        if (!check(Kind.IDENTIFIER)) {
+            throw error(current, message);
+        }
+        advance();
+        return previousText();
+    }
+
+    private Stmt returnStatement() {
+        int start = current - 1;
+        if (!inFunction) {
+            throw error(start, "'return' outside of a function.");
+        }
+        Expr value = check(Kind.SEMICOLON) ? null : expression();
+        consume(Kind.SEMICOLON);
+        return at(new ReturnStmt(value), start);
     }
 
     private Stmt ifStatement() {
-        consume("SYMBOL", "(");
+        int start = current - 1;
+        consume(Kind.LEFT_PAREN);
         Expr condition = expression();
-        consume("SYMBOL", ")");
+        consume(Kind.RIGHT_PAREN);
         Stmt thenBranch = statement();
         Stmt elseBranch = null;
-        if (match("KEYWORD", "else")) {
+        if (match(Kind.ELSE)) {
             elseBranch = statement();
         }
-        return new IfStmt(condition, thenBranch, elseBranch);
+        return at(new IfStmt(condition, thenBranch, elseBranch), start);
     }
 
     private Stmt whileStatement() {
-        consume("SYMBOL", "(");
+        int start = current - 1;
+        consume(Kind.LEFT_PAREN);
         Expr condition = expression();
-        consume("SYMBOL", ")");
+        consume(Kind.RIGHT_PAREN);
         Stmt body = statement();
-        return new WhileStmt(condition, body);
+        return at(new WhileStmt(condition, body), start);
     }
 
     private Stmt expressionStatement() {
+        int start = current;
         Expr expr = expression();
-        consume("SYMBOL", ";");
-        return new ExprStmt(expr);
+        consume(Kind.SEMICOLON);
+        return at(new ExprStmt(expr), start);
     }
 
     private Expr expression() {
-        return equality();
+        return or();
+    }
+
+    private Expr or() {
+        Expr expr = and();
+        while (match(OR)) {
+            int operatorToken = current - 1;
+            String operator = previous().text;
+            Expr right = and();
+            expr = at(new BinaryExpr(expr, operator, right), operatorToken);
+        }
+        return expr;
+    }
+
+    private Expr and() {
+        Expr expr = equality();
+        while (match(AND)) {
+            int operatorToken = current - 1;
+            String operator = previous().text;
+            Expr right = equality();
+            expr = at(new BinaryExpr(expr, operator, right), operatorToken);
+        }
+        return expr;
     }
 
     private Expr equality() {
         Expr expr = comparison();
-        while (match("OPERATOR", "==", "!=")) {
+        while (match(EQUALITY)) {
+            int operatorToken = current - 1;
             String operator = previous().text;
             Expr right = comparison();
-            expr = new BinaryExpr(expr, operator, right);
+            expr = at(new BinaryExpr(expr, operator, right), operatorToken);
         }
         return expr;
     }
 
     private Expr comparison() {
         Expr expr = term();
-        while (match("OPERATOR", "<", "<=", ">", ">=")) {
+        while (match(COMPARISON)) {
+            int operatorToken = current - 1;
             String operator = previous().text;
             Expr right = term();
-            expr = new BinaryExpr(expr, operator, right);
+            expr = at(new BinaryExpr(expr, operator, right), operatorToken);
         }
         return expr;
     }
 
     private Expr term() {
         Expr expr = factor();
-        while (match("OPERATOR", "+", "-")) {
+        while (match(TERM)) {
+            int operatorToken = current - 1;
             String operator = previous().text;
             Expr right = factor();
-            expr = new BinaryExpr(expr, operator, right);
+            expr = at(new BinaryExpr(expr, operator, right), operatorToken);
         }
         return expr;
     }
 
     private Expr factor() {
         Expr expr = unary();
-        while (match("OPERATOR", "*", "/", "%")) {
+        while (match(FACTOR)) {
+            int operatorToken = current - 1;
             String operator = previous().text;
             Expr right = unary();
-            expr = new BinaryExpr(expr, operator, right);
+            expr = at(new BinaryExpr(expr, operator, right), operatorToken);
         }
         return expr;
     }
 
     private Expr unary() {
-        if (match("OPERATOR", "!", "-")) {
+        if (match(UNARY)) {
+            int operatorToken = current - 1;
             String operator = previous().text;
             Expr right = unary();
-            return new UnaryExpr(operator, right);
+            return at(new UnaryExpr(operator, right), operatorToken);
         }
-        return primary();
+        return index();
+    }
+
+    private Expr index() {
+        Expr expr = primary();
+        while (match(Kind.LEFT_BRACKET)) {
+            int bracket = current - 1;
+            Expr index = expression();
+            consume(Kind.RIGHT_BRACKET);
+            expr = at(new IndexExpr(expr, index), bracket);
+        }
+        return expr;
     }
 
     private Expr primary() {
-        if (match("NUMBER")) {
-            return new LiteralExpr(Double.parseDouble(previous().text));
+        if (match(Kind.NUMBER)) {
+            return at(new LiteralExpr(Double.parseDouble(previousText())), current - 1);
+        }
+        if (match(Kind.STRING)) {
+            return at(new LiteralExpr(previousText()), current - 1);
         }
-        if (match("STRING")) {
-            return new LiteralExpr(previous().text);
+        if (match(Kind.TRUE)) {
+            return at(new LiteralExpr(true), current - 1);
         }
-        if (match("KEYWORD", "true")) {
-            return new LiteralExpr(true);
+        if (match(Kind.FALSE)) {
+            return at(new LiteralExpr(false), current - 1);
         }
-        if (match("KEYWORD", "false")) {
-            return new LiteralExpr(false);
+        if (match(Kind.IDENTIFIER)) {
+            int name = current - 1;
+            if (match(Kind.LEFT_PAREN)) return call(name);
+            return at(new VariableExpr(previousText()), name);
         }
-        if (match("IDENTIFIER")) {
-            return new VariableExpr(previous().text);
+        if (match(Kind.LEFT_BRACKET)) {
+            int start = current - 1;
+            return at(new ArrayExpr(list(Kind.RIGHT_BRACKET)), start);
         }
-        if (match("SYMBOL", "(")) {
+        if (match(Kind.LEFT_PAREN)) {
             Expr expr = expression();
-            consume("SYMBOL", ")");
+            consume(Kind.RIGHT_PAREN);
             return expr;
         }
-        throw error(peek(), "Expected expression.");
+        throw error(current, "Expected expression.");
+    }
+
+    private Expr call(int name) {
+        Builtin function = Builtin.named(text(name));
+        if (function == null) {
+            return at(new InvokeExpr(text(name), list(Kind.RIGHT_PAREN)), name);
+        }
+        List<Expr> args = list(Kind.RIGHT_PAREN);
+        if (args.size() != function.arity) {
+            throw error(name, function.name + " takes " + function.arity + " argument"
+                    + (function.arity == 1 ? "" : "s") + ", got " + args.size() + ".");
+        }
+        return at(new CallExpr(function, args), name);
+    }
+
+    /** Comma-separated expressions up to and including {@code close}. */
+    private List<Expr> list(Kind close) {
+        List<Expr> exprs = new ArrayList<>();
+        if (!check(close)) {
+            do {
+                exprs.add(expression());
+            } while (match(Kind.COMMA));
+        }
+        consume(close);
+        return exprs;
     }
 
-    private boolean match(String type, String... texts) {
-        if (check(type, texts)) {
+    private boolean match(Kind kind) {
+        if (check(kind)) {
             advance();
             return true;
         }
         return false;
     }
 
-    private boolean check(String type, String... texts) {
-        if (isAtEnd()) return false;
-        Token token = peek();
-        if (!token.type.name().equals(type)) return false;
-        if (texts.length == 0) return true;
-        for (String text : texts) {
-            if (token.text.equals(text)) return true;
+    private boolean match(Kind[] kinds) {
+        Kind next = peek();
+        for (Kind kind : kinds) {
+            if (next == kind) {
+                advance();
+                return true;
+            }
         }
         return false;
     }
 
-    private boolean check(String type) {
-        return !isAtEnd() && peek().type.name().equals(type);
+    private boolean check(Kind kind) {
+        return peek() == kind;
     }
 
-    private boolean checkNext(String type, String text) {
-        if (current + 1 >= tokens.size()) return false;
-        Token next = tokens.get(current + 1);
-        return next.type.name().equals(type) && next.text.equals(text);
+    private boolean checkNext(Kind kind) {
+        return kind(current + 1) == kind;
     }
 
-    private Token consume(String type, String text) {
-        if (check(type, text)) return advance();
-        throw error(peek(), "Expected '" + text + "'");
+    private void consume(Kind kind) {
+        if (!match(kind)) {
+            throw error(current, "Expected '" + kind.text + "'");
+        }
     }
 
-    private Token advance() {
+    private void advance() {
         if (!isAtEnd()) current++;
-        return previous();
     }
 
     private boolean isAtEnd() {
-        return peek().type == Token.Type.EOF;
+        return peek() == Kind.EOF;
+    }
+
+    private Kind peek() {
+        return kind(current);
+    }
+
+    private Kind previous() {
+        return kind(current - 1);
+    }
+
+    private String previousText() {
+        return text(current - 1);
+    }
+
+    /** Gives {@code node} the position of the token at {@code index}. */
+    private <T extends Node> T at(T node, int index) {
+        return Node.at(node, tokens.line(index), tokens.column(index));
     }
 
-    private Token peek() {
-        return tokens.get(current);
+    private Kind kind(int index) {
+        while (index >= tokens.size()) lexer.scan(tokens);
+        return tokens.kind(index);
     }
 
-    private Token previous() {
-        return tokens.get(current - 1);
+    private String text(int index) {
+        return lexer.text(tokens.kind(index), tokens.start(index), tokens.length(index));
     }
 
-    private RuntimeException error(Token token, String message) {
-        System.err.println("Parse error at token " + token.text + ": " + message);
+    private RuntimeException error(int index, String message) {
+        System.err.println("Parse error at token " + text(index) + " (line " + tokens.line(index)
+                + ", column " + tokens.column(index) + "): " + message);
         return new RuntimeException(message);
     }
 
     private Stmt block() {
+        int start = current - 1;
         List<Stmt> statements = new ArrayList<>();
-        while (!check("SYMBOL", "}") && !isAtEnd()) {
+        while (!check(Kind.RIGHT_BRACE) && !isAtEnd()) {
             statements.add(statement());
         }
-        consume("SYMBOL", "}");
-        return new BlockStmt(statements);
+        consume(Kind.RIGHT_BRACE);
+        return at(new BlockStmt(statements), start);
     }
 
 }
@@ -1,16 +1,20 @@
 package interpreter;
 
-public class PrintStmt implements Stmt {
+public class PrintStmt extends Node implements Stmt {
     private final Expr expr;
 
     public PrintStmt(Expr expr) {
         this.expr = expr;
     }
 
+    Expr expr() {
+        return expr;
+    }
+
     @Override
     public void execute(Environment env) {
         Object value = expr.eval(env);
-        System.out.println(value);
+        env.output().print(value);
     }
 }
 
@@ -0,0 +1,419 @@
+package interpreter;
+
+import java.io.PrintStream;
+import java.util.*;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Counts executions and time per AST node. {@link #instrument} returns a copy of a
+ * program in which every statement and expression is wrapped by a node that counts
+ * how often it runs and the time spent in it, children included. Programs that were
+ * not instrumented run exactly as before, so profiling costs nothing while it is off.
+ *
+ * <p>Nodes are keyed by what they are and where they are in the source, so the same
+ * script instrumented again adds to the same entries. Instrumented programs only run
+ * in the tree-walker and their loops are never compiled. While a JFR recording is
+ * running, every run of a loop is recorded as an {@code interpreter.LoopRun} event,
+ * and {@link #commitEvents()} records the totals as {@code interpreter.NodeProfile}
+ * events.
+ *
+ * <p>Counters are not synchronized: profile one execution at a time.
+ */
+public final class Profiler {
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    // Entries of top-level statements, whose times add up to the total profiled time.
+    private final Set<Entry> roots = new HashSet<>();
+
+    /** Returns a copy of {@code program} that records into this profiler. */
+    public Program instrument(Program program) {
+        List<Stmt> statements = new ArrayList<>(program.statements().size());
+        for (Stmt stmt : program.statements()) {
+            ProfiledStmt profiled = instrument(stmt);
+            roots.add(profiled.entry);
+            statements.add(profiled);
+        }
+        String[] globals = new String[program.globalCount()];
+        for (int i = 0; i < globals.length; i++) {
+            globals[i] = program.globalName(i);
+        }
+        return new Program(statements, globals);
+    }
+
+    private ProfiledStmt instrument(Stmt stmt) {
+        Entry entry = entry(stmt);
+        if (stmt instanceof AssignStmt assign) {
+            AssignStmt copy = assign.with(instrument(assign.expr()), assign.invalidates());
+            return new ProfiledStmt(Node.at(copy, stmt), entry);
+        }
+        if (stmt instanceof BlockStmt block) {
+            List<Stmt> body = new ArrayList<>(block.statements().size());
+            for (Stmt inner : block.statements()) {
+                body.add(instrument(inner));
+            }
+            return new ProfiledStmt(Node.at(new BlockStmt(body, block.slots()), stmt), entry);
+        }
+        if (stmt instanceof IfStmt ifStmt) {
+            Stmt elseBranch = ifStmt.elseBranch() != null ? instrument(ifStmt.elseBranch()) : null;
+            IfStmt copy = new IfStmt(instrument(ifStmt.condition()), instrument(ifStmt.thenBranch()), elseBranch);
+            return new ProfiledStmt(Node.at(copy, stmt), entry);
+        }
+        if (stmt instanceof WhileStmt whileStmt) {
+            ProfiledStmt body = instrument(whileStmt.body());
+            WhileStmt copy = new WhileStmt(instrument(whileStmt.condition()), body,
+                    whileStmt.cached(), whileStmt.clobbered(), whileStmt.numbers());
+            return new ProfiledLoop(Node.at(copy, stmt), entry, body.entry);
+        }
+        if (stmt instanceof PrintStmt print) {
+            return new ProfiledStmt(Node.at(new PrintStmt(instrument(print.expr())), stmt), entry);
+        }
+        if (stmt instanceof ExprStmt exprStmt) {
+            return new ProfiledStmt(Node.at(new ExprStmt(instrumentCall(exprStmt.expr())), stmt), entry);
+        }
+        if (stmt instanceof FunStmt function) {
+            List<Stmt> body = new ArrayList<>(function.body().size());
+            for (Stmt inner : function.body()) {
+                body.add(instrument(inner));
+            }
+            FunStmt copy = new FunStmt(function.name(), function.params(), body, function.slots());
+            return new ProfiledStmt(Node.at(copy, stmt), entry);
+        }
+        if (stmt instanceof ReturnStmt returnStmt) {
+            Expr value = returnStmt.value() != null ? instrumentCall(returnStmt.value()) : null;
+            return new ProfiledStmt(Node.at(new ReturnStmt(value), stmt), entry);
+        }
+        throw new IllegalArgumentException("Unknown statement: " + stmt.getClass().getSimpleName());
+    }
+
+    private Expr instrument(Expr expr) {
+        Entry entry = entry(expr);
+        if (expr instanceof BinaryExpr binary) {
+            BinaryExpr copy = binary.with(instrument(binary.left()), instrument(binary.right()));
+            return new ProfiledExpr(Node.at(copy, expr), entry);
+        }
+        if (expr instanceof UnaryExpr unary) {
+            return new ProfiledExpr(Node.at(unary.with(instrument(unary.expr())), expr), entry);
+        }
+        if (expr instanceof VariableExpr variable) {
+            VariableExpr copy = new VariableExpr(variable.name(), variable.depth(), variable.slot());
+            return new ProfiledExpr(Node.at(copy, expr), entry);
+        }
+        if (expr instanceof CachedExpr cached) {
+            return new ProfiledExpr(Node.at(new CachedExpr(instrument(cached.expr()), cached.slot()), expr), entry);
+        }
+        if (expr instanceof LiteralExpr) {
+            return new ProfiledExpr(expr, entry);
+        }
+        if (expr instanceof IndexExpr index) {
+            IndexExpr copy = new IndexExpr(instrument(index.array()), instrument(index.index()));
+            return new ProfiledExpr(Node.at(copy, expr), entry);
+        }
+        if (expr instanceof CallExpr call) {
+            return new ProfiledExpr(Node.at(new CallExpr(call.function(), instrumentAll(call.args())), expr), entry);
+        }
+        if (expr instanceof ArrayExpr array) {
+            return new ProfiledExpr(Node.at(new ArrayExpr(instrumentAll(array.elements())), expr), entry);
+        }
+        if (expr instanceof InvokeExpr call) {
+            return new ProfiledExpr(Node.at(new InvokeExpr(call.name(), instrumentAll(call.args())), expr), entry);
+        }
+        throw new IllegalArgumentException("Unknown expression: " + expr.getClass().getSimpleName());
+    }
+
+    /**
+     * Like {@link #instrument(Expr)}, except that a call is left unwrapped for the statement
+     * to see: it may return nothing there, and a return of it may be a tail call.
+     */
+    private Expr instrumentCall(Expr expr) {
+        if (expr instanceof InvokeExpr call) {
+            return Node.at(new InvokeExpr(call.name(), instrumentAll(call.args())), expr);
+        }
+        return instrument(expr);
+    }
+
+    private List<Expr> instrumentAll(List<Expr> exprs) {
+        List<Expr> instrumented = new ArrayList<>(exprs.size());
+        for (Expr expr : exprs) {
+            instrumented.add(instrument(expr));
+        }
+        return instrumented;
+    }
+
+    private Entry entry(Object node) {
+        String description = describe(node);
+        int line = node instanceof Node n ? n.line() : 0;
+        int column = node instanceof Node n ? n.column() : 0;
+        return entries.computeIfAbsent(description + "@" + line + ":" + column,
+                key -> new Entry(description, line, column, node instanceof WhileStmt));
+    }
+
+    private static String describe(Object node) {
+        if (node instanceof AssignStmt assign) return "assign " + assign.name();
+        if (node instanceof BlockStmt) return "block";
+        if (node instanceof IfStmt) return "if";
+        if (node instanceof WhileStmt) return "while";
+        if (node instanceof PrintStmt) return "print";
+        if (node instanceof ExprStmt) return "expression statement";
+        if (node instanceof BinaryExpr binary) return "binary " + binary.operator();
+        if (node instanceof UnaryExpr unary) return "unary " + unary.operator();
+        if (node instanceof VariableExpr variable) return "variable " + variable.name();
+        if (node instanceof LiteralExpr literal) return "literal " + literal.value();
+        if (node instanceof CachedExpr) return "cached";
+        if (node instanceof IndexExpr) return "index";
+        if (node instanceof CallExpr call) return "call " + call.function().name;
+        if (node instanceof ArrayExpr) return "array";
+        if (node instanceof FunStmt function) return "fun " + function.name();
+        if (node instanceof ReturnStmt) return "return";
+        if (node instanceof InvokeExpr call) return "call " + call.name();
+        return node.getClass().getSimpleName();
+    }
+
+    /** Every profiled node, in the order they were first instrumented. */
+    public List<Entry> entries() {
+        return List.copyOf(entries.values());
+    }
+
+    /** The {@code limit} loops with the most time, worst first. */
+    public List<Entry> hotLoops(int limit) {
+        return entries.values().stream()
+                .filter(entry -> entry.loop && entry.count > 0)
+                .sorted(Comparator.comparingLong(Entry::nanos).reversed())
+                .limit(limit)
+                .toList();
+    }
+
+    /** Time spent in top-level statements, in nanoseconds. */
+    public long totalNanos() {
+        long total = 0;
+        for (Entry root : roots) {
+            total += root.nanos;
+        }
+        return total;
+    }
+
+    /** Prints the {@code limit} hottest loops and statements. */
+    public void printReport(PrintStream out, int limit) {
+        long total = Math.max(1, totalNanos());
+        List<Entry> loops = hotLoops(limit);
+        out.printf(Locale.ROOT, "Profile: %.3f ms in top-level statements%n", total / 1e6);
+        out.println("Hot loops:");
+        if (loops.isEmpty()) out.println("  (none)");
+        for (Entry loop : loops) {
+            out.printf(Locale.ROOT, "  %-9s %-8s %10.3f ms %5.1f%%  %d runs, %d iterations, %.1f ns/iteration%n",
+                    loop.position(), loop.node, loop.nanos / 1e6, 100.0 * loop.nanos / total,
+                    loop.count, loop.iterations, loop.iterations > 0 ? (double) loop.nanos / loop.iterations : 0);
+        }
+        out.println("Hot nodes:");
+        entries.values().stream()
+                .filter(entry -> entry.count > 0)
+                .sorted(Comparator.comparingLong(Entry::nanos).reversed())
+                .limit(limit)
+                .forEach(entry -> out.printf(Locale.ROOT, "  %-9s %-24s %10.3f ms %5.1f%%  %d executions%n",
+                        entry.position(), entry.node, entry.nanos / 1e6, 100.0 * entry.nanos / total, entry.count));
+    }
+
+    /** Records the totals of every executed node as {@code interpreter.NodeProfile} JFR events. */
+    public void commitEvents() {
+        for (Entry entry : entries.values()) {
+            NodeProfileEvent event = new NodeProfileEvent();
+            if (entry.count == 0 || !event.shouldCommit()) continue;
+            event.node = entry.node;
+            event.line = entry.line;
+            event.column = entry.column;
+            event.executions = entry.count;
+            event.time = entry.nanos;
+            event.commit();
+        }
+    }
+
+    public void reset() {
+        for (Entry entry : entries.values()) {
+            entry.count = 0;
+            entry.nanos = 0;
+            entry.iterations = 0;
+        }
+    }
+
+    public static final class Entry {
+        private final String node;
+        private final int line;
+        private final int column;
+        private final boolean loop;
+        private long count;
+        private long nanos;
+        private long iterations;
+
+        private Entry(String node, int line, int column, boolean loop) {
+            this.node = node;
+            this.line = line;
+            this.column = column;
+            this.loop = loop;
+        }
+
+        private void record(long start) {
+            count++;
+            nanos += System.nanoTime() - start;
+        }
+
+        /** What the node is, e.g. {@code while} or {@code binary +}. */
+        public String node() {
+            return node;
+        }
+
+        public int line() {
+            return line;
+        }
+
+        public int column() {
+            return column;
+        }
+
+        /** Number of times the node was executed; for a loop, how often the loop was entered. */
+        public long count() {
+            return count;
+        }
+
+        /** Time spent in the node and its children, in nanoseconds. */
+        public long nanos() {
+            return nanos;
+        }
+
+        /** For a loop, the number of times its body ran; 0 for other nodes. */
+        public long iterations() {
+            return iterations;
+        }
+
+        String position() {
+            return line + ":" + column;
+        }
+
+        @Override
+        public String toString() {
+            return node + " at " + position() + ": " + count + " executions, " + nanos + " ns";
+        }
+    }
+
+    private static class ProfiledStmt implements Stmt {
+        final Stmt stmt;
+        final Entry entry;
+
+        ProfiledStmt(Stmt stmt, Entry entry) {
+            this.stmt = stmt;
+            this.entry = entry;
+        }
+
+        @Override
+        public void execute(Environment env) {
+            long start = System.nanoTime();
+            try {
+                stmt.execute(env);
+            } finally {
+                entry.record(start);
+            }
+        }
+    }
+
+    private static final class ProfiledLoop extends ProfiledStmt {
+        private final Entry body;
+
+        ProfiledLoop(Stmt stmt, Entry entry, Entry body) {
+            super(stmt, entry);
+            this.body = body;
+        }
+
+        @Override
+        public void execute(Environment env) {
+            LoopRunEvent event = new LoopRunEvent();
+            event.begin();
+            long before = body.count;
+            try {
+                super.execute(env);
+            } finally {
+                long iterations = body.count - before;
+                entry.iterations += iterations;
+                if (event.shouldCommit()) {
+                    event.line = entry.line;
+                    event.column = entry.column;
+                    event.iterations = iterations;
+                    event.commit();
+                }
+            }
+        }
+    }
+
+    private static final class ProfiledExpr implements Expr {
+        private final Expr expr;
+        private final Entry entry;
+
+        ProfiledExpr(Expr expr, Entry entry) {
+            this.expr = expr;
+            this.entry = entry;
+        }
+
+        @Override
+        public Object eval(Environment env) {
+            long start = System.nanoTime();
+            try {
+                return expr.eval(env);
+            } finally {
+                entry.record(start);
+            }
+        }
+
+        @Override
+        public double evalDouble(Environment env) throws UnexpectedResultException {
+            long start = System.nanoTime();
+            try {
+                return expr.evalDouble(env);
+            } finally {
+                entry.record(start);
+            }
+        }
+
+        @Override
+        public boolean evalBoolean(Environment env) throws UnexpectedResultException {
+            long start = System.nanoTime();
+            try {
+                return expr.evalBoolean(env);
+            } finally {
+                entry.record(start);
+            }
+        }
+    }
+
+    @Name("interpreter.LoopRun")
+    @Label("Loop Run")
+    @Category("Interpreter")
+    @Description("One run of a while loop in a profiled program")
+    static final class LoopRunEvent extends Event {
+        @Label("Line")
+        int line;
+        @Label("Column")
+        int column;
+        @Label("Iterations")
+        long iterations;
+    }
+
+    @Name("interpreter.NodeProfile")
+    @Label("Node Profile")
+    @Category("Interpreter")
+    @Description("Executions and time of one AST node over a profiling session")
+    static final class NodeProfileEvent extends Event {
+        @Label("Node")
+        String node;
+        @Label("Line")
+        int line;
+        @Label("Column")
+        int column;
+        @Label("Executions")
+        long executions;
+        @Label("Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long time;
+    }
+}
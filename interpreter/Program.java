@@ -0,0 +1,70 @@
+package interpreter;
+
+import java.util.List;
+
+/**
+ * A resolved program: its statements plus the names of the globals they use,
+ * in slot order.
+ *
+ * <p>A program can be run any number of times, from any number of threads at once:
+ * all run-time state lives in the {@link Environment} of each run. The only thing
+ * runs share is what nodes learn while executing (operand specializations, loop
+ * counters, compiled loops, bytecode and closures). Those caches are safe to race
+ * on: every specialization learned at run time checks its operand types, and a lost
+ * update only means the work is done again.
+ */
+public final class Program {
+    private final List<Stmt> statements;
+    private final String[] globals;
+    private volatile Chunk chunk;
+    private volatile ClosureCompiler.Code closure;
+
+    /** Lexes, parses, optimizes, resolves and type-checks a standalone script. */
+    public static Program compile(String source) {
+        List<Stmt> statements = new Parser(new Lexer(source)).parse();
+        Program program = new TypeChecker().check(new Resolver().resolve(new Optimizer().optimize(statements)));
+        return new LoopOptimizer().optimize(program);
+    }
+
+    Program(List<Stmt> statements, String[] globals) {
+        this.statements = List.copyOf(statements);
+        this.globals = globals;
+    }
+
+    /** The same globals with other statements, for passes over a resolved program. */
+    Program with(List<Stmt> statements) {
+        return new Program(statements, globals);
+    }
+
+    public List<Stmt> statements() {
+        return statements;
+    }
+
+    public int globalCount() {
+        return globals.length;
+    }
+
+    public String globalName(int slot) {
+        return globals[slot];
+    }
+
+    /** Bytecode for {@link Evaluator.Mode#BYTECODE}, compiled on first use. */
+    Chunk chunk() {
+        Chunk compiled = chunk;
+        if (compiled == null) {
+            compiled = new BytecodeCompiler().compile(this);
+            chunk = compiled;
+        }
+        return compiled;
+    }
+
+    /** Lambdas for {@link Evaluator.Mode#CLOSURE}, compiled on first use. */
+    ClosureCompiler.Code closure() {
+        ClosureCompiler.Code compiled = closure;
+        if (compiled == null) {
+            compiled = new ClosureCompiler().compile(this);
+            closure = compiled;
+        }
+        return compiled;
+    }
+}
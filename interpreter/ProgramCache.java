@@ -0,0 +1,143 @@
+package interpreter;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Bounded, thread-safe cache of front-end results, so that a script submitted again
+ * skips {@link Lexer}, {@link Parser} and {@link Optimizer}. Entries are keyed by a
+ * SHA-256 digest of the source and evicted least-recently-used first once either the
+ * entry limit or the weight limit (total source length in characters) is exceeded.
+ *
+ * <p>Cached statements are the parser's unresolved tree, which is only ever read: every
+ * execution resolves it into fresh nodes, so one entry can serve many evaluators.
+ */
+public final class ProgramCache {
+    private final int maxEntries;
+    private final long maxWeight;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public ProgramCache(int maxEntries, long maxWeight) {
+        if (maxEntries <= 0 || maxWeight <= 0) {
+            throw new IllegalArgumentException("Cache limits must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Returns the statements for {@code source}, running the front end on a miss. Lex
+     * and parse errors are thrown and nothing is cached.
+     */
+    Entry lookup(String source, boolean optimize) {
+        String key = key(source, optimize);
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                hits++;
+                return entry;
+            }
+            misses++;
+        }
+        // Parse outside the lock; if two threads miss on the same source, the last one wins.
+        Entry entry = compile(source, optimize);
+        synchronized (this) {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) weight -= previous.weight;
+            weight += entry.weight;
+            evict();
+        }
+        return entry;
+    }
+
+    private static Entry compile(String source, boolean optimize) {
+        List<Stmt> statements = new Parser(new Lexer(source)).parse();
+        Optimizer.Report report = null;
+        if (optimize) {
+            Optimizer optimizer = new Optimizer();
+            statements = optimizer.optimize(statements);
+            report = optimizer.report();
+        }
+        return new Entry(List.copyOf(statements), report, source.length());
+    }
+
+    private void evict() {
+        Iterator<Entry> oldest = entries.values().iterator();
+        // The newest entry is kept even if it alone is heavier than the limit.
+        while (entries.size() > 1 && (entries.size() > maxEntries || weight > maxWeight)) {
+            Entry entry = oldest.next();
+            oldest.remove();
+            weight -= entry.weight;
+            evictions++;
+        }
+    }
+
+    private static String key(String source, boolean optimize) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(source.getBytes(StandardCharsets.UTF_8));
+            return (optimize ? "O" : "P") + Base64.getEncoder().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** Total weight of the cached entries, in source characters. */
+    public synchronized long weight() {
+        return weight;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ProgramCache: " + entries.size() + " entries, weight " + weight + ", "
+                + hits + " hits, " + misses + " misses, " + evictions + " evictions";
+    }
+
+    static final class Entry {
+        private final List<Stmt> statements;
+        private final Optimizer.Report report;
+        private final long weight;
+
+        private Entry(List<Stmt> statements, Optimizer.Report report, long weight) {
+            this.statements = statements;
+            this.report = report;
+            this.weight = weight;
+        }
+
+        List<Stmt> statements() {
+            return statements;
+        }
+
+        /** The optimizer's report, or null if the entry was not optimized. */
+        Optimizer.Report report() {
+            return report;
+        }
+    }
+}
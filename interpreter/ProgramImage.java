@@ -0,0 +1,454 @@
+package interpreter;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Binary image of a parsed script, written next to it as {@code <script>.image} after a
+ * run so that the next one maps the image instead of lexing and parsing the source again. The image
+ * holds the parser's unresolved tree, optimized or not, with source positions; it is
+ * tied to the script by a SHA-256 digest of its bytes and rewritten whenever the digest,
+ * the format version or the optimize setting no longer match.
+ *
+ * <p>Layout: magic, version, flags and digest, then a table of every name, operator and
+ * string literal, then the statements in prefix order. Each node is a tag byte, its line
+ * (as a signed difference to the previous node's) and column, and its fields. Counts,
+ * positions, table indexes and whole numbers are varints, other numbers raw doubles.
+ */
+public final class ProgramImage {
+    static final String SUFFIX = ".image";
+
+    private static final int MAGIC = 0x4D494D47; // "MIMG"
+    private static final int VERSION = 3;
+    private static final int OPTIMIZED = 1;
+    private static final int DIGEST_LENGTH = 32;
+
+    private static final int ASSIGN = 1;
+    private static final int PRINT = 2;
+    private static final int EXPRESSION = 3;
+    private static final int BLOCK = 4;
+    private static final int IF = 5;
+    private static final int IF_ELSE = 6;
+    private static final int WHILE = 7;
+    private static final int NUMBER = 8;
+    private static final int TRUE = 9;
+    private static final int FALSE = 10;
+    private static final int STRING = 11;
+    private static final int VARIABLE = 12;
+    private static final int BINARY = 13;
+    private static final int UNARY = 14;
+    private static final int INTEGER = 15;
+    private static final int INDEX = 16;
+    private static final int CALL = 17;
+    private static final int ARRAY = 18;
+    private static final int FUN = 19;
+    private static final int RETURN = 20;
+    private static final int RETURN_VALUE = 21;
+    private static final int INVOKE = 22;
+
+    private ProgramImage() {
+    }
+
+    /** Where the image of {@code script} is kept. */
+    public static Path imagePath(Path script) {
+        return script.resolveSibling(script.getFileName() + SUFFIX);
+    }
+
+    /** SHA-256 digest of the script's bytes, read through a memory mapping. */
+    static byte[] digest(Path script) throws IOException {
+        try (FileChannel channel = FileChannel.open(script, StandardOpenOption.READ)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            long size = channel.size();
+            for (long position = 0; position < size; position += Integer.MAX_VALUE) {
+                long length = Math.min(Integer.MAX_VALUE, size - position);
+                digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, length));
+            }
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Reading
+
+    /**
+     * Maps the image of {@code script} and decodes it. Returns null if there is none, or
+     * it is stale or corrupt.
+     */
+    static List<Stmt> read(Path script, byte[] digest, boolean optimize) throws IOException {
+        Path image = imagePath(script);
+        if (!Files.isRegularFile(image)) return null;
+        try (FileChannel channel = FileChannel.open(image, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) return null;
+            return decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), digest, optimize);
+        }
+    }
+
+    static List<Stmt> decode(ByteBuffer in, byte[] digest, boolean optimize) {
+        try {
+            if (in.getInt() != MAGIC || in.getShort() != VERSION) return null;
+            if (((in.get() & OPTIMIZED) != 0) != optimize) return null;
+            byte[] stored = new byte[DIGEST_LENGTH];
+            in.get(stored);
+            if (!Arrays.equals(stored, digest)) return null;
+            return new Decoder(in).statements();
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            // Truncated or corrupt: parse the source instead.
+            return null;
+        }
+    }
+
+    private static final class Decoder {
+        private final ByteBuffer in;
+        private final String[] strings;
+        private int line;
+
+        Decoder(ByteBuffer in) {
+            this.in = in;
+            strings = new String[count()];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] bytes = new byte[count()];
+                in.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+        }
+
+        List<Stmt> statements() {
+            List<Stmt> statements = statements(count());
+            if (in.hasRemaining()) throw new IllegalArgumentException("Trailing bytes");
+            return statements;
+        }
+
+        private Stmt statement() {
+            int tag = in.get();
+            int line = line();
+            int column = varint();
+            Node stmt;
+            switch (tag) {
+                case ASSIGN: {
+                    String name = string();
+                    stmt = new AssignStmt(name, expression());
+                    break;
+                }
+                case PRINT: stmt = new PrintStmt(expression()); break;
+                case EXPRESSION: stmt = new ExprStmt(expression()); break;
+                case BLOCK: stmt = new BlockStmt(statements(count())); break;
+                case IF:
+                case IF_ELSE: {
+                    Expr condition = expression();
+                    Stmt thenBranch = statement();
+                    stmt = new IfStmt(condition, thenBranch, tag == IF_ELSE ? statement() : null);
+                    break;
+                }
+                case WHILE: {
+                    Expr condition = expression();
+                    stmt = new WhileStmt(condition, statement());
+                    break;
+                }
+                case FUN: {
+                    String name = string();
+                    List<String> params = new ArrayList<>();
+                    for (int i = count(); i > 0; i--) {
+                        params.add(string());
+                    }
+                    stmt = new FunStmt(name, params, statements(count()));
+                    break;
+                }
+                case RETURN: stmt = new ReturnStmt(null); break;
+                case RETURN_VALUE: stmt = new ReturnStmt(expression()); break;
+                default: throw new IllegalArgumentException("Bad statement tag " + tag);
+            }
+            return (Stmt) Node.at(stmt, line, column);
+        }
+
+        private List<Stmt> statements(int count) {
+            List<Stmt> statements = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                statements.add(statement());
+            }
+            return statements;
+        }
+
+        private Expr expression() {
+            int tag = in.get();
+            int line = line();
+            int column = varint();
+            Node expr;
+            switch (tag) {
+                case NUMBER: expr = new LiteralExpr(in.getDouble()); break;
+                case INTEGER: expr = new LiteralExpr((double) varint()); break;
+                case TRUE: expr = new LiteralExpr(true); break;
+                case FALSE: expr = new LiteralExpr(false); break;
+                case STRING: expr = new LiteralExpr(string()); break;
+                case VARIABLE: expr = new VariableExpr(string()); break;
+                case BINARY: {
+                    Expr left = expression();
+                    String operator = string();
+                    expr = new BinaryExpr(left, operator, expression());
+                    break;
+                }
+                case UNARY: {
+                    String operator = string();
+                    expr = new UnaryExpr(operator, expression());
+                    break;
+                }
+                case INDEX: {
+                    Expr array = expression();
+                    expr = new IndexExpr(array, expression());
+                    break;
+                }
+                case CALL: {
+                    Builtin function = Builtin.named(string());
+                    List<Expr> args = expressions(count());
+                    if (function == null || args.size() != function.arity) {
+                        throw new IllegalArgumentException("Bad call");
+                    }
+                    expr = new CallExpr(function, args);
+                    break;
+                }
+                case ARRAY: expr = new ArrayExpr(expressions(count())); break;
+                case INVOKE: {
+                    String name = string();
+                    expr = new InvokeExpr(name, expressions(count()));
+                    break;
+                }
+                default: throw new IllegalArgumentException("Bad expression tag " + tag);
+            }
+            return (Expr) Node.at(expr, line, column);
+        }
+
+        private List<Expr> expressions(int count) {
+            List<Expr> exprs = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                exprs.add(expression());
+            }
+            return exprs;
+        }
+
+        private String string() {
+            return strings[varint()];
+        }
+
+        /** A length or element count; each element takes at least a byte. */
+        private int count() {
+            int value = varint();
+            if (value < 0 || value > in.remaining()) {
+                throw new IllegalArgumentException("Bad count " + value);
+            }
+            return value;
+        }
+
+        private int line() {
+            int delta = varint();
+            line += (delta >>> 1) ^ -(delta & 1);
+            return line;
+        }
+
+        private int varint() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = in.get();
+                value |= (b & 0x7f) << shift;
+                if (b >= 0) return value;
+            }
+            throw new IllegalArgumentException("Bad varint");
+        }
+    }
+
+    // Writing
+
+    /**
+     * Saves the image of {@code script}. It is written to a temporary file first, so a
+     * reader never maps a half-written one. Failing to write it, e.g. in a read-only
+     * directory, is not an error: the script just keeps running from source.
+     */
+    static void write(Path script, byte[] digest, boolean optimize, List<Stmt> statements) {
+        Path image = imagePath(script);
+        Path temporary = image.resolveSibling(image.getFileName() + "." + ProcessHandle.current().pid() + ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                encode(out, digest, optimize, statements);
+            }
+            Files.move(temporary, image, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(temporary);
+            } catch (IOException ignored) {
+                // Nothing else to do.
+            }
+        }
+    }
+
+    static void encode(OutputStream stream, byte[] digest, boolean optimize, List<Stmt> statements) throws IOException {
+        Encoder encoder = new Encoder();
+        for (Stmt stmt : statements) {
+            encoder.statement(stmt);
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeByte(optimize ? OPTIMIZED : 0);
+        out.write(digest);
+        writeVarint(out, encoder.strings.size());
+        for (String string : encoder.strings.keySet()) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, bytes.length);
+            out.write(bytes);
+        }
+        writeVarint(out, statements.size());
+        encoder.nodes.writeTo(out);
+        out.flush();
+    }
+
+    // Written as a varint: integral, not negative zero, and in int range.
+    private static boolean isWhole(double number) {
+        return number >= 0 && number <= Integer.MAX_VALUE && number == Math.rint(number)
+                && Double.doubleToRawLongBits(number) != Double.doubleToRawLongBits(-0.0);
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static final class Encoder {
+        // Table index of each string, in first-use order.
+        final Map<String, Integer> strings = new LinkedHashMap<>();
+        final ByteArrayOutputStream nodes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(nodes);
+        private int line;
+
+        void statement(Stmt stmt) throws IOException {
+            if (stmt instanceof AssignStmt assign) {
+                header(ASSIGN, assign);
+                string(assign.name());
+                expression(assign.expr());
+            } else if (stmt instanceof PrintStmt print) {
+                header(PRINT, print);
+                expression(print.expr());
+            } else if (stmt instanceof ExprStmt exprStmt) {
+                header(EXPRESSION, exprStmt);
+                expression(exprStmt.expr());
+            } else if (stmt instanceof BlockStmt block) {
+                header(BLOCK, block);
+                writeVarint(out, block.statements().size());
+                for (Stmt inner : block.statements()) {
+                    statement(inner);
+                }
+            } else if (stmt instanceof IfStmt ifStmt) {
+                header(ifStmt.elseBranch() != null ? IF_ELSE : IF, ifStmt);
+                expression(ifStmt.condition());
+                statement(ifStmt.thenBranch());
+                if (ifStmt.elseBranch() != null) statement(ifStmt.elseBranch());
+            } else if (stmt instanceof WhileStmt whileStmt) {
+                header(WHILE, whileStmt);
+                expression(whileStmt.condition());
+                statement(whileStmt.body());
+            } else if (stmt instanceof FunStmt function) {
+                header(FUN, function);
+                string(function.name());
+                writeVarint(out, function.params().size());
+                for (String param : function.params()) {
+                    string(param);
+                }
+                writeVarint(out, function.body().size());
+                for (Stmt inner : function.body()) {
+                    statement(inner);
+                }
+            } else if (stmt instanceof ReturnStmt returnStmt) {
+                header(returnStmt.value() != null ? RETURN_VALUE : RETURN, returnStmt);
+                if (returnStmt.value() != null) expression(returnStmt.value());
+            } else {
+                throw new IllegalArgumentException("Unknown statement: " + stmt.getClass().getSimpleName());
+            }
+        }
+
+        void expression(Expr expr) throws IOException {
+            if (expr instanceof LiteralExpr literal) {
+                Object value = literal.value();
+                if (value instanceof Double number && isWhole(number)) {
+                    header(INTEGER, literal);
+                    writeVarint(out, number.intValue());
+                } else if (value instanceof Double number) {
+                    header(NUMBER, literal);
+                    out.writeDouble(number);
+                } else if (value instanceof Boolean bool) {
+                    header(bool ? TRUE : FALSE, literal);
+                } else {
+                    header(STRING, literal);
+                    string(value.toString());
+                }
+            } else if (expr instanceof VariableExpr variable) {
+                header(VARIABLE, variable);
+                string(variable.name());
+            } else if (expr instanceof BinaryExpr binary) {
+                header(BINARY, binary);
+                expression(binary.left());
+                string(binary.operator());
+                expression(binary.right());
+            } else if (expr instanceof UnaryExpr unary) {
+                header(UNARY, unary);
+                string(unary.operator());
+                expression(unary.expr());
+            } else if (expr instanceof IndexExpr index) {
+                header(INDEX, index);
+                expression(index.array());
+                expression(index.index());
+            } else if (expr instanceof CallExpr call) {
+                header(CALL, call);
+                string(call.function().name);
+                expressions(call.args());
+            } else if (expr instanceof ArrayExpr array) {
+                header(ARRAY, array);
+                expressions(array.elements());
+            } else if (expr instanceof InvokeExpr call) {
+                header(INVOKE, call);
+                string(call.name());
+                expressions(call.args());
+            } else {
+                throw new IllegalArgumentException("Unknown expression: " + expr.getClass().getSimpleName());
+            }
+        }
+
+        private void expressions(List<Expr> exprs) throws IOException {
+            writeVarint(out, exprs.size());
+            for (Expr expr : exprs) {
+                expression(expr);
+            }
+        }
+
+        private void header(int tag, Node node) throws IOException {
+            out.writeByte(tag);
+            int delta = node.line() - line;
+            writeVarint(out, (delta << 1) ^ (delta >> 31));
+            line = node.line();
+            writeVarint(out, node.column());
+        }
+
+        private void string(String value) throws IOException {
+            Integer index = strings.get(value);
+            if (index == null) {
+                index = strings.size();
+                strings.put(value, index);
+            }
+            writeVarint(out, index);
+        }
+    }
+}
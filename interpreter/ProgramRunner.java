@@ -0,0 +1,125 @@
+package interpreter;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Runs compiled {@link Program}s concurrently. Every execution gets its own
+ * {@link Environment}, so executions of the same program share nothing mutable
+ * and take no locks in the interpreter.
+ *
+ * <p>Executions run on one virtual thread each when the JVM supports them (Java 21
+ * and later), and on a work-stealing pool with one thread per core otherwise.
+ */
+public final class ProgramRunner implements AutoCloseable {
+    private final Evaluator.Mode mode;
+    private final int jitThreshold;
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+    private final Supplier<? extends OutputSink> output;
+    private volatile ExecutionLimits limits = ExecutionLimits.NONE;
+
+    public ProgramRunner(Evaluator.Mode mode) {
+        this(mode, Evaluator.DEFAULT_JIT_THRESHOLD);
+    }
+
+    public ProgramRunner(Evaluator.Mode mode, int jitThreshold) {
+        this(mode, jitThreshold, OutputSink::stdout);
+    }
+
+    /**
+     * @param output called once per execution for the sink its {@code print} statements
+     *               write to; the sink is flushed when the execution ends
+     */
+    public ProgramRunner(Evaluator.Mode mode, int jitThreshold, Supplier<? extends OutputSink> output) {
+        if (jitThreshold <= 0) {
+            throw new IllegalArgumentException("JIT threshold must be positive");
+        }
+        this.mode = mode;
+        this.jitThreshold = jitThreshold;
+        this.output = Objects.requireNonNull(output);
+        ExecutorService perTask = virtualThreadExecutor();
+        this.virtualThreads = perTask != null;
+        this.executor = perTask != null ? perTask : new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /** Limits for each execution submitted from now on; none by default. */
+    public void setLimits(ExecutionLimits limits) {
+        this.limits = Objects.requireNonNull(limits);
+    }
+
+    /** Starts one execution of {@code program}; completes with its globals by name. */
+    public CompletableFuture<Map<String, Object>> submit(Program program) {
+        return CompletableFuture.supplyAsync(() -> run(program), executor);
+    }
+
+    /**
+     * Runs {@code program} {@code count} times concurrently and waits for all of them.
+     * If any execution fails, its exception is thrown once the others have finished.
+     */
+    public List<Map<String, Object>> runAll(Program program, int count) {
+        List<CompletableFuture<Map<String, Object>>> runs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            runs.add(submit(program));
+        }
+        List<Map<String, Object>> results = new ArrayList<>(count);
+        RuntimeException failure = null;
+        for (CompletableFuture<Map<String, Object>> run : runs) {
+            try {
+                results.add(run.join());
+            } catch (CompletionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof RuntimeException cause ? cause : e;
+                }
+            }
+        }
+        if (failure != null) throw failure;
+        return results;
+    }
+
+    private Map<String, Object> run(Program program) {
+        OutputSink sink = output.get();
+        Environment env = new Environment(program.globalCount(), sink);
+        if (mode == Evaluator.Mode.TIERED) {
+            env.setJitThreshold(jitThreshold);
+        }
+        env.setLimits(limits);
+        try {
+            Evaluator.run(program, env, mode);
+        } finally {
+            sink.flush();
+        }
+        Map<String, Object> globals = new HashMap<>();
+        for (int i = 0; i < program.globalCount(); i++) {
+            Object value = env.getGlobal(i);
+            if (value != null) globals.put(program.globalName(i), ConcatString.flatten(value));
+        }
+        return globals;
+    }
+
+    /** Waits for submitted executions to finish and releases the threads. */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                // Keep waiting; executions cannot be interrupted midway.
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package interpreter;
+
+import java.util.*;
+
+/**
+ * Static pass that runs between {@link Parser} and {@link Evaluator}. It rewrites every
+ * variable reference into a (depth, slot) address and records how many slots each
+ * block needs, mirroring the dynamic rules of the old name-based environment:
+ * reads and assignments bind to the innermost scope that already holds the name,
+ * a new assignment declares the name in the current scope, and a name that is read
+ * before any assignment is looked up in the global frame. An assignment inside a block
+ * only binds to a global that an earlier global-scope assignment (or one in an
+ * enclosing top-level loop) may already have created.
+ *
+ * <p>A function body is resolved like a block with a frame of its own, its parameters
+ * first, except that it sees no globals: every name it reads or assigns is one of its
+ * own variables, declared in its outermost scope if it is read before being assigned.
+ *
+ * <p>Names in {@code predefined} are globals that already exist from earlier
+ * executions (e.g. previous REPL inputs); assignments inside blocks bind to them
+ * instead of declaring a local.
+ */
+public class Resolver {
+    private final Set<String> predefined;
+    private final Map<String, Integer> globals = new LinkedHashMap<>();
+    private final Set<String> assignedGlobals = new HashSet<>();
+    private final Deque<Map<String, Integer>> scopes = new ArrayDeque<>();
+    private boolean inFunction;
+
+    public Resolver() {
+        this(Set.of());
+    }
+
+    public Resolver(Set<String> predefined) {
+        this.predefined = predefined;
+    }
+
+    public Program resolve(List<Stmt> statements) {
+        List<Stmt> resolved = new ArrayList<>(statements.size());
+        for (Stmt stmt : statements) {
+            resolved.add(resolve(stmt));
+        }
+        return new Program(resolved, globals.keySet().toArray(new String[0]));
+    }
+
+    private Stmt resolve(Stmt stmt) {
+        if (stmt instanceof AssignStmt assign) {
+            Expr value = resolve(assign.expr());
+            int[] address = lookupAssignable(assign.name());
+            if (address == null) {
+                address = declare(assign.name());
+            }
+            return Node.at(new AssignStmt(assign.name(), value, address[0], address[1]), assign);
+        }
+        if (stmt instanceof BlockStmt block) {
+            scopes.push(new HashMap<>());
+            List<Stmt> body = new ArrayList<>(block.statements().size());
+            for (Stmt inner : block.statements()) {
+                body.add(resolve(inner));
+            }
+            return Node.at(new BlockStmt(body, scopes.pop().size()), block);
+        }
+        if (stmt instanceof IfStmt ifStmt) {
+            Expr condition = resolve(ifStmt.condition());
+            Stmt thenBranch = resolve(ifStmt.thenBranch());
+            Stmt elseBranch = ifStmt.elseBranch() != null ? resolve(ifStmt.elseBranch()) : null;
+            return Node.at(new IfStmt(condition, thenBranch, elseBranch), ifStmt);
+        }
+        if (stmt instanceof WhileStmt whileStmt) {
+            if (scopes.isEmpty()) {
+                collectGlobalAssignments(whileStmt.body());
+            }
+            Expr condition = resolve(whileStmt.condition());
+            return Node.at(new WhileStmt(condition, resolve(whileStmt.body())), whileStmt);
+        }
+        if (stmt instanceof PrintStmt print) {
+            return Node.at(new PrintStmt(resolve(print.expr())), print);
+        }
+        if (stmt instanceof FunStmt function) {
+            Map<String, Integer> frame = new HashMap<>();
+            for (String param : function.params()) {
+                frame.put(param, frame.size());
+            }
+            scopes.push(frame);
+            inFunction = true;
+            List<Stmt> body = new ArrayList<>(function.body().size());
+            for (Stmt inner : function.body()) {
+                body.add(resolve(inner));
+            }
+            inFunction = false;
+            scopes.pop();
+            return Node.at(new FunStmt(function.name(), function.params(), body, frame.size()), function);
+        }
+        if (stmt instanceof ReturnStmt returnStmt) {
+            Expr value = returnStmt.value() != null ? resolve(returnStmt.value()) : null;
+            return Node.at(new ReturnStmt(value), returnStmt);
+        }
+        if (stmt instanceof ExprStmt exprStmt) {
+            return Node.at(new ExprStmt(resolve(exprStmt.expr())), exprStmt);
+        }
+        throw new IllegalArgumentException("Unknown statement: " + stmt.getClass().getSimpleName());
+    }
+
+    private Expr resolve(Expr expr) {
+        if (expr instanceof VariableExpr variable) {
+            int[] address = lookup(variable.name());
+            return Node.at(new VariableExpr(variable.name(), address[0], address[1]), variable);
+        }
+        if (expr instanceof BinaryExpr binary) {
+            Expr left = resolve(binary.left());
+            return Node.at(new BinaryExpr(left, binary.operator(), resolve(binary.right())), binary);
+        }
+        if (expr instanceof UnaryExpr unary) {
+            return Node.at(new UnaryExpr(unary.operator(), resolve(unary.expr())), unary);
+        }
+        if (expr instanceof IndexExpr index) {
+            Expr array = resolve(index.array());
+            return Node.at(new IndexExpr(array, resolve(index.index())), index);
+        }
+        if (expr instanceof CallExpr call) {
+            return Node.at(new CallExpr(call.function(), resolveAll(call.args())), call);
+        }
+        if (expr instanceof ArrayExpr array) {
+            return Node.at(new ArrayExpr(resolveAll(array.elements())), array);
+        }
+        if (expr instanceof InvokeExpr call) {
+            return Node.at(new InvokeExpr(call.name(), resolveAll(call.args())), call);
+        }
+        if (expr instanceof LiteralExpr) {
+            return expr;
+        }
+        throw new IllegalArgumentException("Unknown expression: " + expr.getClass().getSimpleName());
+    }
+
+    private List<Expr> resolveAll(List<Expr> exprs) {
+        List<Expr> resolved = new ArrayList<>(exprs.size());
+        for (Expr expr : exprs) {
+            resolved.add(resolve(expr));
+        }
+        return resolved;
+    }
+
+    private void collectGlobalAssignments(Stmt stmt) {
+        if (stmt instanceof AssignStmt assign) {
+            assignedGlobals.add(assign.name());
+        } else if (stmt instanceof IfStmt ifStmt) {
+            collectGlobalAssignments(ifStmt.thenBranch());
+            if (ifStmt.elseBranch() != null) collectGlobalAssignments(ifStmt.elseBranch());
+        } else if (stmt instanceof WhileStmt whileStmt) {
+            collectGlobalAssignments(whileStmt.body());
+        }
+    }
+
+    private int[] lookup(String name) {
+        int[] address = lookupLocal(name);
+        if (address != null) return address;
+        if (inFunction) {
+            Map<String, Integer> frame = scopes.peekLast();
+            int slot = frame.size();
+            frame.put(name, slot);
+            return new int[] { scopes.size() - 1, slot };
+        }
+        return new int[] { scopes.size(), globalSlot(name) };
+    }
+
+    private int[] lookupAssignable(String name) {
+        int[] address = lookupLocal(name);
+        if (address == null && !inFunction && (assignedGlobals.contains(name) || predefined.contains(name))) {
+            address = new int[] { scopes.size(), globalSlot(name) };
+        }
+        return address;
+    }
+
+    private int[] lookupLocal(String name) {
+        int depth = 0;
+        for (Map<String, Integer> scope : scopes) {
+            Integer slot = scope.get(name);
+            if (slot != null) return new int[] { depth, slot };
+            depth++;
+        }
+        return null;
+    }
+
+    private int[] declare(String name) {
+        if (scopes.isEmpty()) {
+            assignedGlobals.add(name);
+            return new int[] { 0, globalSlot(name) };
+        }
+        Map<String, Integer> scope = scopes.peek();
+        int slot = scope.size();
+        scope.put(name, slot);
+        return new int[] { 0, slot };
+    }
+
+    private int globalSlot(String name) {
+        return globals.computeIfAbsent(name, n -> globals.size());
+    }
+}
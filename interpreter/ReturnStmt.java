@@ -0,0 +1,44 @@
+package interpreter;
+
+/**
+ * {@code return value;} or {@code return;}, only inside a function. Returning a call
+ * passes on whatever the callee returns, value or none; a call of the running function
+ * restarts it instead of nesting (see {@link Function}).
+ */
+public class ReturnStmt extends Node implements Stmt {
+    private final Expr value;
+
+    public ReturnStmt(Expr value) {
+        this.value = value;
+    }
+
+    /** The returned expression, or null for a bare {@code return}. */
+    Expr value() {
+        return value;
+    }
+
+    @Override
+    public void execute(Environment env) {
+        Object result = null;
+        if (value instanceof InvokeExpr call) {
+            call.pushArguments(env);
+            Function target = call.target(env);
+            if (target == env.callee()) throw Signal.TAIL_CALL;
+            result = target.invoke(env);
+        } else if (value != null) {
+            result = value.eval(env);
+        }
+        env.setResult(result);
+        throw Signal.RETURN;
+    }
+
+    /** Unwinds to the running {@link Function}; the value, if any, waits in the environment. */
+    static final class Signal extends RuntimeException {
+        static final Signal RETURN = new Signal();
+        static final Signal TAIL_CALL = new Signal();
+
+        private Signal() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -11,12 +11,87 @@ public class Token {
         EOF
     }
 
+    /**
+     * Exact token kind, so the parser can match with an enum comparison. Kinds other
+     * than NUMBER, IDENTIFIER and STRING always have the same text.
+     */
+    public enum Kind {
+        NUMBER(Type.NUMBER, null),
+        IDENTIFIER(Type.IDENTIFIER, null),
+        STRING(Type.STRING, null),
+        IF(Type.KEYWORD, "if"),
+        ELSE(Type.KEYWORD, "else"),
+        WHILE(Type.KEYWORD, "while"),
+        TRUE(Type.KEYWORD, "true"),
+        FALSE(Type.KEYWORD, "false"),
+        PRINT(Type.KEYWORD, "print"),
+        FUN(Type.KEYWORD, "fun"),
+        RETURN(Type.KEYWORD, "return"),
+        PLUS(Type.OPERATOR, "+"),
+        MINUS(Type.OPERATOR, "-"),
+        STAR(Type.OPERATOR, "*"),
+        SLASH(Type.OPERATOR, "/"),
+        PERCENT(Type.OPERATOR, "%"),
+        EQUAL_EQUAL(Type.OPERATOR, "=="),
+        BANG_EQUAL(Type.OPERATOR, "!="),
+        LESS(Type.OPERATOR, "<"),
+        GREATER(Type.OPERATOR, ">"),
+        LESS_EQUAL(Type.OPERATOR, "<="),
+        GREATER_EQUAL(Type.OPERATOR, ">="),
+        AND(Type.OPERATOR, "&&"),
+        OR(Type.OPERATOR, "||"),
+        BANG(Type.OPERATOR, "!"),
+        ASSIGN(Type.SYMBOL, "="),
+        SEMICOLON(Type.SYMBOL, ";"),
+        LEFT_PAREN(Type.SYMBOL, "("),
+        RIGHT_PAREN(Type.SYMBOL, ")"),
+        LEFT_BRACE(Type.SYMBOL, "{"),
+        RIGHT_BRACE(Type.SYMBOL, "}"),
+        LEFT_BRACKET(Type.SYMBOL, "["),
+        RIGHT_BRACKET(Type.SYMBOL, "]"),
+        COMMA(Type.SYMBOL, ","),
+        EOF(Type.EOF, "");
+
+        static final Kind[] VALUES = values();
+
+        public final Type type;
+        public final String text;
+
+        Kind(Type type, String text) {
+            this.type = type;
+            this.text = text;
+        }
+    }
+
     public final Type type;
     public final String text;
+    public final Kind kind;
+    /** 1-based position of the token's first character; 0 if the token was not lexed. */
+    public final int line;
+    public final int column;
 
     public Token(Type type, String text) {
-        this.type = type;
+        this(kindOf(type, text), text, 0, 0);
+    }
+
+    Token(Kind kind, String text, int line, int column) {
+        this.type = kind.type;
         this.text = text;
+        this.kind = kind;
+        this.line = line;
+        this.column = column;
+    }
+
+    private static Kind kindOf(Type type, String text) {
+        switch (type) {
+            case NUMBER: return Kind.NUMBER;
+            case IDENTIFIER: return Kind.IDENTIFIER;
+            case STRING: return Kind.STRING;
+        }
+        for (Kind kind : Kind.VALUES) {
+            if (kind.type == type && kind.text.equals(text)) return kind;
+        }
+        throw new IllegalArgumentException("Unknown " + type + " token: " + text);
     }
 
     @Override
@@ -0,0 +1,84 @@
+package interpreter;
+
+import java.util.Arrays;
+
+/**
+ * Token stream stored as parallel arrays: the kind of each token, the offset and
+ * length of its source text in the {@link Lexer}'s character buffer, and its line
+ * and column. Text is only turned
+ * into a String when the parser asks for it, see {@link Lexer#text}.
+ */
+final class TokenBuffer {
+    private byte[] kinds = new byte[64];
+    private int[] starts = new int[64];
+    private int[] lengths = new int[64];
+    private int[] lines = new int[64];
+    private int[] columns = new int[64];
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    Token.Kind kind(int index) {
+        return Token.Kind.VALUES[kinds[index]];
+    }
+
+    int start(int index) {
+        return starts[index];
+    }
+
+    int length(int index) {
+        return lengths[index];
+    }
+
+    int line(int index) {
+        return lines[index];
+    }
+
+    int column(int index) {
+        return columns[index];
+    }
+
+    void add(Token.Kind kind, int start, int length, int line, int column) {
+        if (size == kinds.length) {
+            kinds = Arrays.copyOf(kinds, size * 2);
+            starts = Arrays.copyOf(starts, size * 2);
+            lengths = Arrays.copyOf(lengths, size * 2);
+            lines = Arrays.copyOf(lines, size * 2);
+            columns = Arrays.copyOf(columns, size * 2);
+        }
+        kinds[size] = (byte) kind.ordinal();
+        starts[size] = start;
+        lengths[size] = length;
+        lines[size] = line;
+        columns[size] = column;
+        size++;
+    }
+
+    Token.Kind last() {
+        return kind(size - 1);
+    }
+
+    /** Drops the last token. */
+    void removeLast() {
+        size--;
+    }
+
+    /** Drops the first {@code count} tokens. */
+    void discard(int count) {
+        System.arraycopy(kinds, count, kinds, 0, size - count);
+        System.arraycopy(starts, count, starts, 0, size - count);
+        System.arraycopy(lengths, count, lengths, 0, size - count);
+        System.arraycopy(lines, count, lines, 0, size - count);
+        System.arraycopy(columns, count, columns, 0, size - count);
+        size -= count;
+    }
+
+    /** Called when the lexer moves its buffer contents {@code distance} characters to the left. */
+    void shift(int distance) {
+        for (int i = 0; i < size; i++) {
+            starts[i] -= distance;
+        }
+    }
+}
@@ -0,0 +1,581 @@
+package interpreter;
+
+import java.util.*;
+
+/**
+ * Static type inference over a resolved {@link Program}, run before it executes. A type
+ * is the set of kinds of value (number, boolean, string, array) an expression can
+ * produce; variables get one at every point of the program, following assignments
+ * through branches and to a fixpoint around loops. Globals start out with the kinds of
+ * the values they hold when the program is checked, or any kind if those are unknown.
+ *
+ * <p>An operation that fails for every combination of kinds its operands can have is a
+ * type error, reported before anything runs, even if only some runs would reach it.
+ * Code that can never run, behind a constant condition or after a loop that never ends,
+ * is not checked, so it does not matter whether the {@link Optimizer} removed it first.
+ * Reading a variable that is not assigned yet is left for the runtime to report.
+ *
+ * <p>Operators, negations and number assignments whose operand types are proven are
+ * rebuilt already specialized for them: they skip the profiling of their first
+ * evaluation and the generic path. Proven operators and negations run without type
+ * guards, so a condition made of them is evaluated without any type check. Loops
+ * record which variables hold a number each time their condition is tested, so the
+ * {@link LoopCompiler} can keep those unboxed.
+ */
+final class TypeChecker {
+    // Kinds of value, one bit each; UNSET marks a variable that may not be assigned yet.
+    private static final int NUMBER = 1;
+    private static final int BOOLEAN = 2;
+    private static final int STRING = 4;
+    private static final int ARRAY = 8;
+    private static final int ANY = NUMBER | BOOLEAN | STRING | ARRAY;
+    private static final int UNSET = 16;
+    private static final String[] NAMES = { "Double", "Boolean", "String", "Array" };
+
+    // Values of the globals when the program will start, or null if they are unknown.
+    private final Map<String, Object> globals;
+    // Types of the variables in scope, by frame level then slot.
+    private int[][] frames = new int[8][];
+    private int level = -1;
+    // Whether some run can get to the point being analyzed; types mean nothing where none can.
+    private boolean reachable = true;
+    // Earlier types of the variables assigned, in order, so that a branch or a loop body
+    // can be analyzed and then undone; only what it changed is merged back.
+    private int[][] trailFrames = new int[64][];
+    private int[] trailSlots = new int[64];
+    private int[] trailTypes = new int[64];
+    private int trail;
+    // Whether types are final, so errors are reported and proven nodes recorded; off
+    // while a loop body is analyzed towards its fixpoint.
+    private boolean settled = true;
+    // What each proven node is rebuilt with: a specialization, TRUE for assignments, or
+    // the variables proven numbers at the head of a loop.
+    private final Map<Node, Object> proven = new IdentityHashMap<>();
+
+    /** A checker for programs run without known globals, e.g. by a {@link ProgramRunner}. */
+    TypeChecker() {
+        this(null);
+    }
+
+    TypeChecker(Map<String, Object> globals) {
+        this.globals = globals;
+    }
+
+    /**
+     * Checks {@code program}, throwing on the first type error, and returns it with proven
+     * nodes specialized. The error is not printed; its message says where it is.
+     */
+    Program check(Program program) {
+        int[] frame = push(program.globalCount());
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = globals == null ? ANY | UNSET : kind(globals.get(program.globalName(i)));
+        }
+        List<Stmt> statements = program.statements();
+        for (int i = 0; i < statements.size(); i++) {
+            try {
+                analyze(statements.get(i));
+            } catch (TypeError e) {
+                e.checked = rewrite(program, statements.subList(0, i));
+                throw e;
+            }
+        }
+        return proven.isEmpty() ? program : rewrite(program, statements);
+    }
+
+    private Program rewrite(Program program, List<Stmt> statements) {
+        List<Stmt> rewritten = new ArrayList<>(statements.size());
+        for (Stmt stmt : statements) {
+            rewritten.add(rewrite(stmt));
+        }
+        return program.with(rewritten);
+    }
+
+    private void analyze(Stmt stmt) {
+        if (stmt instanceof AssignStmt assign) {
+            int type = type(assign.expr());
+            if (!reachable) return;
+            set(frames[level - assign.depth()], assign.slot(), type);
+            if (settled && type == NUMBER) proven.put(assign, Boolean.TRUE);
+        } else if (stmt instanceof PrintStmt print) {
+            type(print.expr());
+        } else if (stmt instanceof ExprStmt exprStmt) {
+            type(exprStmt.expr());
+        } else if (stmt instanceof BlockStmt block) {
+            push(block.slots());
+            for (Stmt inner : block.statements()) {
+                analyze(inner);
+            }
+            level--;
+        } else if (stmt instanceof IfStmt ifStmt) {
+            analyze(ifStmt);
+        } else if (stmt instanceof WhileStmt whileStmt) {
+            analyze(whileStmt);
+        } else if (stmt instanceof FunStmt function) {
+            // Parameters can be anything; the function sees nothing else from outside.
+            int[][] outerFrames = frames;
+            int outerLevel = level;
+            boolean reached = reachable;
+            frames = new int[8][];
+            level = -1;
+            reachable = true;
+            int[] frame = push(function.slots());
+            Arrays.fill(frame, 0, function.params().size(), ANY);
+            for (Stmt inner : function.body()) {
+                analyze(inner);
+            }
+            frames = outerFrames;
+            level = outerLevel;
+            reachable = reached;
+        } else if (stmt instanceof ReturnStmt returnStmt) {
+            if (returnStmt.value() != null) type(returnStmt.value());
+            reachable = false;
+        } else {
+            throw new IllegalArgumentException("Unknown statement: " + stmt.getClass().getSimpleName());
+        }
+    }
+    private void analyze(IfStmt ifStmt) {
+        int condition = type(ifStmt.condition());
+        if (condition != 0 && (condition & BOOLEAN) == 0) {
+            report(ifStmt, "Condition must evaluate to a boolean.");
+        }
+        Object constant = constant(ifStmt.condition());
+        boolean reached = reachable;
+        int mark = trail;
+        Map<Location, int[]> changes = new HashMap<>();
+        reachable = reached && !Boolean.FALSE.equals(constant);
+        analyze(ifStmt.thenBranch());
+        boolean thenReached = reachable;
+        collect(mark, changes, 1);
+        reachable = reached && !Boolean.TRUE.equals(constant);
+        if (ifStmt.elseBranch() != null) analyze(ifStmt.elseBranch());
+        boolean elseReached = reachable;
+        collect(mark, changes, 2);
+        reachable = thenReached || elseReached;
+        if (!reachable) return;
+        for (Map.Entry<Location, int[]> change : changes.entrySet()) {
+            int[] types = change.getValue();
+            int type = (thenReached ? types[1] : 0) | (elseReached ? types[2] : 0);
+            set(change.getKey().frame(), change.getKey().slot(), type);
+        }
+    }
+
+    private void analyze(WhileStmt whileStmt) {
+        Object constant = constant(whileStmt.condition());
+        if (constant != null && !Boolean.TRUE.equals(constant)) {
+            // Anything but true ends the loop, so a constant other than true never runs the body.
+            type(whileStmt.condition());
+            boolean reached = reachable;
+            reachable = false;
+            analyze(whileStmt.body());
+            reachable = reached;
+            return;
+        }
+        if (!reachable) {
+            return;
+        }
+        // Widen the types at the head of the loop by those at the end of its body until
+        // another iteration adds nothing.
+        boolean outer = settled;
+        settled = false;
+        boolean widened = true;
+        while (widened) {
+            int mark = trail;
+            type(whileStmt.condition());
+            analyze(whileStmt.body());
+            boolean looped = reachable;
+            Map<Location, int[]> changes = new HashMap<>();
+            collect(mark, changes, 1);
+            reachable = true;
+            widened = false;
+            if (!looped) break;
+            for (Map.Entry<Location, int[]> change : changes.entrySet()) {
+                int[] types = change.getValue();
+                if ((types[0] | types[1]) != types[0]) {
+                    set(change.getKey().frame(), change.getKey().slot(), types[0] | types[1]);
+                    widened = true;
+                }
+            }
+        }
+        settled = outer;
+        if (settled) proven.put(whileStmt, numbers());
+        int mark = trail;
+        type(whileStmt.condition());
+        // The loop only ends through its condition, which a constant true never fails.
+        boolean ends = reachable && constant == null;
+        if (settled) {
+            analyze(whileStmt.body());
+            collect(mark, new HashMap<>(), 1);
+        }
+        reachable = ends;
+    }
+
+    /** Slots of the variables in scope that hold a number, by depth from the current level. */
+    private int[][] numbers() {
+        int[][] numbers = new int[level + 1][];
+        for (int depth = 0; depth <= level; depth++) {
+            int[] frame = frames[level - depth];
+            int count = 0;
+            int[] slots = new int[frame.length];
+            for (int slot = 0; slot < frame.length; slot++) {
+                if (frame[slot] == NUMBER) slots[count++] = slot;
+            }
+            numbers[depth] = Arrays.copyOf(slots, count);
+        }
+        return numbers;
+    }
+
+    /** The kinds {@code expr} can evaluate to; 0 if it never produces a value or is not reached. */
+    private int type(Expr expr) {
+        if (expr instanceof LiteralExpr literal) {
+            return reachable ? kind(literal.value()) : 0;
+        }
+        if (expr instanceof VariableExpr variable) {
+            if (!reachable) return 0;
+            int type = frames[level - variable.depth()][variable.slot()] & ANY;
+            // Never assigned here, so the read fails and nothing after it runs.
+            if (type == 0) reachable = false;
+            return type;
+        }
+        if (expr instanceof BinaryExpr binary) {
+            return type(binary);
+        }
+        if (expr instanceof UnaryExpr unary) {
+            int operand = type(unary.expr());
+            if (operand == 0) return 0;
+            boolean negate = unary.operator().equals("-");
+            int result = negate ? operand & (NUMBER | ARRAY) : operand & BOOLEAN;
+            if (result == 0) return report(unary, "Invalid unary operation.");
+            if (settled && operand == (negate ? NUMBER : BOOLEAN)) {
+                proven.put(unary, negate ? UnaryExpr.Specialization.NEGATE : UnaryExpr.Specialization.NOT);
+            }
+            return result;
+        }
+        if (expr instanceof IndexExpr index) {
+            int array = type(index.array());
+            int position = type(index.index());
+            if (array == 0 || position == 0) return 0;
+            if ((position & NUMBER) == 0) return report(index, "Array index must be a number, got " + name(position));
+            if ((array & ARRAY) == 0) return report(index, "Only arrays can be indexed, got " + name(array));
+            return NUMBER;
+        }
+        if (expr instanceof CallExpr call) {
+            int[] args = types(call.args());
+            if (args == null) return 0;
+            Builtin builtin = call.function();
+            boolean numbers = builtin == Builtin.RANGE || builtin == Builtin.FILL;
+            for (int arg : args) {
+                if ((arg & (numbers ? NUMBER : ARRAY)) == 0) {
+                    String expected = numbers ? "a number" : "an array";
+                    return report(call, builtin.name + " expects " + expected + ", got " + name(arg));
+                }
+            }
+            return numbers ? ARRAY : NUMBER;
+        }
+        if (expr instanceof ArrayExpr array) {
+            int[] elements = types(array.elements());
+            if (elements == null) return 0;
+            for (int element : elements) {
+                if ((element & NUMBER) == 0) return report(array, "Array elements must be numbers, got " + name(element));
+            }
+            return ARRAY;
+        }
+        if (expr instanceof InvokeExpr call) {
+            return types(call.args()) == null ? 0 : ANY;
+        }
+        if (expr instanceof CachedExpr cached) {
+            return type(cached.expr());
+        }
+        throw new IllegalArgumentException("Unknown expression: " + expr.getClass().getSimpleName());
+    }
+
+    private int type(BinaryExpr binary) {
+        String operator = binary.operator();
+        int left = type(binary.left());
+        if (operator.equals("&&") || operator.equals("||")) {
+            // The right operand is only reached when the left one does not decide the result.
+            Object decided = constant(binary.left());
+            boolean reached = reachable;
+            if (decided instanceof Boolean && decided.equals(operator.equals("||"))) reachable = false;
+            int right = type(binary.right());
+            reachable = reached;
+            if (left == 0) return 0;
+            // A left operand that is not a boolean fails once the right one has been evaluated
+            // too. A right operand that is not one only fails when the left one does not decide,
+            // so that is left to the runtime.
+            if ((left & BOOLEAN) == 0) return right == 0 ? 0 : mismatch(binary, left, right);
+            return BOOLEAN;
+        }
+        int right = type(binary.right());
+        if (left == 0 || right == 0) return 0;
+        int result = 0;
+        for (int l = NUMBER; l <= ARRAY; l <<= 1) {
+            for (int r = NUMBER; r <= ARRAY; r <<= 1) {
+                if ((left & l) != 0 && (right & r) != 0) result |= result(operator, l, r);
+            }
+        }
+        if (result == 0) return mismatch(binary, left, right);
+        if (settled) {
+            BinaryExpr.Specialization specialization = null;
+            if (left == NUMBER && right == NUMBER) {
+                specialization = BinaryExpr.Specialization.forNumbers(operator);
+            } else if (left == BOOLEAN && right == BOOLEAN) {
+                specialization = BinaryExpr.Specialization.forBooleans(operator);
+            } else if ((left == STRING || right == STRING) && operator.equals("+")) {
+                specialization = BinaryExpr.Specialization.CONCAT;
+            }
+            if (specialization != null && specialization != BinaryExpr.Specialization.GENERIC) {
+                proven.put(binary, specialization);
+            }
+        }
+        return result;
+    }
+
+    /** The kind of {@code l operator r} for operands of one kind each, or 0 if it fails. */
+    private static int result(String operator, int l, int r) {
+        switch (operator) {
+            case "+":
+                if (l == STRING || r == STRING) return STRING;
+                // Fall through to the other arithmetic operators.
+            case "-": case "*": case "/": case "%":
+                if (l == NUMBER && r == NUMBER) return NUMBER;
+                if ((l | r) == ARRAY || (l | r) == (ARRAY | NUMBER)) return ARRAY;
+                return 0;
+            case "==": case "!=":
+                return l == r && (l == NUMBER || l == BOOLEAN) ? BOOLEAN : 0;
+            default:
+                return l == NUMBER && r == NUMBER ? BOOLEAN : 0;
+        }
+    }
+
+    /** Types of arguments that are all evaluated before any is checked; null if one never produces a value. */
+    private int[] types(List<Expr> exprs) {
+        int[] result = new int[exprs.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = type(exprs.get(i));
+        }
+        return reachable ? result : null;
+    }
+
+    /**
+     * The value of a condition made of literals, as the {@link Optimizer} would fold it,
+     * or null if it is not constant.
+     */
+    private static Object constant(Expr expr) {
+        if (expr instanceof LiteralExpr literal) {
+            return literal.value();
+        }
+        try {
+            if (expr instanceof BinaryExpr binary) {
+                Object left = constant(binary.left());
+                String operator = binary.operator();
+                if (left instanceof Boolean decided && (operator.equals("&&") ? !decided : operator.equals("||") && decided)) {
+                    return left;
+                }
+                Object right = left != null ? constant(binary.right()) : null;
+                return right != null ? BinaryExpr.apply(operator, left, right) : null;
+            }
+            if (expr instanceof UnaryExpr unary) {
+                Object operand = constant(unary.expr());
+                return operand != null ? UnaryExpr.apply(unary.operator(), operand) : null;
+            }
+        } catch (RuntimeException e) {
+            // Fails when run, so it is not folded either.
+        }
+        return null;
+    }
+
+    private static int kind(Object value) {
+        if (value == null) return UNSET;
+        if (value instanceof Double) return NUMBER;
+        if (value instanceof Boolean) return BOOLEAN;
+        if (ConcatString.isString(value)) return STRING;
+        if (value instanceof DoubleArray) return ARRAY;
+        return ANY;
+    }
+
+    private static String name(int type) {
+        StringJoiner names = new StringJoiner(" or ");
+        for (int i = 0; i < NAMES.length; i++) {
+            if ((type & 1 << i) != 0) names.add(NAMES[i]);
+        }
+        return names.toString();
+    }
+
+    /** Enters a frame of {@code slots} unassigned variables. */
+    private int[] push(int slots) {
+        level++;
+        if (level == frames.length) {
+            frames = Arrays.copyOf(frames, level * 2);
+        }
+        int[] frame = new int[slots];
+        Arrays.fill(frame, UNSET);
+        frames[level] = frame;
+        return frame;
+    }
+
+    private void set(int[] frame, int slot, int type) {
+        if (frame[slot] == type) return;
+        if (trail == trailSlots.length) {
+            trailFrames = Arrays.copyOf(trailFrames, trail * 2);
+            trailSlots = Arrays.copyOf(trailSlots, trail * 2);
+            trailTypes = Arrays.copyOf(trailTypes, trail * 2);
+        }
+        trailFrames[trail] = frame;
+        trailSlots[trail] = slot;
+        trailTypes[trail] = frame[slot];
+        trail++;
+        frame[slot] = type;
+    }
+
+    private boolean inScope(int[] frame) {
+        for (int i = level; i >= 0; i--) {
+            if (frames[i] == frame) return true;
+        }
+        return false;
+    }
+
+    /** Where the type of a variable is kept. */
+    private record Location(int[] frame, int slot) {
+    }
+
+    /**
+     * Undoes the assignments since {@code mark}. Each variable still in scope that they
+     * changed gets an entry in {@code changes} that holds its type at the mark first, and
+     * its type before the undo at {@code path}; a variable another path changed but this
+     * one did not keeps its type at the mark there.
+     */
+    private void collect(int mark, Map<Location, int[]> changes, int path) {
+        for (int i = mark; i < trail; i++) {
+            if (!inScope(trailFrames[i])) continue;
+            Location at = new Location(trailFrames[i], trailSlots[i]);
+            if (!changes.containsKey(at)) {
+                int before = trailTypes[i];
+                changes.put(at, new int[] { before, before, before });
+            }
+        }
+        for (Map.Entry<Location, int[]> change : changes.entrySet()) {
+            change.getValue()[path] = change.getKey().frame()[change.getKey().slot()];
+        }
+        for (int i = trail - 1; i >= mark; i--) {
+            trailFrames[i][trailSlots[i]] = trailTypes[i];
+            trailFrames[i] = null;
+        }
+        trail = mark;
+    }
+
+    private int mismatch(BinaryExpr binary, int left, int right) {
+        return report(binary, "Type mismatch in binary expression: "
+                + name(left) + " " + binary.operator() + " " + name(right));
+    }
+
+    /**
+     * Throws the type error once types are settled; before that, returns 0, the type of
+     * an operation that never produces a value, and marks what follows unreachable.
+     */
+    private int report(Node node, String message) {
+        if (!settled) {
+            reachable = false;
+            return 0;
+        }
+        String where = node.line() > 0 ? " (line " + node.line() + ", column " + node.column() + ")" : "";
+        throw new TypeError("Type error" + where + ": " + message);
+    }
+
+    /** A type error, with the top-level statements before the one it is in, checked. */
+    static final class TypeError extends RuntimeException {
+        private Program checked;
+
+        TypeError(String message) {
+            super(message);
+        }
+
+        /** The top-level statements that would have run before the error if they were streamed. */
+        Program checked() {
+            return checked;
+        }
+    }
+
+    private Stmt rewrite(Stmt stmt) {
+        if (stmt instanceof AssignStmt assign) {
+            Expr expr = rewrite(assign.expr());
+            AssignStmt copy = new AssignStmt(assign.name(), expr, assign.depth(), assign.slot(),
+                    assign.invalidates(), proven.containsKey(assign));
+            return Node.at(copy, assign);
+        }
+        if (stmt instanceof PrintStmt print) {
+            return Node.at(new PrintStmt(rewrite(print.expr())), print);
+        }
+        if (stmt instanceof ExprStmt exprStmt) {
+            return Node.at(new ExprStmt(rewrite(exprStmt.expr())), exprStmt);
+        }
+        if (stmt instanceof BlockStmt block) {
+            return Node.at(new BlockStmt(rewriteAll(block.statements()), block.slots()), block);
+        }
+        if (stmt instanceof IfStmt ifStmt) {
+            Stmt elseBranch = ifStmt.elseBranch() != null ? rewrite(ifStmt.elseBranch()) : null;
+            IfStmt copy = new IfStmt(rewrite(ifStmt.condition()), rewrite(ifStmt.thenBranch()), elseBranch);
+            return Node.at(copy, ifStmt);
+        }
+        if (stmt instanceof WhileStmt whileStmt) {
+            int[][] numbers = (int[][]) proven.getOrDefault(whileStmt, WhileStmt.NO_NUMBERS);
+            WhileStmt copy = new WhileStmt(rewrite(whileStmt.condition()), rewrite(whileStmt.body()),
+                    whileStmt.cached(), whileStmt.clobbered(), numbers);
+            return Node.at(copy, whileStmt);
+        }
+        if (stmt instanceof FunStmt function) {
+            List<Stmt> body = rewriteAll(function.body());
+            return Node.at(new FunStmt(function.name(), function.params(), body, function.slots()), function);
+        }
+        if (stmt instanceof ReturnStmt returnStmt) {
+            Expr value = returnStmt.value() != null ? rewrite(returnStmt.value()) : null;
+            return Node.at(new ReturnStmt(value), returnStmt);
+        }
+        throw new IllegalArgumentException("Unknown statement: " + stmt.getClass().getSimpleName());
+    }
+
+    private List<Stmt> rewriteAll(List<Stmt> statements) {
+        List<Stmt> rewritten = new ArrayList<>(statements.size());
+        for (Stmt stmt : statements) {
+            rewritten.add(rewrite(stmt));
+        }
+        return rewritten;
+    }
+
+    private Expr rewrite(Expr expr) {
+        if (expr instanceof BinaryExpr binary) {
+            Expr left = rewrite(binary.left());
+            BinaryExpr.Specialization specialization = (BinaryExpr.Specialization) proven.get(binary);
+            BinaryExpr copy = new BinaryExpr(left, binary.operator(), rewrite(binary.right()), specialization);
+            return Node.at(copy, binary);
+        }
+        if (expr instanceof UnaryExpr unary) {
+            UnaryExpr.Specialization specialization = (UnaryExpr.Specialization) proven.get(unary);
+            return Node.at(new UnaryExpr(unary.operator(), rewrite(unary.expr()), specialization), unary);
+        }
+        if (expr instanceof IndexExpr index) {
+            Expr array = rewrite(index.array());
+            return Node.at(new IndexExpr(array, rewrite(index.index())), index);
+        }
+        if (expr instanceof CallExpr call) {
+            return Node.at(new CallExpr(call.function(), rewriteExprs(call.args())), call);
+        }
+        if (expr instanceof ArrayExpr array) {
+            return Node.at(new ArrayExpr(rewriteExprs(array.elements())), array);
+        }
+        if (expr instanceof InvokeExpr call) {
+            return Node.at(new InvokeExpr(call.name(), rewriteExprs(call.args())), call);
+        }
+        if (expr instanceof CachedExpr cached) {
+            return Node.at(new CachedExpr(rewrite(cached.expr()), cached.slot()), cached);
+        }
+        return expr;
+    }
+
+    private List<Expr> rewriteExprs(List<Expr> exprs) {
+        List<Expr> rewritten = new ArrayList<>(exprs.size());
+        for (Expr expr : exprs) {
+            rewritten.add(rewrite(expr));
+        }
+        return rewritten;
+    }
+}
@@ -1,22 +1,215 @@
 package interpreter;
 
-public class UnaryExpr implements Expr {
+public class UnaryExpr extends Node implements Expr {
     private final String operator;
     private final Expr expr;
+    // Chosen from the operand type seen on the first evaluation, or fixed at construction
+    // to an unguarded one when the TypeChecker has proven it.
+    private Specialization specialization;
+    private final Specialization proven;
 
     public UnaryExpr(String operator, Expr expr) {
+        this(operator, expr, null);
+    }
+
+    UnaryExpr(String operator, Expr expr, Specialization proven) {
         this.operator = operator;
         this.expr = expr;
+        this.proven = proven;
+        if (proven == Specialization.NEGATE) {
+            specialization = Specialization.UNGUARDED_NEGATE;
+        } else if (proven == Specialization.NOT) {
+            specialization = Specialization.UNGUARDED_NOT;
+        } else {
+            specialization = proven;
+        }
+    }
+
+    /** The same operation, with what is proven about it, on another operand of the same type. */
+    UnaryExpr with(Expr expr) {
+        return new UnaryExpr(operator, expr, proven);
+    }
+
+    String operator() {
+        return operator;
+    }
+
+    /** The specialization the TypeChecker proved, or null. */
+    Specialization proven() {
+        return proven;
+    }
+
+    Expr expr() {
+        return expr;
     }
 
     @Override
     public Object eval(Environment env) {
+        Specialization current = specialization;
+        if (current != null) {
+            return current.execute(this, env);
+        }
         Object value = expr.eval(env);
+        return specialize(value).apply(this, value);
+    }
+
+    @Override
+    public double evalDouble(Environment env) throws UnexpectedResultException {
+        Specialization current = specialization;
+        return current != null ? current.executeDouble(this, env) : Expr.asDouble(eval(env));
+    }
+
+    @Override
+    public boolean evalBoolean(Environment env) throws UnexpectedResultException {
+        Specialization current = specialization;
+        return current != null ? current.executeBoolean(this, env) : Expr.asBoolean(eval(env));
+    }
 
-        if (value instanceof Integer && operator.equals("-")) {
-            return -(Integer) value;
+    private Specialization specialize(Object value) {
+        Specialization chosen = Specialization.GENERIC;
+        if (value instanceof Double && operator.equals("-")) {
+            chosen = Specialization.NEGATE;
+        } else if (value instanceof Boolean && operator.equals("!")) {
+            chosen = Specialization.NOT;
+        }
+        specialization = chosen;
+        return chosen;
+    }
+
+    private Object generalize(Object value) {
+        specialization = Specialization.GENERIC;
+        return apply(operator, value);
+    }
+
+    static Object apply(String operator, Object value) {
+        if (value instanceof Double && operator.equals("-")) {
+            return -(Double) value;
+        }
+        if (value instanceof Boolean && operator.equals("!")) {
+            return !(Boolean) value;
+        }
+        if (value instanceof DoubleArray array && operator.equals("-")) {
+            return array.negate();
         }
 
         throw new RuntimeException("Invalid unary operation.");
     }
+
+    abstract static class Specialization {
+        static final Specialization GENERIC = new Specialization() {
+            @Override
+            Object apply(UnaryExpr node, Object value) {
+                return UnaryExpr.apply(node.operator, value);
+            }
+        };
+
+        static final Specialization NEGATE = new Specialization() {
+            @Override
+            Object apply(UnaryExpr node, Object value) {
+                if (value instanceof Double) return -(Double) value;
+                return node.generalize(value);
+            }
+
+            @Override
+            Object execute(UnaryExpr node, Environment env) {
+                try {
+                    return executeDouble(node, env);
+                } catch (UnexpectedResultException e) {
+                    return e.getResult();
+                }
+            }
+
+            @Override
+            double executeDouble(UnaryExpr node, Environment env) throws UnexpectedResultException {
+                try {
+                    return -node.expr.evalDouble(env);
+                } catch (UnexpectedResultException e) {
+                    return Expr.asDouble(node.generalize(e.getResult()));
+                }
+            }
+        };
+
+        static final Specialization NOT = new Specialization() {
+            @Override
+            Object apply(UnaryExpr node, Object value) {
+                if (value instanceof Boolean) return !(Boolean) value;
+                return node.generalize(value);
+            }
+
+            @Override
+            Object execute(UnaryExpr node, Environment env) {
+                try {
+                    return executeBoolean(node, env);
+                } catch (UnexpectedResultException e) {
+                    return e.getResult();
+                }
+            }
+
+            @Override
+            boolean executeBoolean(UnaryExpr node, Environment env) throws UnexpectedResultException {
+                try {
+                    return !node.expr.evalBoolean(env);
+                } catch (UnexpectedResultException e) {
+                    return Expr.asBoolean(node.generalize(e.getResult()));
+                }
+            }
+        };
+
+        // For operands the TypeChecker has proven a number or a boolean: no guard.
+        static final Specialization UNGUARDED_NEGATE = new Specialization() {
+            @Override
+            Object apply(UnaryExpr node, Object value) {
+                return UnaryExpr.apply(node.operator, value);
+            }
+
+            @Override
+            Object execute(UnaryExpr node, Environment env) {
+                try {
+                    return executeDouble(node, env);
+                } catch (UnexpectedResultException e) {
+                    throw BinaryExpr.Unguarded.unproven(e);
+                }
+            }
+
+            @Override
+            double executeDouble(UnaryExpr node, Environment env) throws UnexpectedResultException {
+                return -node.expr.evalDouble(env);
+            }
+        };
+
+        static final Specialization UNGUARDED_NOT = new Specialization() {
+            @Override
+            Object apply(UnaryExpr node, Object value) {
+                return UnaryExpr.apply(node.operator, value);
+            }
+
+            @Override
+            Object execute(UnaryExpr node, Environment env) {
+                try {
+                    return executeBoolean(node, env);
+                } catch (UnexpectedResultException e) {
+                    throw BinaryExpr.Unguarded.unproven(e);
+                }
+            }
+
+            @Override
+            boolean executeBoolean(UnaryExpr node, Environment env) throws UnexpectedResultException {
+                return !node.expr.evalBoolean(env);
+            }
+        };
+
+        abstract Object apply(UnaryExpr node, Object value);
+
+        Object execute(UnaryExpr node, Environment env) {
+            return apply(node, node.expr.eval(env));
+        }
+
+        double executeDouble(UnaryExpr node, Environment env) throws UnexpectedResultException {
+            return Expr.asDouble(execute(node, env));
+        }
+
+        boolean executeBoolean(UnaryExpr node, Environment env) throws UnexpectedResultException {
+            return Expr.asBoolean(execute(node, env));
+        }
+    }
 }
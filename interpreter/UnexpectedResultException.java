@@ -0,0 +1,19 @@
+package interpreter;
+
+/**
+ * Thrown by a typed entry point such as {@link Expr#evalDouble} when the value turned
+ * out to have a different type. It carries the value, already computed, so the caller
+ * can continue on its generic path without evaluating anything twice.
+ */
+public final class UnexpectedResultException extends Exception {
+    private final transient Object result;
+
+    public UnexpectedResultException(Object result) {
+        super(null, null, false, false);
+        this.result = result;
+    }
+
+    public Object getResult() {
+        return result;
+    }
+}
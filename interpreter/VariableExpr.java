@@ -1,15 +1,57 @@
 package interpreter;
 
-public class VariableExpr implements Expr {
+public class VariableExpr extends Node implements Expr {
     private final String name;
+    private final int depth;
+    private final int slot;
 
     public VariableExpr(String name) {
+        this(name, -1, -1);
+    }
+
+    VariableExpr(String name, int depth, int slot) {
         this.name = name;
+        this.depth = depth;
+        this.slot = slot;
+    }
+
+    String name() {
+        return name;
+    }
+
+    int depth() {
+        return depth;
+    }
+
+    int slot() {
+        return slot;
     }
 
     @Override
     public Object eval(Environment env) {
-        return env.get(name);
+        if (depth < 0) {
+            throw new IllegalStateException("Unresolved variable: " + name);
+        }
+        Object value = env.get(depth, slot);
+        if (value == null) {
+            throw new RuntimeException("Undefined variable: " + name);
+        }
+        return value;
+    }
+
+    @Override
+    public double evalDouble(Environment env) throws UnexpectedResultException {
+        if (depth < 0) {
+            throw new IllegalStateException("Unresolved variable: " + name);
+        }
+        try {
+            return env.getDouble(depth, slot);
+        } catch (UnexpectedResultException e) {
+            if (e.getResult() == null) {
+                throw new RuntimeException("Undefined variable: " + name);
+            }
+            throw e;
+        }
     }
 }
 
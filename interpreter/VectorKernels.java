@@ -0,0 +1,268 @@
+package interpreter;
+
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD kernels for {@link DoubleArray}, in the widest vectors the CPU supports. The class
+ * only links when the {@code jdk.incubator.vector} module is loaded, so it is only used
+ * when {@link DoubleArray#VECTORIZED} is set. Each kernel runs whole vectors and then the
+ * remaining elements one at a time.
+ *
+ * <p>Vectors are only loaded from and stored to heap arrays, the one form of access every
+ * JDK's Vector API has. Kernels work through arrays a block at a time; a block of an
+ * off-heap array is copied through a heap buffer. Vectors never outlive the helper that
+ * handles one block, which keeps C2 from boxing them.
+ */
+final class VectorKernels {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final int BLOCK = 4096;
+
+    private VectorKernels() {
+    }
+
+    static int lanes() {
+        return SPECIES.length();
+    }
+
+    /**
+     * Whether the kernels work on this JVM: runs each of them on heap and off-heap arrays
+     * and checks the results. Throws a LinkageError if part of the Vector API is missing.
+     */
+    static boolean probe() {
+        int length = 3 * SPECIES.length() + 1;
+        DoubleArray heap = DoubleArray.allocate(length, false);
+        DoubleArray offHeap = DoubleArray.allocate(length, true);
+        for (int i = 0; i < length; i++) {
+            heap.set(i, i + 1);
+            offHeap.set(i, i + 1);
+        }
+        DoubleArray sum = DoubleArray.allocate(length, true);
+        apply(DoubleArray.ADD, heap, 0, offHeap, 0, sum);
+        DoubleArray negated = DoubleArray.allocate(length, false);
+        negate(sum, negated);
+        double total = (double) length * (length + 1);
+        return sum(negated) == -total && dot(heap, offHeap) > total
+                && min(offHeap) == 1 && max(heap) == length && negated.get(length - 1) == -2.0 * length;
+    }
+
+    /**
+     * One block of an operand at a time, readable from {@link #values} at {@link #offset}:
+     * a heap array in place, an off-heap array copied into a buffer, or a scalar repeated
+     * to fill a buffer.
+     */
+    private static final class Block {
+        private final DoubleBuffer offHeap;
+        private final boolean scalar;
+        final double[] values;
+        int offset;
+
+        Block(DoubleArray array) {
+            offHeap = array.heap == null ? array.offHeap.asDoubleBuffer() : null;
+            scalar = false;
+            values = array.heap != null ? array.heap : new double[BLOCK];
+        }
+
+        Block(double value) {
+            offHeap = null;
+            scalar = true;
+            values = new double[BLOCK];
+            Arrays.fill(values, value);
+        }
+
+        /** Makes elements {@code from} to {@code from + count} readable. */
+        void load(int from, int count) {
+            if (offHeap != null) {
+                offHeap.get(from, values, 0, count);
+            } else if (!scalar) {
+                offset = from;
+            }
+        }
+
+        /** Where elements {@code from} onwards are to be written, before {@link #store}. */
+        void target(int from) {
+            offset = offHeap == null ? from : 0;
+        }
+
+        void store(int from, int count) {
+            if (offHeap != null) {
+                offHeap.put(from, values, 0, count);
+            }
+        }
+    }
+
+    /**
+     * {@code out = a op b} element by element, where a null array stands for its scalar
+     * ({@code as} or {@code bs}) in every element. {@code op} is not MODULO.
+     */
+    static void apply(int op, DoubleArray a, double as, DoubleArray b, double bs, DoubleArray out) {
+        Block x = a != null ? new Block(a) : new Block(as);
+        Block y = b != null ? new Block(b) : new Block(bs);
+        Block z = new Block(out);
+        int length = out.length();
+        for (int from = 0; from < length; from += BLOCK) {
+            int count = Math.min(BLOCK, length - from);
+            x.load(from, count);
+            y.load(from, count);
+            z.target(from);
+            apply(op, x.values, x.offset, y.values, y.offset, z.values, z.offset, count);
+            z.store(from, count);
+        }
+    }
+
+    private static void apply(int op, double[] x, int xi, double[] y, int yi, double[] z, int zi, int count) {
+        int bound = SPECIES.loopBound(count);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector u = DoubleVector.fromArray(SPECIES, x, xi + i);
+            DoubleVector v = DoubleVector.fromArray(SPECIES, y, yi + i);
+            switch (op) {
+                case DoubleArray.ADD: u.add(v).intoArray(z, zi + i); break;
+                case DoubleArray.SUBTRACT: u.sub(v).intoArray(z, zi + i); break;
+                case DoubleArray.MULTIPLY: u.mul(v).intoArray(z, zi + i); break;
+                default:
+                    if (v.eq(0).anyTrue()) throw new RuntimeException("Division by zero");
+                    u.div(v).intoArray(z, zi + i);
+                    break;
+            }
+        }
+        for (; i < count; i++) {
+            z[zi + i] = DoubleArray.compute(op, x[xi + i], y[yi + i]);
+        }
+    }
+
+    static void negate(DoubleArray a, DoubleArray out) {
+        Block x = new Block(a);
+        Block z = new Block(out);
+        int length = a.length();
+        for (int from = 0; from < length; from += BLOCK) {
+            int count = Math.min(BLOCK, length - from);
+            x.load(from, count);
+            z.target(from);
+            negate(x.values, x.offset, z.values, z.offset, count);
+            z.store(from, count);
+        }
+    }
+
+    private static void negate(double[] x, int xi, double[] z, int zi, int count) {
+        int bound = SPECIES.loopBound(count);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, x, xi + i).neg().intoArray(z, zi + i);
+        }
+        for (; i < count; i++) {
+            z[zi + i] = -x[xi + i];
+        }
+    }
+
+    static double sum(DoubleArray a) {
+        Block x = new Block(a);
+        int length = a.length();
+        double sum = 0;
+        for (int from = 0; from < length; from += BLOCK) {
+            int count = Math.min(BLOCK, length - from);
+            x.load(from, count);
+            sum += sum(x.values, x.offset, count);
+        }
+        return sum;
+    }
+
+    private static double sum(double[] x, int xi, int count) {
+        int bound = SPECIES.loopBound(count);
+        DoubleVector sums = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            sums = sums.add(DoubleVector.fromArray(SPECIES, x, xi + i));
+        }
+        double sum = sums.reduceLanes(VectorOperators.ADD);
+        for (; i < count; i++) {
+            sum += x[xi + i];
+        }
+        return sum;
+    }
+
+    static double min(DoubleArray a) {
+        Block x = new Block(a);
+        int length = a.length();
+        double min = Double.POSITIVE_INFINITY;
+        for (int from = 0; from < length; from += BLOCK) {
+            int count = Math.min(BLOCK, length - from);
+            x.load(from, count);
+            min = Math.min(min, min(x.values, x.offset, count));
+        }
+        return min;
+    }
+
+    private static double min(double[] x, int xi, int count) {
+        int bound = SPECIES.loopBound(count);
+        DoubleVector mins = DoubleVector.broadcast(SPECIES, Double.POSITIVE_INFINITY);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            mins = mins.min(DoubleVector.fromArray(SPECIES, x, xi + i));
+        }
+        double min = mins.reduceLanes(VectorOperators.MIN);
+        for (; i < count; i++) {
+            min = Math.min(min, x[xi + i]);
+        }
+        return min;
+    }
+
+    static double max(DoubleArray a) {
+        Block x = new Block(a);
+        int length = a.length();
+        double max = Double.NEGATIVE_INFINITY;
+        for (int from = 0; from < length; from += BLOCK) {
+            int count = Math.min(BLOCK, length - from);
+            x.load(from, count);
+            max = Math.max(max, max(x.values, x.offset, count));
+        }
+        return max;
+    }
+
+    private static double max(double[] x, int xi, int count) {
+        int bound = SPECIES.loopBound(count);
+        DoubleVector maxes = DoubleVector.broadcast(SPECIES, Double.NEGATIVE_INFINITY);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            maxes = maxes.max(DoubleVector.fromArray(SPECIES, x, xi + i));
+        }
+        double max = maxes.reduceLanes(VectorOperators.MAX);
+        for (; i < count; i++) {
+            max = Math.max(max, x[xi + i]);
+        }
+        return max;
+    }
+
+    static double dot(DoubleArray a, DoubleArray b) {
+        Block x = new Block(a);
+        Block y = new Block(b);
+        int length = a.length();
+        double sum = 0;
+        for (int from = 0; from < length; from += BLOCK) {
+            int count = Math.min(BLOCK, length - from);
+            x.load(from, count);
+            y.load(from, count);
+            sum += dot(x.values, x.offset, y.values, y.offset, count);
+        }
+        return sum;
+    }
+
+    private static double dot(double[] x, int xi, double[] y, int yi, int count) {
+        int bound = SPECIES.loopBound(count);
+        DoubleVector sums = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector u = DoubleVector.fromArray(SPECIES, x, xi + i);
+            sums = sums.add(u.mul(DoubleVector.fromArray(SPECIES, y, yi + i)));
+        }
+        double sum = sums.reduceLanes(VectorOperators.ADD);
+        for (; i < count; i++) {
+            sum += x[xi + i] * y[yi + i];
+        }
+        return sum;
+    }
+}
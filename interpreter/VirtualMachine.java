@@ -0,0 +1,516 @@
+package interpreter;
+
+import java.util.Arrays;
+
+/**
+ * Register machine that runs a {@link Chunk}. Registers are an {@code Object[]} with a
+ * parallel {@code double[]}, like the frames of an {@link Environment}: a register
+ * holding a number is tagged {@link Environment#NUMBER} and keeps the value unboxed.
+ * Numbers are only boxed where they leave the machine, to be printed or passed to a
+ * builtin or a function.
+ *
+ * <p>Arithmetic and comparisons on two numbers are handled inline; every other
+ * combination goes through the same code as the tree-walker so results and error
+ * messages are identical.
+ */
+final class VirtualMachine {
+    private static final Object NUMBER = Environment.NUMBER;
+
+    private VirtualMachine() {
+    }
+
+    static void run(Chunk chunk, Environment env) {
+        Object[] regs = new Object[chunk.registers()];
+        double[] nums = new double[regs.length];
+        loadConstants(chunk, regs, nums);
+        for (int i = 0; i < chunk.globals; i++) {
+            store(regs, nums, i, env.getGlobal(i));
+        }
+        try {
+            execute(chunk, regs, nums, env, null);
+        } finally {
+            for (int i = 0; i < chunk.globals; i++) {
+                if (regs[i] == NUMBER) {
+                    env.setGlobalDouble(i, nums[i]);
+                } else {
+                    env.setGlobal(i, regs[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs {@code function} on the arguments pushed with {@link Environment#push}, in a
+     * register file taken from the environment's frame stack. Returns its value, or null.
+     */
+    static Object call(Function function, Environment env) {
+        Chunk chunk = function.chunk();
+        env.enterCall(function, chunk.registers());
+        try {
+            Object[] regs = env.frame();
+            double[] nums = env.numbers();
+            unboxArguments(regs, nums, function.arity());
+            loadConstants(chunk, regs, nums);
+            return execute(chunk, regs, nums, env, function);
+        } catch (StackOverflowError e) {
+            throw Function.stackOverflow();
+        } finally {
+            env.exitCall();
+        }
+    }
+
+    /** Runs {@code chunk} until HALT or RETURN; {@code function} is the function it is the body of, if any. */
+    private static Object execute(Chunk chunk, Object[] regs, double[] nums, Environment env, Function function) {
+        final int[] code = chunk.code;
+        final OutputSink output = env.output();
+        int pc = 0;
+
+        while (true) {
+            int op = code[pc++];
+            switch (op) {
+                case Opcode.MOVE: {
+                    int src = code[pc + 1];
+                    if (regs[src] == null) throw undefined(chunk, pc + 1);
+                    regs[code[pc]] = regs[src];
+                    nums[code[pc]] = nums[src];
+                    pc += 2;
+                    break;
+                }
+                case Opcode.ADD: {
+                    int a = code[pc + 1];
+                    int b = code[pc + 2];
+                    if (regs[a] == NUMBER && regs[b] == NUMBER) {
+                        nums[code[pc]] = nums[a] + nums[b];
+                        regs[code[pc]] = NUMBER;
+                    } else {
+                        store(regs, nums, code[pc], binary(op, chunk, regs, nums, pc + 1));
+                    }
+                    pc += 3;
+                    break;
+                }
+                case Opcode.SUB: {
+                    int a = code[pc + 1];
+                    int b = code[pc + 2];
+                    if (regs[a] == NUMBER && regs[b] == NUMBER) {
+                        nums[code[pc]] = nums[a] - nums[b];
+                        regs[code[pc]] = NUMBER;
+                    } else {
+                        store(regs, nums, code[pc], binary(op, chunk, regs, nums, pc + 1));
+                    }
+                    pc += 3;
+                    break;
+                }
+                case Opcode.MUL: {
+                    int a = code[pc + 1];
+                    int b = code[pc + 2];
+                    if (regs[a] == NUMBER && regs[b] == NUMBER) {
+                        nums[code[pc]] = nums[a] * nums[b];
+                        regs[code[pc]] = NUMBER;
+                    } else {
+                        store(regs, nums, code[pc], binary(op, chunk, regs, nums, pc + 1));
+                    }
+                    pc += 3;
+                    break;
+                }
+                case Opcode.DIV: {
+                    int a = code[pc + 1];
+                    int b = code[pc + 2];
+                    if (regs[a] == NUMBER && regs[b] == NUMBER && nums[b] != 0) {
+                        nums[code[pc]] = nums[a] / nums[b];
+                        regs[code[pc]] = NUMBER;
+                    } else {
+                        store(regs, nums, code[pc], binary(op, chunk, regs, nums, pc + 1));
+                    }
+                    pc += 3;
+                    break;
+                }
+                case Opcode.MOD: {
+                    int a = code[pc + 1];
+                    int b = code[pc + 2];
+                    if (regs[a] == NUMBER && regs[b] == NUMBER) {
+                        nums[code[pc]] = nums[a] % nums[b];
+                        regs[code[pc]] = NUMBER;
+                    } else {
+                        store(regs, nums, code[pc], binary(op, chunk, regs, nums, pc + 1));
+                    }
+                    pc += 3;
+                    break;
+                }
+                case Opcode.LT: {
+                    int a = code[pc + 1];
+                    int b = code[pc + 2];
+                    regs[code[pc]] = regs[a] == NUMBER && regs[b] == NUMBER
+                            ? (Object) (nums[a] < nums[b])
+                            : binary(op, chunk, regs, nums, pc + 1);
+                    pc += 3;
+                    break;
+                }
+                case Opcode.GT: {
+                    int a = code[pc + 1];
+                    int b = code[pc + 2];
+                    regs[code[pc]] = regs[a] == NUMBER && regs[b] == NUMBER
+                            ? (Object) (nums[a] > nums[b])
+                            : binary(op, chunk, regs, nums, pc + 1);
+                    pc += 3;
+                    break;
+                }
+                case Opcode.LE: {
+                    int a = code[pc + 1];
+                    int b = code[pc + 2];
+                    regs[code[pc]] = regs[a] == NUMBER && regs[b] == NUMBER
+                            ? (Object) (nums[a] <= nums[b])
+                            : binary(op, chunk, regs, nums, pc + 1);
+                    pc += 3;
+                    break;
+                }
+                case Opcode.GE: {
+                    int a = code[pc + 1];
+                    int b = code[pc + 2];
+                    regs[code[pc]] = regs[a] == NUMBER && regs[b] == NUMBER
+                            ? (Object) (nums[a] >= nums[b])
+                            : binary(op, chunk, regs, nums, pc + 1);
+                    pc += 3;
+                    break;
+                }
+                case Opcode.EQ:
+                case Opcode.NE: {
+                    int a = code[pc + 1];
+                    int b = code[pc + 2];
+                    regs[code[pc]] = regs[a] == NUMBER && regs[b] == NUMBER
+                            ? (Object) ((nums[a] == nums[b]) == (op == Opcode.EQ))
+                            : binary(op, chunk, regs, nums, pc + 1);
+                    pc += 3;
+                    break;
+                }
+                case Opcode.AND:
+                case Opcode.OR:
+                    regs[code[pc]] = binary(op, chunk, regs, nums, pc + 1);
+                    pc += 3;
+                    break;
+                case Opcode.ADD_NUMBER:
+                    nums[code[pc]] = number(chunk, regs, nums, pc + 1) + number(chunk, regs, nums, pc + 2);
+                    regs[code[pc]] = NUMBER;
+                    pc += 3;
+                    break;
+                case Opcode.SUB_NUMBER:
+                    nums[code[pc]] = number(chunk, regs, nums, pc + 1) - number(chunk, regs, nums, pc + 2);
+                    regs[code[pc]] = NUMBER;
+                    pc += 3;
+                    break;
+                case Opcode.MUL_NUMBER:
+                    nums[code[pc]] = number(chunk, regs, nums, pc + 1) * number(chunk, regs, nums, pc + 2);
+                    regs[code[pc]] = NUMBER;
+                    pc += 3;
+                    break;
+                case Opcode.DIV_NUMBER: {
+                    double dividend = number(chunk, regs, nums, pc + 1);
+                    double divisor = number(chunk, regs, nums, pc + 2);
+                    if (divisor == 0) throw new RuntimeException("Division by zero");
+                    nums[code[pc]] = dividend / divisor;
+                    regs[code[pc]] = NUMBER;
+                    pc += 3;
+                    break;
+                }
+                case Opcode.MOD_NUMBER:
+                    nums[code[pc]] = number(chunk, regs, nums, pc + 1) % number(chunk, regs, nums, pc + 2);
+                    regs[code[pc]] = NUMBER;
+                    pc += 3;
+                    break;
+                case Opcode.NEG: {
+                    int a = code[pc + 1];
+                    if (regs[a] == NUMBER) {
+                        nums[code[pc]] = -nums[a];
+                        regs[code[pc]] = NUMBER;
+                    } else {
+                        store(regs, nums, code[pc], UnaryExpr.apply("-", defined(chunk, regs, nums, pc + 1)));
+                    }
+                    pc += 2;
+                    break;
+                }
+                case Opcode.NOT:
+                    regs[code[pc]] = UnaryExpr.apply("!", defined(chunk, regs, nums, pc + 1));
+                    pc += 2;
+                    break;
+                case Opcode.PRINT:
+                    output.print(defined(chunk, regs, nums, pc));
+                    pc++;
+                    break;
+                case Opcode.JUMP:
+                    pc = code[pc];
+                    break;
+                case Opcode.JUMP_IF_TRUE:
+                    if (Boolean.TRUE.equals(assigned(chunk, regs, pc))) {
+                        env.tick();
+                        pc = code[pc + 1];
+                    } else {
+                        pc += 2;
+                    }
+                    break;
+                case Opcode.JUMP_IF_FALSE: {
+                    Object cond = assigned(chunk, regs, pc);
+                    if (!(cond instanceof Boolean)) {
+                        throw new RuntimeException("Condition must evaluate to a boolean.");
+                    }
+                    pc = (Boolean) cond ? pc + 2 : code[pc + 1];
+                    break;
+                }
+                case Opcode.JUMP_IF_LT: {
+                    int a = code[pc];
+                    int b = code[pc + 1];
+                    boolean taken = regs[a] == NUMBER && regs[b] == NUMBER
+                            ? nums[a] < nums[b]
+                            : (Boolean) binary(op, chunk, regs, nums, pc);
+                    if (taken) {
+                        env.tick();
+                        pc = code[pc + 2];
+                    } else {
+                        pc += 3;
+                    }
+                    break;
+                }
+                case Opcode.JUMP_IF_GT: {
+                    int a = code[pc];
+                    int b = code[pc + 1];
+                    boolean taken = regs[a] == NUMBER && regs[b] == NUMBER
+                            ? nums[a] > nums[b]
+                            : (Boolean) binary(op, chunk, regs, nums, pc);
+                    if (taken) {
+                        env.tick();
+                        pc = code[pc + 2];
+                    } else {
+                        pc += 3;
+                    }
+                    break;
+                }
+                case Opcode.JUMP_IF_LE: {
+                    int a = code[pc];
+                    int b = code[pc + 1];
+                    boolean taken = regs[a] == NUMBER && regs[b] == NUMBER
+                            ? nums[a] <= nums[b]
+                            : (Boolean) binary(op, chunk, regs, nums, pc);
+                    if (taken) {
+                        env.tick();
+                        pc = code[pc + 2];
+                    } else {
+                        pc += 3;
+                    }
+                    break;
+                }
+                case Opcode.JUMP_IF_GE: {
+                    int a = code[pc];
+                    int b = code[pc + 1];
+                    boolean taken = regs[a] == NUMBER && regs[b] == NUMBER
+                            ? nums[a] >= nums[b]
+                            : (Boolean) binary(op, chunk, regs, nums, pc);
+                    if (taken) {
+                        env.tick();
+                        pc = code[pc + 2];
+                    } else {
+                        pc += 3;
+                    }
+                    break;
+                }
+                case Opcode.JUMP_UNLESS_LT: {
+                    int a = code[pc];
+                    int b = code[pc + 1];
+                    boolean taken = regs[a] == NUMBER && regs[b] == NUMBER
+                            ? !(nums[a] < nums[b])
+                            : !(Boolean) binary(op, chunk, regs, nums, pc);
+                    pc = taken ? code[pc + 2] : pc + 3;
+                    break;
+                }
+                case Opcode.JUMP_UNLESS_GT: {
+                    int a = code[pc];
+                    int b = code[pc + 1];
+                    boolean taken = regs[a] == NUMBER && regs[b] == NUMBER
+                            ? !(nums[a] > nums[b])
+                            : !(Boolean) binary(op, chunk, regs, nums, pc);
+                    pc = taken ? code[pc + 2] : pc + 3;
+                    break;
+                }
+                case Opcode.JUMP_UNLESS_LE: {
+                    int a = code[pc];
+                    int b = code[pc + 1];
+                    boolean taken = regs[a] == NUMBER && regs[b] == NUMBER
+                            ? !(nums[a] <= nums[b])
+                            : !(Boolean) binary(op, chunk, regs, nums, pc);
+                    pc = taken ? code[pc + 2] : pc + 3;
+                    break;
+                }
+                case Opcode.JUMP_UNLESS_GE: {
+                    int a = code[pc];
+                    int b = code[pc + 1];
+                    boolean taken = regs[a] == NUMBER && regs[b] == NUMBER
+                            ? !(nums[a] >= nums[b])
+                            : !(Boolean) binary(op, chunk, regs, nums, pc);
+                    pc = taken ? code[pc + 2] : pc + 3;
+                    break;
+                }
+                case Opcode.CLEAR:
+                    Arrays.fill(regs, code[pc], code[pc] + code[pc + 1], null);
+                    pc += 2;
+                    break;
+                case Opcode.JUMP_AND:
+                case Opcode.JUMP_OR: {
+                    Object a = assigned(chunk, regs, pc + 1);
+                    if (a instanceof Boolean && (Boolean) a == (op == Opcode.JUMP_OR)) {
+                        regs[code[pc]] = a;
+                        pc = code[pc + 2];
+                    } else {
+                        pc += 3;
+                    }
+                    break;
+                }
+                case Opcode.INDEX: {
+                    Object array = defined(chunk, regs, nums, pc + 1);
+                    int index = code[pc + 2];
+                    if (regs[index] == NUMBER) {
+                        nums[code[pc]] = DoubleArray.index(array, nums[index]);
+                        regs[code[pc]] = NUMBER;
+                    } else {
+                        store(regs, nums, code[pc], DoubleArray.index(array, defined(chunk, regs, nums, pc + 2)));
+                    }
+                    pc += 3;
+                    break;
+                }
+                case Opcode.CALL:
+                    store(regs, nums, code[pc], Builtin.VALUES[code[pc + 1]].call(
+                            values(regs, nums, code[pc + 2], code[pc + 3])));
+                    pc += 4;
+                    break;
+                case Opcode.ARRAY:
+                    regs[code[pc]] = array(regs, nums, code[pc + 1], code[pc + 2]);
+                    pc += 3;
+                    break;
+                case Opcode.INVOKE: {
+                    InvokeExpr site = (InvokeExpr) regs[code[pc + 1]];
+                    Object value = invoke(site, regs, nums, code[pc + 2], code[pc + 3], env);
+                    if (value == null) throw InvokeExpr.noValue(site.name());
+                    store(regs, nums, code[pc], value);
+                    pc += 4;
+                    break;
+                }
+                case Opcode.INVOKE_VOID:
+                    invoke((InvokeExpr) regs[code[pc]], regs, nums, code[pc + 1], code[pc + 2], env);
+                    pc += 3;
+                    break;
+                case Opcode.RETURN:
+                    return defined(chunk, regs, nums, pc);
+                case Opcode.RETURN_CALL: {
+                    InvokeExpr site = (InvokeExpr) regs[code[pc]];
+                    int first = code[pc + 1];
+                    int count = code[pc + 2];
+                    for (int i = 0; i < count; i++) {
+                        env.push(value(regs, nums, first + i));
+                    }
+                    Function target = site.target(env);
+                    if (target != function) return call(target, env);
+                    // A tail call of itself: the same registers, from the top.
+                    env.restartCall(chunk.constantBase);
+                    unboxArguments(regs, nums, function.arity());
+                    pc = 0;
+                    break;
+                }
+                case Opcode.DEFINE:
+                    env.functions().define((Function) regs[code[pc]]);
+                    pc++;
+                    break;
+                case Opcode.HALT:
+                    return null;
+                default:
+                    throw new IllegalStateException("Bad opcode " + op + " at " + (pc - 1));
+            }
+        }
+    }
+
+    private static Object invoke(InvokeExpr site, Object[] regs, double[] nums, int first, int count, Environment env) {
+        for (int i = 0; i < count; i++) {
+            env.push(value(regs, nums, first + i));
+        }
+        return call(site.target(env), env);
+    }
+
+    /** Generic path for a binary operator whose two register operands start at {@code at}. */
+    private static Object binary(int op, Chunk chunk, Object[] regs, double[] nums, int at) {
+        Object left = defined(chunk, regs, nums, at);
+        Object right = defined(chunk, regs, nums, at + 1);
+        return BinaryExpr.apply(Opcode.OPERATORS[op], left, right);
+    }
+
+    private static DoubleArray array(Object[] regs, double[] nums, int first, int count) {
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            if (regs[first + i] != NUMBER) throw ArrayExpr.elementError(regs[first + i]);
+            values[i] = nums[first + i];
+        }
+        return DoubleArray.of(values);
+    }
+
+    private static Object[] values(Object[] regs, double[] nums, int first, int count) {
+        Object[] values = new Object[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = value(regs, nums, first + i);
+        }
+        return values;
+    }
+
+    private static void loadConstants(Chunk chunk, Object[] regs, double[] nums) {
+        int count = chunk.constants.length;
+        System.arraycopy(chunk.constantTags, 0, regs, chunk.constantBase, count);
+        System.arraycopy(chunk.constantNumbers, 0, nums, chunk.constantBase, count);
+    }
+
+    /** Arguments arrive boxed, in the first registers of the frame. */
+    private static void unboxArguments(Object[] regs, double[] nums, int count) {
+        for (int i = 0; i < count; i++) {
+            store(regs, nums, i, regs[i]);
+        }
+    }
+
+    private static void store(Object[] regs, double[] nums, int register, Object value) {
+        if (value instanceof Double number) {
+            regs[register] = NUMBER;
+            nums[register] = number;
+        } else {
+            regs[register] = value;
+        }
+    }
+
+    /** The value of a register, boxed if it is a number. */
+    private static Object value(Object[] regs, double[] nums, int register) {
+        Object value = regs[register];
+        return value == NUMBER ? (Object) nums[register] : value;
+    }
+
+    /**
+     * An operand of a typed opcode. The TypeChecker has proven it a number if it is
+     * assigned, but a variable can still be unassigned.
+     */
+    private static double number(Chunk chunk, Object[] regs, double[] nums, int at) {
+        int register = chunk.code[at];
+        if (regs[register] != NUMBER) {
+            if (regs[register] == null) throw undefined(chunk, at);
+            throw new IllegalStateException("Operand of a proven type was " + BinaryExpr.typeName(regs[register]));
+        }
+        return nums[register];
+    }
+
+    private static Object defined(Chunk chunk, Object[] regs, double[] nums, int at) {
+        int register = chunk.code[at];
+        Object value = regs[register];
+        if (value == NUMBER) return nums[register];
+        if (value == null) throw undefined(chunk, at);
+        return value;
+    }
+
+    /** Like {@link #defined}, without boxing: a number is returned as its tag. */
+    private static Object assigned(Chunk chunk, Object[] regs, int at) {
+        Object value = regs[chunk.code[at]];
+        if (value == null) throw undefined(chunk, at);
+        return value;
+    }
+
+    private static RuntimeException undefined(Chunk chunk, int at) {
+        return new RuntimeException("Undefined variable: " + chunk.operandNames[at]);
+    }
+}
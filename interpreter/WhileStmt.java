@@ -1,19 +1,113 @@
 package interpreter;
 
-public class WhileStmt implements Stmt {
+import java.lang.invoke.MethodHandle;
+import java.util.Arrays;
+
+public class WhileStmt extends Node implements Stmt {
+    static final int[] NO_SLOTS = {};
+    static final int[][] NO_NUMBERS = {};
+
     private final Expr condition;
     private final Stmt body;
+    // Cache slots this loop owns, cleared on entry, and slots of enclosing loops that
+    // its assignments clear, cleared after a compiled run (see LoopOptimizer).
+    private final int[] cached;
+    private final int[] clobbered;
+    // Sorted slots, by depth from the loop, of the variables the TypeChecker has proven
+    // to hold a number whenever the condition is tested.
+    private final int[][] numbers;
+    // Tiering state: iterations run in the tree-walker, and the loop once compiled.
+    private int iterations;
+    private boolean compileFailed;
+    private volatile MethodHandle compiled;
 
     public WhileStmt(Expr condition, Stmt body) {
+        this(condition, body, NO_SLOTS, NO_SLOTS, NO_NUMBERS);
+    }
+
+    WhileStmt(Expr condition, Stmt body, int[] cached, int[] clobbered, int[][] numbers) {
         this.condition = condition;
         this.body = body;
+        this.cached = cached;
+        this.clobbered = clobbered;
+        this.numbers = numbers;
+    }
+
+    Expr condition() {
+        return condition;
+    }
+
+    Stmt body() {
+        return body;
+    }
+
+    int[] cached() {
+        return cached;
+    }
+
+    int[] clobbered() {
+        return clobbered;
+    }
+
+    int[][] numbers() {
+        return numbers;
+    }
+
+    /** Whether the variable at (depth, slot) from the loop is proven a number whenever the condition is tested. */
+    boolean number(int depth, int slot) {
+        return depth < numbers.length && Arrays.binarySearch(numbers[depth], slot) >= 0;
     }
 
     @Override
     public void execute(Environment env) {
-        while (Boolean.TRUE.equals(condition.eval(env))) {
+        MethodHandle loop = compiled;
+        if (loop != null) {
+            runCompiled(loop, env);
+            return;
+        }
+        if (cached.length > 0) {
+            env.uncache(cached);
+        }
+        int threshold = env.jitThreshold();
+        while (test(env)) {
+            env.tick();
             body.execute(env);
+            if (threshold > 0 && ++iterations >= threshold && !compileFailed) {
+                // The environment is up to date, so the compiled loop can take over here.
+                loop = promote();
+                if (loop != null) {
+                    runCompiled(loop, env);
+                    return;
+                }
+            }
+        }
+    }
+
+    // Compiled code neither reads nor clears cache slots.
+    private void runCompiled(MethodHandle loop, Environment env) {
+        LoopCompiler.invoke(loop, env);
+        if (clobbered.length > 0) {
+            env.uncache(clobbered);
+        }
+    }
+
+    // Anything but true ends the loop.
+    private boolean test(Environment env) {
+        try {
+            return condition.evalBoolean(env);
+        } catch (UnexpectedResultException e) {
+            return false;
+        }
+    }
+
+    private MethodHandle promote() {
+        MethodHandle loop = LoopCompiler.compile(this);
+        if (loop == null) {
+            compileFailed = true;
+        } else {
+            compiled = loop;
         }
+        return loop;
     }
 }
 